@@ -0,0 +1,25 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Rect;
+
+import junit.framework.TestCase;
+
+public class CustomWebViewTest extends TestCase {
+
+    public void testDirtyRectIsMovedByTheScrollOffset() {
+        Rect dirty = new Rect(100, 5200, 300, 5300);
+        assertTrue(CustomWebView.toSurfaceRect(dirty, 40, 5000));
+        assertEquals(new Rect(60, 200, 260, 300), dirty);
+    }
+
+    public void testDirtyRectIsClippedToTheSurface() {
+        Rect dirty = new Rect(0, 900, 100, 1100);
+        assertTrue(CustomWebView.toSurfaceRect(dirty, 0, 1000));
+        assertEquals(new Rect(0, 0, 100, 100), dirty);
+    }
+
+    public void testDirtyRectScrolledOutOfViewIsNotOnTheSurface() {
+        Rect dirty = new Rect(0, 0, 100, 100);
+        assertFalse(CustomWebView.toSurfaceRect(dirty, 0, 1000));
+    }
+}
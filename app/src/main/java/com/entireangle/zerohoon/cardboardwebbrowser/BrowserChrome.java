@@ -0,0 +1,288 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The back and forward buttons, the address bar, the tab buttons and the scroll bar around
+ * the page panel, drawn in the GL scene instead of as Android views. The new tab button opens
+ * the start page in another tab, and the tab button, which shows how many tabs are open, flips
+ * back to the tab shown before; see {@link TabManager}.
+ *
+ * The widgets are laid out in the page panel's model space, where the page spans -1..1, so
+ * they move with it and are hit-tested against the same gaze hit as the page. All of them
+ * come from the glyph atlas and are drawn as one {@link SpriteBatch}, one draw call per eye.
+ * The UI thread reports page changes through {@link #onPageChanged}; the GL thread rebuilds
+ * the batch only when they, or the hovered widget, changed since the last frame.
+ */
+class BrowserChrome {
+
+    static final int NO_WIDGET = -1;
+    static final int WIDGET_BACK = 0;
+    static final int WIDGET_FORWARD = 1;
+    static final int WIDGET_ADDRESS = 2;
+    static final int WIDGET_SCROLL_BAR = 3;
+    static final int WIDGET_NEW_TAB = 4;
+    static final int WIDGET_TABS = 5;
+    private static final int WIDGET_COUNT = 6;
+
+    // Left, bottom, right and top of each widget, in page panel space.
+    private static final float[] BOUNDS = {
+            -1.00f, 1.03f, -0.90f, 1.13f,
+            -0.88f, 1.03f, -0.78f, 1.13f,
+            -0.76f, 1.03f, 0.76f, 1.13f,
+            1.02f, -1.00f, 1.07f, 1.00f,
+            0.78f, 1.03f, 0.88f, 1.13f,
+            0.90f, 1.03f, 1.00f, 1.13f,
+    };
+    // Labels of the tab button, so rebuilding the batch does not format numbers.
+    private static final String[] TAB_COUNTS = { "0", "1", "2", "3", "4" };
+    private static final float TEXT_HEIGHT = 0.06f;
+    private static final float TEXT_MARGIN = 0.02f;
+    private static final String ELLIPSIS = "...";
+    // Two quads per widget plus the address text.
+    private static final int MAX_QUADS = 2 * WIDGET_COUNT + 128;
+
+    private static final float BACKGROUND = 0.2f;
+    private static final float HOVERED_BACKGROUND = 0.35f;
+    private static final float BACKGROUND_ALPHA = 0.85f;
+    private static final float DISABLED_TEXT = 0.45f;
+    private static final float THUMB = 0.75f;
+
+    // Page state, written on the UI thread before the version is bumped.
+    private volatile String mUrl = "";
+    private volatile boolean mCanGoBack;
+    private volatile boolean mCanGoForward;
+    private volatile float mScrollOffset;
+    private volatile float mScrollExtent = 1;
+    private volatile int mTabCount;
+    private final AtomicInteger mVersion = new AtomicInteger();
+    // UI thread.
+    private TabManager mTabs;
+    private String mNewTabUrl;
+
+    // GL thread.
+    private final SpriteBatch mBatch = new SpriteBatch(MAX_QUADS);
+    private GlyphAtlas mAtlas;
+    private int mBuiltVersion = -1;
+    private int mBuiltHovered = NO_WIDGET;
+    private int mHovered = NO_WIDGET;
+    private float mHoveredU;
+    private float mHoveredV;
+    private final float[] mUvs = new float[4];
+    private final StringBuilder mAddress = new StringBuilder();
+
+    /**
+     * Has the tab buttons open and switch tabs of the given manager. UI thread.
+     *
+     * @param newTabUrl The page a new tab opens.
+     */
+    void setTabs(TabManager tabs, String newTabUrl) {
+        mTabs = tabs;
+        mNewTabUrl = newTabUrl;
+    }
+
+    /**
+     * Picks up the navigation and scroll state of the active page. UI thread.
+     */
+    void onPageChanged(CustomWebView webView) {
+        String url = webView.getUrl();
+        mUrl = url != null ? url : "";
+        BrowserTab tab = mTabs != null ? mTabs.getActiveTab() : null;
+        // Past the start of its history, the tab may still go back to an earlier WebView.
+        mCanGoBack = tab != null && tab.getWebView() == webView
+                ? tab.canGoBack() : webView.canGoBack();
+        mCanGoForward = webView.canGoForward();
+        mScrollOffset = webView.getVerticalScrollOffsetFraction();
+        mScrollExtent = webView.getVerticalScrollExtentFraction();
+        mTabCount = mTabs != null ? mTabs.getTabCount() : 1;
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Acts on a click on a widget. UI thread.
+     *
+     * @param u Where the widget was clicked, 0..1 from its left.
+     * @param v Where the widget was clicked, 0..1 from its top.
+     */
+    void onClick(CustomWebView webView, int widget, float u, float v) {
+        switch (widget) {
+            case WIDGET_BACK:
+                if (mTabs != null) {
+                    mTabs.goBack();
+                } else if (webView.canGoBack()) {
+                    webView.goBack();
+                }
+                break;
+            case WIDGET_FORWARD:
+                if (webView.canGoForward()) {
+                    webView.goForward();
+                }
+                break;
+            case WIDGET_ADDRESS:
+                // There is no keyboard to type an address with; the address bar reloads.
+                webView.reload();
+                break;
+            case WIDGET_SCROLL_BAR:
+                // Centers the thumb where the bar was clicked.
+                webView.scrollToVerticalFraction(v - webView.getVerticalScrollExtentFraction() / 2);
+                break;
+            case WIDGET_NEW_TAB:
+                if (mTabs != null) {
+                    mTabs.openTab(mNewTabUrl);
+                }
+                break;
+            case WIDGET_TABS:
+                if (mTabs != null) {
+                    mTabs.switchToPrevious();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Sets up a new GL context.
+     *
+     * @param program The program of sprite_vertex and sprite_fragment.
+     * @param atlas The atlas the widgets are drawn from, uploaded into the new context.
+     */
+    void onSurfaceCreated(GLStateCache state, int program, GlyphAtlas atlas) {
+        mAtlas = atlas;
+        mBatch.onSurfaceCreated(state, program);
+        mBuiltVersion = -1;
+    }
+
+    /**
+     * Finds the widget under a gaze hit on the page panel's plane. GL thread.
+     *
+     * @param x The x of the hit in page panel space.
+     * @param y The y of the hit in page panel space.
+     * @param inFront Whether the plane is in front of the head at all.
+     * @return The hovered widget, or NO_WIDGET.
+     */
+    int hitTest(float x, float y, boolean inFront) {
+        mHovered = NO_WIDGET;
+        if (!inFront) {
+            return NO_WIDGET;
+        }
+        for (int i = 0; i < WIDGET_COUNT; i++) {
+            float left = BOUNDS[i * 4];
+            float bottom = BOUNDS[i * 4 + 1];
+            float right = BOUNDS[i * 4 + 2];
+            float top = BOUNDS[i * 4 + 3];
+            if (x >= left && x <= right && y >= bottom && y <= top) {
+                mHovered = i;
+                mHoveredU = (x - left) / (right - left);
+                mHoveredV = (top - y) / (top - bottom);
+                break;
+            }
+        }
+        return mHovered;
+    }
+
+    int getHoveredWidget() {
+        return mHovered;
+    }
+
+    float getHoveredU() {
+        return mHoveredU;
+    }
+
+    float getHoveredV() {
+        return mHoveredV;
+    }
+
+    /**
+     * Rebuilds and uploads the batch if anything it shows changed. GL thread.
+     */
+    void update(GLStateCache state) {
+        int version = mVersion.get();
+        if (mAtlas == null || (version == mBuiltVersion && mHovered == mBuiltHovered)) {
+            return;
+        }
+        mBuiltVersion = version;
+        mBuiltHovered = mHovered;
+
+        mBatch.begin();
+        mAtlas.getSolidUvs(mUvs, 0);
+        for (int i = 0; i < WIDGET_COUNT; i++) {
+            float gray = i == mHovered && i != WIDGET_SCROLL_BAR ? HOVERED_BACKGROUND
+                    : BACKGROUND;
+            mBatch.quad(BOUNDS[i * 4], BOUNDS[i * 4 + 1], BOUNDS[i * 4 + 2], BOUNDS[i * 4 + 3],
+                    mUvs, gray, gray, gray, BACKGROUND_ALPHA);
+        }
+        float offset = mScrollOffset;
+        float extent = mScrollExtent;
+        if (extent < 1) {
+            int bar = WIDGET_SCROLL_BAR * 4;
+            float height = BOUNDS[bar + 3] - BOUNDS[bar + 1];
+            float thumbTop = BOUNDS[bar + 3] - offset * height;
+            float thumb = mHovered == WIDGET_SCROLL_BAR ? 1 : THUMB;
+            mBatch.quad(BOUNDS[bar], thumbTop - extent * height, BOUNDS[bar + 2], thumbTop,
+                    mUvs, thumb, thumb, thumb, 1);
+        }
+        label(WIDGET_BACK, "<", mCanGoBack);
+        label(WIDGET_FORWARD, ">", mCanGoForward);
+        label(WIDGET_NEW_TAB, "+", true);
+        int tabs = Math.min(mTabCount, TAB_COUNTS.length - 1);
+        label(WIDGET_TABS, TAB_COUNTS[tabs], tabs > 1);
+        addressText();
+        mBatch.end();
+        mBatch.upload(state);
+    }
+
+    /**
+     * Draws the chrome for one eye. The program and the atlas texture must be bound.
+     *
+     * @param mvp The page panel's model view projection.
+     */
+    void draw(GLStateCache state, float[] mvp) {
+        mBatch.draw(state, mvp);
+    }
+
+    private void label(int widget, String text, boolean enabled) {
+        float left = BOUNDS[widget * 4];
+        float bottom = BOUNDS[widget * 4 + 1];
+        float right = BOUNDS[widget * 4 + 2];
+        float top = BOUNDS[widget * 4 + 3];
+        float width = textWidth(text, 0, text.length());
+        float gray = enabled ? 1 : DISABLED_TEXT;
+        mBatch.text(mAtlas, text, (left + right - width) / 2, (top + bottom + TEXT_HEIGHT) / 2,
+                TEXT_HEIGHT, gray, gray, gray, 1);
+    }
+
+    /**
+     * Writes as much of the url as fits the address bar, ending in an ellipsis if cut.
+     */
+    private void addressText() {
+        int bar = WIDGET_ADDRESS * 4;
+        float maxWidth = BOUNDS[bar + 2] - BOUNDS[bar] - 2 * TEXT_MARGIN;
+        String url = mUrl;
+        mAddress.setLength(0);
+        if (textWidth(url, 0, url.length()) <= maxWidth) {
+            mAddress.append(url);
+        } else {
+            float available = maxWidth - textWidth(ELLIPSIS, 0, ELLIPSIS.length());
+            float scale = TEXT_HEIGHT / mAtlas.getLineHeight();
+            float width = 0;
+            int end = 0;
+            while (end < url.length()) {
+                width += mAtlas.getAdvance(url.charAt(end)) * scale;
+                if (width > available) {
+                    break;
+                }
+                end++;
+            }
+            mAddress.append(url, 0, end).append(ELLIPSIS);
+        }
+        mBatch.text(mAtlas, mAddress, BOUNDS[bar] + TEXT_MARGIN,
+                (BOUNDS[bar + 1] + BOUNDS[bar + 3] + TEXT_HEIGHT) / 2, TEXT_HEIGHT, 1, 1, 1, 1);
+    }
+
+    private float textWidth(String text, int start, int end) {
+        float width = 0;
+        for (int i = start; i < end; i++) {
+            width += mAtlas.getAdvance(text.charAt(i));
+        }
+        return width * TEXT_HEIGHT / mAtlas.getLineHeight();
+    }
+}
@@ -0,0 +1,273 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A browser tab: one pooled {@link CustomWebView} together with the external texture and
+ * SurfaceTexture its page is captured into.
+ *
+ * The texture side is owned by the GL thread. It can be released while the tab is in the
+ * background and is recreated, with a fresh raster of the page, when the tab is shown again.
+ * The capture surface is handed to and taken from the WebView on the UI thread, where
+ * {@link CustomWebView#setCaptureSurface} waits out a capture in progress, so the GL thread
+ * never waits for a page raster; a surface is only released once its view has let go of it.
+ * The UI thread may put another WebView in the tab; the GL thread notices on its next latch
+ * and posts the move of the capture surface to the UI thread as well.
+ *
+ * When a prefetched page takes over the tab, the WebView it had is kept, paused, as a back
+ * view, so going back past the start of the new WebView's history returns to it.
+ */
+class BrowserTab implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final int BYTES_PER_PIXEL = 4;
+    // The BufferQueue behind the SurfaceTexture holds at least a front and a back buffer.
+    private static final int BUFFERS_PER_SURFACE = 2;
+
+    private volatile CustomWebView mWebView;
+    // WebViews the tab showed before a prefetched page took over, newest last. Each still
+    // holds its page and history. UI thread.
+    private final List<CustomWebView> mBackViews = new ArrayList<CustomWebView>();
+    // The WebView that captures into mSurface. GL thread.
+    private CustomWebView mCapturingView;
+    private final float[] mSTMatrix = new float[16];
+    // Frames the WebView has posted to the surface that have not been latched yet.
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+    private int mTextureId;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+    private int mBufferWidth;
+    private int mBufferHeight;
+    // Whether the texture holds a page frame yet.
+    private boolean mHasFrame;
+    // Set by the UI thread when the tab is reused for another page.
+    private volatile boolean mFrameStale;
+    private volatile long mLastUsedNanos;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    BrowserTab(CustomWebView webView) {
+        mWebView = webView;
+        Matrix.setIdentityM(mSTMatrix, 0);
+    }
+
+    CustomWebView getWebView() {
+        return mWebView;
+    }
+
+    /**
+     * Puts another WebView in the tab. Must run on the UI thread.
+     */
+    void setWebView(CustomWebView webView) {
+        mWebView = webView;
+    }
+
+    /**
+     * Keeps the WebView the tab showed before, to go back to. Must run on the UI thread.
+     */
+    void pushBackView(CustomWebView webView) {
+        mBackViews.add(webView);
+    }
+
+    /**
+     * @return The newest back view, which the tab no longer keeps, or null. Must run on the
+     *         UI thread.
+     */
+    CustomWebView popBackView() {
+        return mBackViews.isEmpty() ? null : mBackViews.remove(mBackViews.size() - 1);
+    }
+
+    int getBackViewCount() {
+        return mBackViews.size();
+    }
+
+    /**
+     * @return Whether the WebView's history or a back view has somewhere to go back to. Must
+     *         run on the UI thread.
+     */
+    boolean canGoBack() {
+        return mWebView.canGoBack() || !mBackViews.isEmpty();
+    }
+
+    int getTextureId() {
+        return mTextureId;
+    }
+
+    float[] getSTMatrix() {
+        return mSTMatrix;
+    }
+
+    boolean hasTexture() {
+        return mSurfaceTexture != null;
+    }
+
+    boolean hasFrame() {
+        return mHasFrame;
+    }
+
+    /**
+     * Stops the page frame in the texture being shown, until the next one is latched, for
+     * when the tab is reused for another page. Must run on the UI thread.
+     */
+    void discardFrame() {
+        mFrameStale = true;
+    }
+
+    long getTextureBytes() {
+        return hasTexture()
+                ? (long) mBufferWidth * mBufferHeight * BYTES_PER_PIXEL * BUFFERS_PER_SURFACE : 0;
+    }
+
+    long getLastUsedNanos() {
+        return mLastUsedNanos;
+    }
+
+    void markUsed() {
+        mLastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Creates the texture and capture surface for this tab. Must run on the GL thread.
+     *
+     * @param filter The min/mag filter of the external texture.
+     */
+    void createTexture(GLStateCache state, int filter) {
+        mTextureId = state.genTexture();
+        state.bindTexture(MainActivity.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+                filter);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+                filter);
+
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        resizeBuffer(mWebView.getCaptureScale());
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mPendingFrames.set(0);
+        mHasFrame = false;
+        Matrix.setIdentityM(mSTMatrix, 0);
+        mSurface = new Surface(mSurfaceTexture);
+        mCapturingView = mWebView;
+        postCaptureSurface(mCapturingView, mSurface);
+    }
+
+    /**
+     * Resizes the capture buffer to the given fraction of the page size. Must run on the GL
+     * thread, before the WebView is told about the new scale.
+     */
+    void resizeBuffer(float scale) {
+        mBufferWidth = Math.round(CustomWebView.TEXTURE_WIDTH * scale);
+        mBufferHeight = Math.round(CustomWebView.TEXTURE_HEIGHT * scale);
+        mSurfaceTexture.setDefaultBufferSize(mBufferWidth, mBufferHeight);
+    }
+
+    /**
+     * Latches the newest page frame if one is pending. Must run on the GL thread.
+     *
+     * @return true if a new frame was latched.
+     */
+    boolean latch() {
+        CustomWebView webView = mWebView;
+        if (mSurfaceTexture != null && webView != mCapturingView) {
+            // The buffer keeps its size, so the new view captures at the old one's scale.
+            webView.setCaptureScale(mCapturingView.getCaptureScale());
+            postMoveSurface(mCapturingView, webView, mSurface);
+            mCapturingView = webView;
+        }
+        if (mFrameStale) {
+            mFrameStale = false;
+            mHasFrame = false;
+        }
+        if (mSurfaceTexture == null || mPendingFrames.getAndSet(0) == 0) {
+            return false;
+        }
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mSTMatrix);
+        mHasFrame = true;
+        return true;
+    }
+
+    /**
+     * Releases the texture and capture surface. Must run on the GL thread.
+     */
+    void releaseTexture(GLStateCache state) {
+        if (mSurfaceTexture == null) {
+            return;
+        }
+        int textureId = mTextureId;
+        abandonTexture();
+        state.deleteTexture(textureId);
+    }
+
+    /**
+     * Forgets the texture without deleting it, for when the GL context it lived in is gone.
+     * The capture surface is still released.
+     */
+    void abandonTexture() {
+        if (mSurfaceTexture == null) {
+            return;
+        }
+        postReleaseSurface(mCapturingView, mSurface, mSurfaceTexture);
+        mCapturingView = null;
+        mSurface = null;
+        mSurfaceTexture = null;
+        mTextureId = 0;
+    }
+
+    /**
+     * Has the view capture into the surface, on the UI thread.
+     */
+    private void postCaptureSurface(final CustomWebView webView, final Surface surface) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                webView.setCaptureSurface(surface);
+            }
+        });
+    }
+
+    /**
+     * Has the surface captured into by another view, on the UI thread.
+     */
+    private void postMoveSurface(final CustomWebView from, final CustomWebView to,
+            final Surface surface) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                from.setCaptureSurface(null);
+                to.setCaptureSurface(surface);
+            }
+        });
+    }
+
+    /**
+     * Stops the view capturing and then releases the surface, on the UI thread. Runs after
+     * any hand-off posted before it.
+     */
+    private void postReleaseSurface(final CustomWebView webView, final Surface surface,
+            final SurfaceTexture surfaceTexture) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                webView.setCaptureSurface(null);
+                surface.release();
+                surfaceTexture.release();
+            }
+        });
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        mPendingFrames.incrementAndGet();
+    }
+}
@@ -0,0 +1,41 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Rect;
+import android.view.Surface;
+
+/**
+ * A way of getting the pixels of a {@link CustomWebView}'s page into its capture surface.
+ *
+ * Backends time themselves into the view's {@link FrameMetrics}, with the stage names of the
+ * software path, so that they can be compared with {@link CaptureBenchmarkActivity}.
+ */
+interface CaptureBackend {
+
+    /**
+     * @return A short name, for logs and benchmark reports.
+     */
+    String getName();
+
+    /**
+     * @return Whether {@link #capture} can update only the dirty part of the surface.
+     */
+    boolean supportsPartialCapture();
+
+    /**
+     * Captures the page into the surface. Called on the UI thread with the view's surface
+     * lock held; the surface stays valid until the lock is released.
+     *
+     * @param dirty The part of the page to capture, in page pixels, or null for all of it.
+     * Only valid during the call.
+     * @param scale The capture resolution relative to the page size.
+     * @param metrics Receives the timings, or null.
+     */
+    void capture(CustomWebView view, Surface surface, Rect dirty, float scale,
+            FrameMetrics metrics) throws Surface.OutOfResourcesException;
+
+    /**
+     * Frees what the backend holds, waiting for work in progress. The backend is not used
+     * again after this.
+     */
+    void release();
+}
@@ -0,0 +1,220 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.app.Activity;
+import android.graphics.PixelFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the {@link CaptureBackend}s on a fixed set of local pages.
+ *
+ * For each backend, one page-sized WebView loads every page of the set in turn. Once a page
+ * has settled, it is captured CAPTURES_PER_PAGE times in full into an ImageReader surface.
+ * The capture stages are then reported for each backend, along with how much the process's
+ * memory grew while the backend was in use, past what loading the browser engine costs. The report goes to logcat, the screen and
+ * capture_benchmark.txt in the app's external files directory.
+ *
+ * adb shell am start -n com.entireangle.zerohoon.cardboardwebbrowser/.CaptureBenchmarkActivity
+ */
+public class CaptureBenchmarkActivity extends Activity {
+
+    private static final String TAG = "CaptureBenchmark";
+    private static final String[] PAGES = {
+            "file:///android_asset/benchmark/article.html",
+            "file:///android_asset/benchmark/table.html",
+            "file:///android_asset/benchmark/effects.html",
+    };
+    private static final int CAPTURES_PER_PAGE = 20;
+    // Lets late layout and decoding finish before a page is measured.
+    private static final long SETTLE_MS = 1500;
+    // Between captures, so the surface's consumer and a backend's worker keep up.
+    private static final long CAPTURE_INTERVAL_MS = 50;
+    private static final int[] REPORTED_STAGES = {
+            FrameMetrics.STAGE_CAPTURE_LOCK, FrameMetrics.STAGE_CAPTURE_RASTER,
+            FrameMetrics.STAGE_CAPTURE_REPLAY, FrameMetrics.STAGE_CAPTURE_POST,
+    };
+    private static final String[] REPORTED_NAMES = {"lock", "raster", "replay", "post"};
+
+    private final Handler mHandler = new Handler();
+    private final List<CaptureBackend> mBackends = new ArrayList<CaptureBackend>();
+    private final StringBuilder mReport = new StringBuilder();
+    private TextView mStatus;
+
+    private int mBackendIndex = -1;
+    private int mPageIndex;
+    private int mCaptures;
+    private boolean mPageLoading;
+    private CustomWebView mWebView;
+    private ImageReader mReader;
+    private FrameMetrics mMetrics;
+    private long mBaselinePssKb;
+
+    private final Runnable mCaptureStep = new Runnable() {
+        @Override
+        public void run() {
+            if (mCaptures < CAPTURES_PER_PAGE) {
+                mWebView.captureNow(mMetrics);
+                mCaptures++;
+                mHandler.postDelayed(this, CAPTURE_INTERVAL_MS);
+            } else if (++mPageIndex < PAGES.length) {
+                loadPage();
+            } else {
+                reportBackend();
+                nextBackend();
+            }
+        }
+    };
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mStatus = new TextView(this);
+        setContentView(mStatus);
+
+        mBackends.add(new SoftwareCaptureBackend());
+        mBackends.add(new PictureCaptureBackend());
+        if (HardwareCaptureBackend.isSupported()) {
+            mBackends.add(new HardwareCaptureBackend());
+        }
+        mReport.append(Build.MODEL).append(", API ").append(Build.VERSION.SDK_INT)
+                .append(", ").append(PAGES.length).append(" pages x ").append(CAPTURES_PER_PAGE)
+                .append(" captures at ").append(CustomWebView.TEXTURE_WIDTH).append('x')
+                .append(CustomWebView.TEXTURE_HEIGHT).append('\n');
+        // The first WebView of the process loads the browser engine, which stays resident and
+        // would otherwise count toward the first backend's memory.
+        new WebView(this).destroy();
+        nextBackend();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacksAndMessages(null);
+        finishBackend();
+        super.onDestroy();
+    }
+
+    private void nextBackend() {
+        finishBackend();
+        if (++mBackendIndex == mBackends.size()) {
+            finishReport();
+            return;
+        }
+        CaptureBackend backend = mBackends.get(mBackendIndex);
+        mStatus.setText("Running the " + backend.getName() + " backend...");
+        System.gc();
+        mBaselinePssKb = getPssKb();
+        mMetrics = new FrameMetrics();
+
+        mReader = ImageReader.newInstance(CustomWebView.TEXTURE_WIDTH,
+                CustomWebView.TEXTURE_HEIGHT, PixelFormat.RGBA_8888, 2);
+        mReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (image != null) {
+                    image.close();
+                }
+            }
+        }, mHandler);
+
+        mWebView = new CustomWebView(this);
+        mWebView.getSettings().setJavaScriptEnabled(true);
+        // Only the captures below are measured, each in full.
+        mWebView.setCapturePacing(false);
+        mWebView.setCaptureBackend(backend);
+        mWebView.setCaptureSurface(mReader.getSurface());
+        mWebView.setWebViewClient(new WebViewClient() {
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                if (mPageLoading) {
+                    mPageLoading = false;
+                    mHandler.postDelayed(mCaptureStep, SETTLE_MS);
+                }
+            }
+        });
+        addContentView(mWebView, new ViewGroup.LayoutParams(CustomWebView.TEXTURE_WIDTH,
+                CustomWebView.TEXTURE_HEIGHT));
+        mPageIndex = 0;
+        loadPage();
+    }
+
+    private void loadPage() {
+        mCaptures = 0;
+        mPageLoading = true;
+        mWebView.loadUrl(PAGES[mPageIndex]);
+    }
+
+    private void reportBackend() {
+        long pssKb = getPssKb() - mBaselinePssKb;
+        mReport.append(mWebView.getCaptureBackend().getName()).append(':');
+        for (int i = 0; i < REPORTED_STAGES.length; i++) {
+            int stage = REPORTED_STAGES[i];
+            if (mMetrics.getCount(stage) == 0) {
+                continue;
+            }
+            mReport.append(' ').append(REPORTED_NAMES[i])
+                    .append(" p50=").append(toMillis(mMetrics.getPercentile(stage, 50)))
+                    .append(" p95=").append(toMillis(mMetrics.getPercentile(stage, 95)));
+        }
+        mReport.append(" pss=+").append(pssKb / 1024).append("MB\n");
+        Log.i(TAG, mReport.toString());
+    }
+
+    private void finishBackend() {
+        if (mWebView == null) {
+            return;
+        }
+        ((ViewGroup) mWebView.getParent()).removeView(mWebView);
+        mWebView.setCaptureSurface(null);
+        mWebView.getCaptureBackend().release();
+        mWebView.destroy();
+        mWebView = null;
+        mReader.close();
+        mReader = null;
+    }
+
+    private void finishReport() {
+        String report = mReport.toString();
+        Log.i(TAG, "Capture benchmark\n" + report);
+        mStatus.setText(report);
+        File file = new File(getExternalFilesDir(null), "capture_benchmark.txt");
+        try {
+            Writer writer = new FileWriter(file);
+            try {
+                writer.write(report);
+            } finally {
+                writer.close();
+            }
+            Log.i(TAG, "Wrote " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+        }
+    }
+
+    private static long getPssKb() {
+        Debug.MemoryInfo info = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(info);
+        return info.getTotalPss();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1000000.0);
+    }
+}
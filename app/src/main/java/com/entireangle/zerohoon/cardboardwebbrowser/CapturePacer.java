@@ -0,0 +1,118 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+/**
+ * Decides how often a page is captured, from what the page is doing.
+ *
+ * The page is classified from the invalidations, scrolls and input it sees: scrolling while
+ * it scrolls or is touched, playing video while a video element plays, animating once it
+ * has kept invalidating for a while, and idle otherwise. Each state has its own capture rate
+ * cap. An invalidation that comes sooner than the cap allows is deferred to when it does, and
+ * everything invalidated until then is captured together. The first invalidation after a
+ * quiet spell is never deferred, so a page that reacts to a click shows it at once.
+ *
+ * The renderer keeps drawing the last captured frame at the display rate in between, so the
+ * caps only limit how fresh the page contents are, not how well it follows the head.
+ * Use it from the UI thread.
+ */
+class CapturePacer {
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_SCROLLING = 1;
+    static final int STATE_ANIMATING = 2;
+    static final int STATE_VIDEO = 3;
+    private static final int STATE_COUNT = 4;
+    private static final String[] STATE_NAMES = {"idle", "scrolling", "animating", "video"};
+
+    private static final long SECOND_NS = 1000000000L;
+    // The shortest time between two captures in each state. Scrolling follows the display,
+    // video the usual frame rates of video, and the rest are kept cheap.
+    private static final long[] MIN_INTERVAL_NS = {
+            SECOND_NS / 10,
+            SECOND_NS / 60,
+            SECOND_NS / 20,
+            SECOND_NS / 30,
+    };
+    // The page counts as scrolling for this long after a scroll or a touch.
+    private static final long SCROLL_HOLD_NS = 300 * 1000000L;
+    // A gap between invalidations longer than this ends a run of them.
+    private static final long ANIMATION_GAP_NS = 150 * 1000000L;
+    // A run of invalidations longer than this is an animation.
+    private static final long ANIMATION_MIN_NS = 500 * 1000000L;
+
+    private long mLastCaptureNs = Long.MIN_VALUE / 2;
+    private long mLastScrollNs = Long.MIN_VALUE / 2;
+    private long mLastInvalidateNs = Long.MIN_VALUE / 2;
+    private long mRunStartNs;
+    private int mPlayingVideos;
+
+    private final long[] mCaptures = new long[STATE_COUNT];
+    private long mDeferred;
+
+    /**
+     * The page scrolled, or the user touched it.
+     */
+    void onScroll(long nowNs) {
+        mLastScrollNs = nowNs;
+    }
+
+    /**
+     * @param count How many video elements of the page are playing.
+     */
+    void setPlayingVideos(int count) {
+        mPlayingVideos = count;
+    }
+
+    /**
+     * The page invalidated part of itself.
+     *
+     * @return How long to wait before the invalidation is let through, 0 for now.
+     */
+    long onInvalidate(long nowNs) {
+        if (nowNs - mLastInvalidateNs > ANIMATION_GAP_NS) {
+            mRunStartNs = nowNs;
+        }
+        mLastInvalidateNs = nowNs;
+        long delayNs = mLastCaptureNs + MIN_INTERVAL_NS[getState(nowNs)] - nowNs;
+        if (delayNs > 0) {
+            mDeferred++;
+            return delayNs;
+        }
+        return 0;
+    }
+
+    /**
+     * The page is being captured.
+     */
+    void onCapture(long nowNs) {
+        mLastCaptureNs = nowNs;
+        mCaptures[getState(nowNs)]++;
+    }
+
+    int getState(long nowNs) {
+        if (nowNs - mLastScrollNs < SCROLL_HOLD_NS) {
+            return STATE_SCROLLING;
+        }
+        if (mPlayingVideos > 0) {
+            return STATE_VIDEO;
+        }
+        if (nowNs - mLastInvalidateNs <= ANIMATION_GAP_NS
+                && mLastInvalidateNs - mRunStartNs >= ANIMATION_MIN_NS) {
+            return STATE_ANIMATING;
+        }
+        return STATE_IDLE;
+    }
+
+    /**
+     * @return The captures per state and the deferred invalidations so far, one per line.
+     */
+    String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("state=").append(STATE_NAMES[getState(System.nanoTime())]).append('\n');
+        for (int i = 0; i < STATE_COUNT; i++) {
+            sb.append(STATE_NAMES[i]).append(": captures=").append(mCaptures[i])
+                    .append(" cap=").append(SECOND_NS / MIN_INTERVAL_NS[i]).append("fps\n");
+        }
+        sb.append("deferred invalidations=").append(mDeferred).append('\n');
+        return sb.toString();
+    }
+}
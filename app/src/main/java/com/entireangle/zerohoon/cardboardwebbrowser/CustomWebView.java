@@ -1,37 +1,482 @@
 package com.entireangle.zerohoon.cardboardwebbrowser;// Fixed values
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.MotionEvent;
+import android.util.Log;
 import android.view.Surface;
+import android.webkit.CookieManager;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
 class CustomWebView extends WebView {
-
-    public static Surface surface = null;
     public static final int TEXTURE_WIDTH        = ( 3000 );
     public static final int TEXTURE_HEIGHT       = ( 3000 );
+    // Once the dirty area covers more than this fraction of the page we redraw all of it.
+    public static final float FULL_REDRAW_FRACTION = 0.5f;
+    // Capture into a grid of tile textures instead of one page-sized surface.
+    public static final boolean TILED_CAPTURE = false;
+    private static final String TAG = "CustomWebView";
+    // Reports how many video elements are playing to the pacer, whenever one starts or stops.
+    // Media events do not bubble, so they are listened to in the capture phase.
+    private static final String MEDIA_SCRIPT = "(function() {"
+            + "if (window.__cardboardMedia) return; window.__cardboardMedia = true;"
+            + "function report() { var playing = 0, videos = document.querySelectorAll('video');"
+            + "for (var i = 0; i < videos.length; i++) {"
+            + "if (!videos[i].paused && !videos[i].ended) playing++; }"
+            + "cardboardMedia.onPlayingVideos(playing); }"
+            + "['play', 'playing', 'pause', 'ended', 'emptied'].forEach(function(type) {"
+            + "document.addEventListener(type, report, true); });"
+            + "report(); })();";
     // Variables
+    // Guards mSurface, which the GL thread swaps or releases while the UI thread draws into it.
+    private final Object mSurfaceLock = new Object();
+    private Surface mSurface;
+    private boolean mIncrementalCapture = true;
+    private boolean mFullRedraw = true;
+    private final Rect mDirtyRect = new Rect();
+    // The surface the last frame went to; a new surface has no previous contents to keep.
+    private Surface mCapturedSurface;
+    private volatile PageTileGrid mTileGrid;
+    // Capture resolution relative to TEXTURE_WIDTH/HEIGHT, see PageResolutionController.
+    private volatile float mCaptureScale = 1.0f;
+    private float mCapturedScale = 1.0f;
+    private CaptureBackend mBackend = new SoftwareCaptureBackend();
+    private volatile FrameMetrics mFrameMetrics;
+    // Serves subresources from disk when set; read on the WebView's I/O threads.
+    private volatile WebResourceCache mResourceCache;
+    // The page loading or shown, and whether it may use third-party cookies, for the cache.
+    private volatile String mFirstPartyUrl;
+    private volatile boolean mThirdPartyCookies;
+    // Blocks ad and tracking requests when set; read on the WebView's I/O threads.
+    private volatile RequestFilter mRequestFilter;
+    // Shows this page's navigation and scroll state while the page is the active one.
+    private BrowserChrome mChrome;
+    // Offered this view's navigations and page loads, see LinkPrefetcher.
+    private LinkPrefetcher mPrefetcher;
+    // Set while loading the first page of a fresh history, see loadUrlInFreshHistory.
+    private boolean mClearHistoryOnCommit;
+    // Caps the capture rate by what the page is doing, see setCapturePacing.
+    private final CapturePacer mPacer = new CapturePacer();
+    private boolean mCapturePacing = true;
+    // Set when the capture target changes, so the next invalidation is not deferred.
+    private volatile boolean mCaptureNow = true;
+    private boolean mPacedInvalidatePending;
+    private final Runnable mPacedInvalidate = new Runnable() {
+        @Override
+        public void run() {
+            mPacedInvalidatePending = false;
+            // What was invalidated meanwhile is already in mDirtyRect and mFullRedraw.
+            CustomWebView.super.invalidate();
+        }
+    };
 
     public CustomWebView(Context context) {
         super(context); // Call WebView's constructor
-        setWebViewClient(new WebViewClient());
+        setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view,
+                    WebResourceRequest request) {
+                RequestFilter filter = mRequestFilter;
+                WebResourceResponse blocked = filter != null ? filter.intercept(request) : null;
+                if (blocked != null) {
+                    return blocked;
+                }
+                WebResourceCache cache = mResourceCache;
+                return cache != null
+                        ? cache.intercept(request, mFirstPartyUrl, mThirdPartyCookies) : null;
+            }
+
+            @Override
+            public void onPageStarted(WebView view, String url, Bitmap favicon) {
+                mFirstPartyUrl = url;
+                mThirdPartyCookies =
+                        CookieManager.getInstance().acceptThirdPartyCookies(CustomWebView.this);
+            }
+
+            @Override
+            public boolean shouldOverrideUrlLoading(WebView view, String url) {
+                return mPrefetcher != null && mPrefetcher.onNavigate(CustomWebView.this, url);
+            }
+
+            @Override
+            public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+                if (mClearHistoryOnCommit) {
+                    mClearHistoryOnCommit = false;
+                    // Drops the page shown before, which clearHistory kept as the current one.
+                    clearHistory();
+                }
+                notifyChrome();
+            }
+
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                if (mPrefetcher != null) {
+                    mPrefetcher.onPageFinished(CustomWebView.this, url);
+                }
+                notifyChrome();
+                evaluateJavascript(MEDIA_SCRIPT, null);
+            }
+        });
+        addJavascriptInterface(new Object() {
+            @JavascriptInterface
+            public void onPlayingVideos(final int count) {
+                // Called on a binder thread.
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mPacer.setPlayingVideos(count);
+                    }
+                });
+            }
+        }, "cardboardMedia");
       //  setLayoutParams(new ViewGroup.LayoutParams(TEXTURE_WIDTH, TEXTURE_HEIGHT));
     }
 
+    /**
+     * Enables or disables locking only the invalidated part of the surface in onDraw.
+     * When disabled every frame is a full page raster.
+     */
+    public void setIncrementalCapture(boolean enabled) {
+        mIncrementalCapture = enabled;
+        mFullRedraw = true;
+    }
+
+    /**
+     * Enables or disables capping the capture rate by what the page is doing. When disabled
+     * every invalidation is captured as soon as the view is drawn.
+     */
+    public void setCapturePacing(boolean enabled) {
+        mCapturePacing = enabled;
+    }
+
+    /**
+     * @return The capture pacing state and counts, for logging.
+     */
+    String dumpCapturePacing() {
+        return mPacer.dump();
+    }
+
+    /**
+     * Switches how the page is captured into the capture surface. The previous backend is
+     * released. UI thread.
+     */
+    void setCaptureBackend(CaptureBackend backend) {
+        CaptureBackend previous;
+        synchronized (mSurfaceLock) {
+            previous = mBackend;
+            mBackend = backend;
+        }
+        // Outside the lock, which a backend's own thread may be waiting for.
+        previous.release();
+        mFullRedraw = true;
+        mCaptureNow = true;
+        invalidate();
+    }
+
+    CaptureBackend getCaptureBackend() {
+        return mBackend;
+    }
+
+    /**
+     * Captures the whole page into the capture surface right away, without waiting for the
+     * view to be drawn, for benchmarks. UI thread.
+     *
+     * @param metrics Where this capture's stages are recorded, apart from the view's own.
+     */
+    void captureNow(FrameMetrics metrics) {
+        mFullRedraw = true;
+        captureToSurface(metrics);
+    }
+
+    /**
+     * The lock that guards the capture surface, for backends that draw into it off the UI
+     * thread.
+     */
+    Object getSurfaceLock() {
+        return mSurfaceLock;
+    }
+
+    /**
+     * @return Whether the surface is still the one to capture into. Call with the surface
+     * lock held.
+     */
+    boolean isCaptureSurface(Surface surface) {
+        return surface != null && surface == mSurface;
+    }
+
+    /**
+     * Sets the surface the page is captured into, or stops capture when null. Blocks until
+     * a capture in progress has been posted, so the previous surface can be released after;
+     * call it on the UI thread, never the GL thread, which would wait out a page raster.
+     */
+    public void setCaptureSurface(Surface surface) {
+        synchronized (mSurfaceLock) {
+            mSurface = surface;
+        }
+        mCaptureNow = true;
+        postInvalidate();
+    }
+
+    /**
+     * Routes capture into the given tile grid, or back to the capture surface when null.
+     */
+    public void setTileGrid(PageTileGrid tileGrid) {
+        mTileGrid = tileGrid;
+        mCaptureNow = true;
+        postInvalidate();
+    }
+
+    /**
+     * Sets the resolution the page is captured at, relative to the page size. The capture
+     * surface must already have been resized to match. The layout size of the page is not
+     * changed, so the page does not reflow.
+     */
+    public void setCaptureScale(float scale) {
+        mCaptureScale = scale;
+        mCaptureNow = true;
+        postInvalidate();
+    }
+
+    public float getCaptureScale() {
+        return mCaptureScale;
+    }
+
+    /**
+     * Records capture timings into the given metrics, or stops recording when null.
+     */
+    public void setFrameMetrics(FrameMetrics frameMetrics) {
+        mFrameMetrics = frameMetrics;
+    }
+
+    /**
+     * Serves the page's subresources through the given cache, or leaves them to the platform
+     * when null.
+     */
+    void setResourceCache(WebResourceCache cache) {
+        mResourceCache = cache;
+    }
+
+    /**
+     * Blocks the page's requests that the filter blocks, or none when null.
+     */
+    void setRequestFilter(RequestFilter filter) {
+        mRequestFilter = filter;
+    }
+
+    /**
+     * Lets the prefetcher take over navigations to pages it prefetched, and tells it when
+     * pages finish loading. UI thread.
+     */
+    void setLinkPrefetcher(LinkPrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * Loads the url as the only page of the history, for a view that showed unrelated pages.
+     * UI thread.
+     */
+    void loadUrlInFreshHistory(String url) {
+        clearHistory();
+        mClearHistoryOnCommit = true;
+        loadUrl(url);
+    }
+
+    /**
+     * Reports navigation and scrolling to the given chrome, or stops when null. UI thread.
+     */
+    void setChrome(BrowserChrome chrome) {
+        mChrome = chrome;
+        notifyChrome();
+    }
+
+    /**
+     * @return The scroll position as a fraction of the page height.
+     */
+    float getVerticalScrollOffsetFraction() {
+        int range = computeVerticalScrollRange();
+        return range > 0 ? (float) computeVerticalScrollOffset() / range : 0;
+    }
+
+    /**
+     * @return The visible part as a fraction of the page height, at most 1.
+     */
+    float getVerticalScrollExtentFraction() {
+        int range = computeVerticalScrollRange();
+        return range > 0 ? Math.min(1.0f, (float) computeVerticalScrollExtent() / range) : 1;
+    }
+
+    /**
+     * Scrolls so that the top of the view is at the given fraction of the page height.
+     */
+    void scrollToVerticalFraction(float fraction) {
+        int range = computeVerticalScrollRange();
+        int maxScroll = Math.max(0, range - computeVerticalScrollExtent());
+        int y = (int) (fraction * range);
+        scrollTo(getScrollX(), Math.max(0, Math.min(y, maxScroll)));
+    }
+
+    private void notifyChrome() {
+        if (mChrome != null) {
+            mChrome.onPageChanged(this);
+        }
+    }
+
+    /**
+     * Rasterizes the page into the given canvas.
+     */
+    void drawPage(Canvas canvas) {
+        super.onDraw(canvas);
+    }
 
     @Override
-    protected void onDraw( Canvas canvas ) {
-        if ( surface != null) {
+    public void invalidate() {
+        mFullRedraw = true;
+        if (pace()) {
+            super.invalidate();
+        }
+    }
+
+    @Override
+    public void invalidate(Rect dirty) {
+        // The View constructor can invalidate before the fields are set.
+        if (mDirtyRect != null) {
+            mDirtyRect.union(dirty);
+        }
+        if (pace()) {
+            super.invalidate(dirty);
+        }
+    }
+
+    @Override
+    public void invalidate(int l, int t, int r, int b) {
+        if (mDirtyRect != null) {
+            mDirtyRect.union(l, t, r, b);
+        }
+        if (pace()) {
+            super.invalidate(l, t, r, b);
+        }
+    }
+
+    /**
+     * Lets an invalidation through if the pacer allows a capture now. Otherwise makes sure
+     * one deferred invalidation is scheduled for when it does, which covers this one.
+     */
+    private boolean pace() {
+        // The View constructor can invalidate before the fields are set.
+        if (mPacer == null || !mCapturePacing || mCaptureNow) {
+            return true;
+        }
+        long delayNs = mPacer.onInvalidate(System.nanoTime());
+        if (delayNs == 0) {
+            return true;
+        }
+        if (!mPacedInvalidatePending) {
+            mPacedInvalidatePending = true;
+            postDelayed(mPacedInvalidate, (delayNs + 999999) / 1000000);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        // A touched page is about to move; capture it at the scrolling rate.
+        mPacer.onScroll(System.nanoTime());
+        return super.dispatchTouchEvent(event);
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        mFullRedraw = true;
+        mPacer.onScroll(System.nanoTime());
+        super.onScrollChanged(l, t, oldl, oldt);
+        notifyChrome();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int ow, int oh) {
+        mFullRedraw = true;
+        super.onSizeChanged(w, h, ow, oh);
+    }
+
+    /**
+     * Captures the dirty part of the page, or all of it, into the capture surface with the
+     * current backend.
+     */
+    private void captureToSurface(FrameMetrics metrics) {
+        synchronized (mSurfaceLock) {
+            final Surface surface = mSurface;
+            if ( surface == null ) {
+                return;
+            }
+            final CaptureBackend backend = mBackend;
+            final boolean partial = backend.supportsPartialCapture() && isPartialRedraw();
+            final float scale = mCaptureScale;
             // Requires a try/catch for .lockCanvas( null )
             try {
-                final Canvas surfaceCanvas = surface.lockCanvas( null ); // Android canvas from surface
-                super.onDraw(surfaceCanvas); // Call the WebView onDraw targetting the canvas
-                    surface.unlockCanvasAndPost( surfaceCanvas ); // We're done with the canvas!
+                backend.capture(this, surface, partial ? mDirtyRect : null, scale, metrics);
             } catch ( Surface.OutOfResourcesException excp ) {
-                excp.printStackTrace();
+                Log.w(TAG, "Could not lock the capture surface", excp);
             }
+            mDirtyRect.setEmpty();
+            mFullRedraw = false;
+            mCapturedSurface = surface;
+            mCapturedScale = scale;
+        }
+    }
+
+    /**
+     * Returns true if the pending dirty region is small enough to be captured on its own.
+     */
+    private boolean isPartialRedraw() {
+        if (!mIncrementalCapture || mFullRedraw || mSurface != mCapturedSurface
+                || mCaptureScale != mCapturedScale || mDirtyRect.isEmpty()) {
+            return false;
+        }
+        // A scroll forces a full redraw, so the scroll now is the one of every invalidation.
+        if (!toSurfaceRect(mDirtyRect, getScrollX(), getScrollY())) {
+            return false;
+        }
+        long dirtyArea = (long) mDirtyRect.width() * mDirtyRect.height();
+        return dirtyArea <= (long) (TEXTURE_WIDTH * TEXTURE_HEIGHT * FULL_REDRAW_FRACTION);
+    }
+
+    /**
+     * Moves a rect invalidated in view coordinates, which include the scroll offset, to the
+     * capture surface, and clips it to the surface.
+     *
+     * @return Whether any of it is on the surface.
+     */
+    static boolean toSurfaceRect(Rect dirty, int scrollX, int scrollY) {
+        dirty.offset(-scrollX, -scrollY);
+        return dirty.intersect(0, 0, TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    }
+
+    @Override
+    protected void onDraw( Canvas canvas ) {
+        final PageTileGrid tileGrid = mTileGrid;
+        final FrameMetrics metrics = mFrameMetrics;
+        mPacer.onCapture(System.nanoTime());
+        mCaptureNow = false;
+        if (mPacedInvalidatePending) {
+            // Drawn for another reason first; this capture covers the deferred one.
+            removeCallbacks(mPacedInvalidate);
+            mPacedInvalidatePending = false;
+        }
+        if ( tileGrid != null ) {
+            boolean partial = isPartialRedraw();
+            tileGrid.capture(this, partial ? mDirtyRect : null, metrics);
+            mDirtyRect.setEmpty();
+            mFullRedraw = false;
+            mCapturedSurface = null;
+            return;
         }
+        captureToSurface(metrics);
         // super.onDraw( canvas ); // <- Uncomment this if you want to show the original view
     }
 
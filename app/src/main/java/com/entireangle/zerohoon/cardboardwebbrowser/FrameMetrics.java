@@ -0,0 +1,190 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timings of the frame pipeline on the GL and UI threads.
+ *
+ * Every stage keeps a log-linear histogram (a power of two range split into 8 sub-buckets,
+ * so percentiles are within about 12%) and a ring of the most recent samples. Recording
+ * does not allocate or lock, so it can stay on in the render loop. {@link #dump()} is the
+ * only method that allocates.
+ */
+class FrameMetrics {
+
+    public static final int STAGE_FRAME = 0;
+    public static final int STAGE_NEW_FRAME = 1;
+    public static final int STAGE_LATCH = 2;
+    public static final int STAGE_DRAW_PAGE = 3;
+    public static final int STAGE_DRAW_POINTER = 4;
+    public static final int STAGE_CAPTURE_LOCK = 5;
+    public static final int STAGE_CAPTURE_RASTER = 6;
+    public static final int STAGE_CAPTURE_POST = 7;
+    public static final int STAGE_INPUT = 8;
+    public static final int STAGE_VIDEO = 9;
+    public static final int STAGE_CAPTURE_REPLAY = 10;
+    private static final String[] STAGE_NAMES = new String[] {
+            "frame", "onNewFrame", "updateTexImage", "drawCube", "drawPointer",
+            "lockCanvas", "raster", "unlockCanvasAndPost", "trigger->dispatch",
+            "video decode->display", "replay"
+    };
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    // A frame that took this much longer than the display period missed a vsync.
+    private static final long FRAME_PERIOD_NS = 1000000000L / 60;
+    private static final long DROPPED_FRAME_NS = FRAME_PERIOD_NS * 3 / 2;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough magnitudes for anything up to about a minute in nanoseconds.
+    private static final int MAGNITUDES = 37;
+    private static final int BUCKETS = MAGNITUDES * SUB_BUCKETS;
+    private static final int RING_SIZE = 256;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(STAGE_COUNT * BUCKETS);
+    private final AtomicLongArray mCounts = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mMax = new AtomicLongArray(STAGE_COUNT);
+    private final AtomicLongArray mRing = new AtomicLongArray(STAGE_COUNT * RING_SIZE);
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private long mLastFrameNs;
+    // Set while rendering is paused, so the gap before the next frame is not counted.
+    private volatile boolean mSkipNextFrame;
+
+    /**
+     * Records one duration of a stage. Safe to call from any thread.
+     */
+    void record(int stage, long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mBuckets.incrementAndGet(stage * BUCKETS + bucketOf(nanos));
+        long count = mCounts.getAndIncrement(stage);
+        mRing.lazySet(stage * RING_SIZE + (int) (count % RING_SIZE), nanos);
+        long max;
+        while (nanos > (max = mMax.get(stage)) && !mMax.compareAndSet(stage, max, nanos)) {
+            // Lost the race to another writer, retry against the new max.
+        }
+    }
+
+    /**
+     * Marks the start of a frame on the GL thread and records the interval to the last one.
+     */
+    void onFrameStart(long nowNs) {
+        if (mSkipNextFrame) {
+            mSkipNextFrame = false;
+        } else if (mLastFrameNs != 0) {
+            long frameNs = nowNs - mLastFrameNs;
+            record(STAGE_FRAME, frameNs);
+            if (frameNs > DROPPED_FRAME_NS) {
+                mDroppedFrames.addAndGet(Math.round((double) frameNs / FRAME_PERIOD_NS) - 1);
+            }
+        }
+        mLastFrameNs = nowNs;
+    }
+
+    /**
+     * Leaves the interval up to the next frame out, for when rendering resumes after a pause.
+     * Call before the GL thread resumes.
+     */
+    void onResume() {
+        mSkipNextFrame = true;
+    }
+
+    long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    long getCount(int stage) {
+        return mCounts.get(stage);
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the given percentile, in nanoseconds.
+     */
+    long getPercentile(int stage, double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mBuckets.get(stage * BUCKETS + i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(stage * BUCKETS + i);
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return mMax.get(stage);
+    }
+
+    /**
+     * Formats all stages as one line each, for logcat.
+     */
+    String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("dropped frames: ").append(mDroppedFrames.get()).append('\n');
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long count = mCounts.get(stage);
+            sb.append(STAGE_NAMES[stage]).append(": n=").append(count);
+            if (count > 0) {
+                sb.append(" p50=").append(toMillis(getPercentile(stage, 50)))
+                        .append(" p95=").append(toMillis(getPercentile(stage, 95)))
+                        .append(" p99=").append(toMillis(getPercentile(stage, 99)))
+                        .append(" max=").append(toMillis(mMax.get(stage)))
+                        .append(" last=[");
+                int recent = (int) Math.min(count, 8);
+                for (int i = recent; i > 0; i--) {
+                    sb.append(toMillis(mRing.get(stage * RING_SIZE + (int) ((count - i) % RING_SIZE))));
+                    sb.append(i > 1 ? " " : "]");
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clears all histograms and recent samples, for example before a measurement run.
+     */
+    void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < mRing.length(); i++) {
+            mRing.set(i, 0);
+        }
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mCounts.set(i, 0);
+            mMax.set(i, 0);
+        }
+        mDroppedFrames.set(0);
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        int bucket = (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,671 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.nio.Buffer;
+
+/**
+ * A shadow of the GL state the renderer touches, so that calls which would not change it
+ * are never issued.
+ *
+ * The shadow only knows about calls made through it. Code that changes GL state directly,
+ * including the Cardboard distortion pass between frames, must be followed by
+ * {@link #invalidate()}. Only texture unit 0 is tracked, and of the capabilities only
+ * GL_BLEND and GL_DEPTH_TEST. The framebuffer binding and the viewport are tracked too, so
+ * the renderer never has to read them back. Must be used on the GL thread.
+ *
+ * Every call that is issued goes to the {@link GLTracer}, if one is set. So do the calls that
+ * create, fill and delete objects, which are passed through untracked; only queries, which
+ * change nothing, are made directly.
+ */
+class GLStateCache {
+
+    private static final int MAX_ATTRIBS = 8;
+    // Distinct (program, location) pairs of matrix uniforms that are tracked; others are
+    // always issued.
+    private static final int MAX_UNIFORMS = 32;
+    private static final int CAP_UNKNOWN = -1;
+
+    private int mProgram;
+    private int mTextureTarget;
+    private int mTexture;
+    private int mArrayBuffer;
+    private int mElementBuffer;
+    private int mBlend;
+    private int mDepthTest;
+    private int mFramebuffer;
+    private final int[] mViewport = new int[4];
+
+    private final boolean[] mAttribEnabled = new boolean[MAX_ATTRIBS];
+    private final boolean[] mAttribKnown = new boolean[MAX_ATTRIBS];
+    // The client side buffer of the attribute, or null if it reads from mAttribVbo.
+    private final Buffer[] mAttribBuffer = new Buffer[MAX_ATTRIBS];
+    private final int[] mAttribVbo = new int[MAX_ATTRIBS];
+    // The buffer position of a client side attribute, or the byte offset into the VBO.
+    private final int[] mAttribOffset = new int[MAX_ATTRIBS];
+    private final int[] mAttribSize = new int[MAX_ATTRIBS];
+    private final int[] mAttribStride = new int[MAX_ATTRIBS];
+
+    private int mUniformCount;
+    private final int[] mUniformProgram = new int[MAX_UNIFORMS];
+    private final int[] mUniformLocation = new int[MAX_UNIFORMS];
+    private final boolean[] mUniformKnown = new boolean[MAX_UNIFORMS];
+    private final float[] mUniformValues = new float[MAX_UNIFORMS * 16];
+
+    // Receives the names of generated objects.
+    private final int[] mNames = new int[1];
+
+    private int mIssuedCalls;
+    private int mElidedCalls;
+    private volatile int mLastFrameIssuedCalls;
+    private volatile int mLastFrameElidedCalls;
+    private GLTracer mTracer;
+
+    GLStateCache() {
+        invalidate();
+    }
+
+    /**
+     * Installs a tracer that sees every issued call, with glGetError checked after each one.
+     * Pass null to stop tracing.
+     */
+    void setTracer(GLTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Forgets everything, so that the next call of every kind is issued.
+     */
+    void invalidate() {
+        mProgram = -1;
+        mTextureTarget = -1;
+        mTexture = -1;
+        mArrayBuffer = -1;
+        mElementBuffer = -1;
+        mBlend = CAP_UNKNOWN;
+        mDepthTest = CAP_UNKNOWN;
+        mFramebuffer = -1;
+        // No viewport has a negative size.
+        mViewport[2] = -1;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            mAttribEnabled[i] = false;
+            mAttribKnown[i] = false;
+            mAttribBuffer[i] = null;
+        }
+        // Program names may be reused by a new context, so drop the slots too.
+        mUniformCount = 0;
+    }
+
+    /**
+     * Publishes the call counts of the frame that just ended and starts counting anew.
+     */
+    void beginFrame() {
+        mLastFrameIssuedCalls = mIssuedCalls;
+        mLastFrameElidedCalls = mElidedCalls;
+        mIssuedCalls = 0;
+        mElidedCalls = 0;
+    }
+
+    /**
+     * @return The number of GL calls issued through the cache in the last frame.
+     */
+    int getLastFrameIssuedCalls() {
+        return mLastFrameIssuedCalls;
+    }
+
+    /**
+     * @return The number of GL calls the cache skipped as redundant in the last frame.
+     */
+    int getLastFrameElidedCalls() {
+        return mLastFrameElidedCalls;
+    }
+
+    void useProgram(int program) {
+        if (program == mProgram) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glUseProgram(program);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_USE_PROGRAM, program, 0, 0, start);
+        }
+        mProgram = program;
+        mIssuedCalls++;
+    }
+
+    void bindTexture(int target, int texture) {
+        if (target == mTextureTarget && texture == mTexture) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBindTexture(target, texture);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BIND_TEXTURE, target, texture, 0, start);
+        }
+        mTextureTarget = target;
+        mTexture = texture;
+        mIssuedCalls++;
+    }
+
+    /**
+     * Binds a GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     */
+    void bindBuffer(int target, int buffer) {
+        boolean array = target == GLES20.GL_ARRAY_BUFFER;
+        if (buffer == (array ? mArrayBuffer : mElementBuffer)) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBindBuffer(target, buffer);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BIND_BUFFER, target, buffer, 0, start);
+        }
+        if (array) {
+            mArrayBuffer = buffer;
+        } else {
+            mElementBuffer = buffer;
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Enables a capability. Only GL_BLEND and GL_DEPTH_TEST are tracked; others are always
+     * issued.
+     */
+    void enable(int cap) {
+        if (getCap(cap) == 1) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glEnable(cap);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_ENABLE, cap, 0, 0, start);
+        }
+        setCap(cap, 1);
+        mIssuedCalls++;
+    }
+
+    void disable(int cap) {
+        if (getCap(cap) == 0) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDisable(cap);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DISABLE, cap, 0, 0, start);
+        }
+        setCap(cap, 0);
+        mIssuedCalls++;
+    }
+
+    private int getCap(int cap) {
+        return cap == GLES20.GL_BLEND ? mBlend
+                : cap == GLES20.GL_DEPTH_TEST ? mDepthTest : CAP_UNKNOWN;
+    }
+
+    private void setCap(int cap, int enabled) {
+        if (cap == GLES20.GL_BLEND) {
+            mBlend = enabled;
+        } else if (cap == GLES20.GL_DEPTH_TEST) {
+            mDepthTest = enabled;
+        }
+    }
+
+    void enableVertexAttribArray(int index) {
+        if (index < MAX_ATTRIBS && mAttribEnabled[index]) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glEnableVertexAttribArray(index);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_ENABLE_VERTEX_ATTRIB_ARRAY, index, 0, 0, start);
+        }
+        if (index < MAX_ATTRIBS) {
+            mAttribEnabled[index] = true;
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Points a float attribute at a client side buffer. GL reads the buffer at draw time, so
+     * the call is only redundant if the same buffer, position and layout are bound already,
+     * whatever was written into the buffer since.
+     */
+    void vertexAttribPointer(int index, int size, int stride, Buffer buffer) {
+        // Client side arrays are only used with no array buffer bound.
+        bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        if (isAttribBound(index, buffer, 0, buffer.position(), size, stride)) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, buffer);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_VERTEX_ATTRIB_POINTER, index, size, stride, start);
+        }
+        setAttrib(index, buffer, 0, buffer.position(), size, stride);
+        mIssuedCalls++;
+    }
+
+    /**
+     * Points a float attribute at a byte offset into the bound GL_ARRAY_BUFFER.
+     */
+    void vertexAttribPointer(int index, int size, int stride, int offset) {
+        if (isAttribBound(index, null, mArrayBuffer, offset, size, stride)) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glVertexAttribPointer(index, size, GLES20.GL_FLOAT, false, stride, offset);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_VERTEX_ATTRIB_POINTER, index, size, stride, start);
+        }
+        setAttrib(index, null, mArrayBuffer, offset, size, stride);
+        mIssuedCalls++;
+    }
+
+    private boolean isAttribBound(int index, Buffer buffer, int vbo, int offset, int size,
+            int stride) {
+        return index < MAX_ATTRIBS && mAttribKnown[index] && mAttribBuffer[index] == buffer
+                && mAttribVbo[index] == vbo && mAttribOffset[index] == offset
+                && mAttribSize[index] == size && mAttribStride[index] == stride;
+    }
+
+    private void setAttrib(int index, Buffer buffer, int vbo, int offset, int size, int stride) {
+        if (index < MAX_ATTRIBS) {
+            mAttribKnown[index] = true;
+            mAttribBuffer[index] = buffer;
+            mAttribVbo[index] = vbo;
+            mAttribOffset[index] = offset;
+            mAttribSize[index] = size;
+            mAttribStride[index] = stride;
+        }
+    }
+
+    /**
+     * Sets a matrix uniform of the current program, unless it already holds these values.
+     */
+    void uniformMatrix4fv(int location, float[] value, int offset) {
+        int slot = uniformSlot(mProgram, location);
+        if (slot >= 0) {
+            int base = slot * 16;
+            if (mUniformKnown[slot] && matrixEquals(mUniformValues, base, value, offset)) {
+                mElidedCalls++;
+                return;
+            }
+            System.arraycopy(value, offset, mUniformValues, base, 16);
+            mUniformKnown[slot] = true;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glUniformMatrix4fv(location, 1, false, value, offset);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_UNIFORM_MATRIX_4FV, location, mProgram, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Sets a float uniform of the current program. Not tracked, always issued.
+     */
+    void uniform1f(int location, float x) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glUniform1f(location, x);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_UNIFORM_1F, location, mProgram, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Sets a vec4 uniform of the current program. Not tracked, always issued.
+     */
+    void uniform4f(int location, float x, float y, float z, float w) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glUniform4f(location, x, y, z, w);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_UNIFORM_4F, location, mProgram, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void drawArrays(int mode, int first, int count) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDrawArrays(mode, first, count);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DRAW_ARRAYS, mode, first, count, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Draws from the bound GL_ELEMENT_ARRAY_BUFFER.
+     */
+    void drawElements(int mode, int count, int type, int offset) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDrawElements(mode, count, type, offset);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DRAW_ELEMENTS, mode, count, offset, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void clear(int mask) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glClear(mask);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_CLEAR, mask, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * @return A new texture name.
+     */
+    int genTexture() {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glGenTextures(1, mNames, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_GEN_TEXTURES, mNames[0], 0, 0, start);
+        }
+        mIssuedCalls++;
+        return mNames[0];
+    }
+
+    /**
+     * Deletes a texture. If it was bound, GL falls back to texture 0, and so does the shadow.
+     */
+    void deleteTexture(int texture) {
+        mNames[0] = texture;
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDeleteTextures(1, mNames, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DELETE_TEXTURES, texture, 0, 0, start);
+        }
+        if (texture == mTexture) {
+            mTexture = 0;
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Sets a parameter of the texture bound to target. Not tracked, always issued.
+     */
+    void texParameteri(int target, int pname, int param) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glTexParameteri(target, pname, param);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_TEX_PARAMETERI, target, pname, param, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Specifies level 0 of the texture bound to target as unsigned bytes of the format.
+     *
+     * @param pixels The contents, or null to leave them undefined.
+     */
+    void texImage2D(int target, int format, int width, int height, Buffer pixels) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glTexImage2D(target, 0, format, width, height, 0, format,
+                GLES20.GL_UNSIGNED_BYTE, pixels);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_TEX_IMAGE_2D, target, width, height, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Specifies level 0 of the texture bound to target from a bitmap.
+     */
+    void texImage2D(int target, Bitmap bitmap) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLUtils.texImage2D(target, 0, bitmap, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_TEX_IMAGE_2D, target, bitmap.getWidth(), bitmap.getHeight(),
+                    start);
+        }
+        mIssuedCalls++;
+    }
+
+    void generateMipmap(int target) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glGenerateMipmap(target);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_GENERATE_MIPMAP, target, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * @return A new buffer name.
+     */
+    int genBuffer() {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glGenBuffers(1, mNames, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_GEN_BUFFERS, mNames[0], 0, 0, start);
+        }
+        mIssuedCalls++;
+        return mNames[0];
+    }
+
+    /**
+     * (Re)allocates the buffer bound to target.
+     *
+     * @param data The contents, or null to leave them undefined.
+     */
+    void bufferData(int target, int size, Buffer data, int usage) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBufferData(target, size, data, usage);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BUFFER_DATA, target, size, usage, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void bufferSubData(int target, int offset, int size, Buffer data) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBufferSubData(target, offset, size, data);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BUFFER_SUB_DATA, target, offset, size, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * @return A new framebuffer name.
+     */
+    int genFramebuffer() {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glGenFramebuffers(1, mNames, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_GEN_FRAMEBUFFERS, mNames[0], 0, 0, start);
+        }
+        mIssuedCalls++;
+        return mNames[0];
+    }
+
+    /**
+     * Binds a GL_FRAMEBUFFER.
+     */
+    void bindFramebuffer(int framebuffer) {
+        if (framebuffer == mFramebuffer) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BIND_FRAMEBUFFER, framebuffer, 0, 0, start);
+        }
+        mFramebuffer = framebuffer;
+        mIssuedCalls++;
+    }
+
+    /**
+     * Attaches level 0 of a GL_TEXTURE_2D as the color buffer of the bound framebuffer.
+     */
+    void framebufferTexture2D(int texture) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, texture, 0);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_FRAMEBUFFER_TEXTURE_2D, texture, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void viewport(int x, int y, int width, int height) {
+        if (x == mViewport[0] && y == mViewport[1] && width == mViewport[2]
+                && height == mViewport[3]) {
+            mElidedCalls++;
+            return;
+        }
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glViewport(x, y, width, height);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_VIEWPORT, x, y, width, start);
+        }
+        mViewport[0] = x;
+        mViewport[1] = y;
+        mViewport[2] = width;
+        mViewport[3] = height;
+        mIssuedCalls++;
+    }
+
+    void blendFunc(int sfactor, int dfactor) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glBlendFunc(sfactor, dfactor);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_BLEND_FUNC, sfactor, dfactor, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void clearColor(float red, float green, float blue, float alpha) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glClearColor(red, green, blue, alpha);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_CLEAR_COLOR, 0, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    int createProgram() {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        int program = GLES20.glCreateProgram();
+        if (mTracer != null) {
+            trace(GLTracer.CALL_CREATE_PROGRAM, program, 0, 0, start);
+        }
+        mIssuedCalls++;
+        return program;
+    }
+
+    void attachShader(int program, int shader) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glAttachShader(program, shader);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_ATTACH_SHADER, program, shader, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void linkProgram(int program) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glLinkProgram(program);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_LINK_PROGRAM, program, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    /**
+     * Deletes a program. The name may be reused, so the shadow forgets it was in use.
+     */
+    void deleteProgram(int program) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDeleteProgram(program);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DELETE_PROGRAM, program, 0, 0, start);
+        }
+        if (program == mProgram) {
+            mProgram = -1;
+        }
+        mIssuedCalls++;
+    }
+
+    int createShader(int type) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        int shader = GLES20.glCreateShader(type);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_CREATE_SHADER, type, shader, 0, start);
+        }
+        mIssuedCalls++;
+        return shader;
+    }
+
+    void shaderSource(int shader, String source) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glShaderSource(shader, source);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_SHADER_SOURCE, shader, source.length(), 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void compileShader(int shader) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glCompileShader(shader);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_COMPILE_SHADER, shader, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    void deleteShader(int shader) {
+        long start = mTracer != null ? System.nanoTime() : 0;
+        GLES20.glDeleteShader(shader);
+        if (mTracer != null) {
+            trace(GLTracer.CALL_DELETE_SHADER, shader, 0, 0, start);
+        }
+        mIssuedCalls++;
+    }
+
+    private void trace(int call, int arg0, int arg1, int arg2, long startNs) {
+        long durationNs = System.nanoTime() - startNs;
+        mTracer.onCall(call, arg0, arg1, arg2, startNs, durationNs, GLES20.glGetError());
+    }
+
+    private int uniformSlot(int program, int location) {
+        for (int i = 0; i < mUniformCount; i++) {
+            if (mUniformProgram[i] == program && mUniformLocation[i] == location) {
+                return i;
+            }
+        }
+        if (mUniformCount == MAX_UNIFORMS) {
+            return -1;
+        }
+        int slot = mUniformCount++;
+        mUniformProgram[slot] = program;
+        mUniformLocation[slot] = location;
+        mUniformKnown[slot] = false;
+        return slot;
+    }
+
+    private static boolean matrixEquals(float[] a, int aOffset, float[] b, int bOffset) {
+        for (int i = 0; i < 16; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * A {@link GLTracer} that keeps the most recent GL calls in a ring, for post-mortem dumps
+ * after a stall or a GL error. A GL error is fatal, as with MainActivity's checkGLError,
+ * and logs the calls leading up to it first.
+ *
+ * Recording does not allocate. Only the GL thread writes; a dump taken from another thread
+ * while frames are drawn may show a few torn entries, which is fine for a debugging aid.
+ */
+class GLTraceRing implements GLTracer {
+
+    private static final String TAG = "GLTraceRing";
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mCapacity;
+    private final int[] mCalls;
+    private final int[] mArgs;
+    private final long[] mStartNs;
+    private final long[] mDurationNs;
+    private final int[] mErrors;
+    private volatile long mCount;
+
+    GLTraceRing(int capacity) {
+        mCapacity = capacity;
+        mCalls = new int[capacity];
+        mArgs = new int[capacity * 3];
+        mStartNs = new long[capacity];
+        mDurationNs = new long[capacity];
+        mErrors = new int[capacity];
+    }
+
+    @Override
+    public void onCall(int call, int arg0, int arg1, int arg2, long startNs, long durationNs,
+            int error) {
+        long count = mCount;
+        int i = (int) (count % mCapacity);
+        mCalls[i] = call;
+        mArgs[i * 3] = arg0;
+        mArgs[i * 3 + 1] = arg1;
+        mArgs[i * 3 + 2] = arg2;
+        mStartNs[i] = startNs;
+        mDurationNs[i] = durationNs;
+        mErrors[i] = error;
+        mCount = count + 1;
+        if (error != GLES20.GL_NO_ERROR) {
+            Log.e(TAG, CALL_NAMES[call] + ": glError " + error + ", last calls:\n" + dump(64));
+            throw new RuntimeException(CALL_NAMES[call] + ": glError " + error);
+        }
+    }
+
+    /**
+     * Formats the recorded calls, oldest first, one per line with the time relative to the
+     * newest call.
+     *
+     * @param maxCalls The most calls to include.
+     */
+    String dump(int maxCalls) {
+        long count = mCount;
+        int n = (int) Math.min(Math.min(count, mCapacity), maxCalls);
+        StringBuilder sb = new StringBuilder();
+        if (n == 0) {
+            return sb.toString();
+        }
+        long lastStartNs = mStartNs[(int) ((count - 1) % mCapacity)];
+        for (long c = count - n; c < count; c++) {
+            int i = (int) (c % mCapacity);
+            sb.append(String.format(Locale.US, "%+.3fms %s(%d, %d, %d) took %dus",
+                    (mStartNs[i] - lastStartNs) / 1000000.0, CALL_NAMES[mCalls[i]],
+                    mArgs[i * 3], mArgs[i * 3 + 1], mArgs[i * 3 + 2], mDurationNs[i] / 1000));
+            if (mErrors[i] != GLES20.GL_NO_ERROR) {
+                sb.append(" glError ").append(mErrors[i]);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
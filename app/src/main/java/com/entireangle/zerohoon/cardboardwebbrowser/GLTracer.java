@@ -0,0 +1,70 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+/**
+ * Receives every GL call issued through a {@link GLStateCache}, for debugging.
+ *
+ * A tracer is only installed in debug builds; without one the cache does not even read the
+ * clock. Calls arrive on the GL thread.
+ */
+interface GLTracer {
+
+    int CALL_USE_PROGRAM = 0;
+    int CALL_BIND_TEXTURE = 1;
+    int CALL_ENABLE_VERTEX_ATTRIB_ARRAY = 2;
+    int CALL_VERTEX_ATTRIB_POINTER = 3;
+    int CALL_UNIFORM_MATRIX_4FV = 4;
+    int CALL_DRAW_ARRAYS = 5;
+    int CALL_CLEAR = 6;
+    int CALL_BIND_BUFFER = 7;
+    int CALL_DRAW_ELEMENTS = 8;
+    int CALL_ENABLE = 9;
+    int CALL_DISABLE = 10;
+    int CALL_UNIFORM_1F = 11;
+    int CALL_UNIFORM_4F = 12;
+    int CALL_GEN_TEXTURES = 13;
+    int CALL_DELETE_TEXTURES = 14;
+    int CALL_TEX_PARAMETERI = 15;
+    int CALL_TEX_IMAGE_2D = 16;
+    int CALL_GENERATE_MIPMAP = 17;
+    int CALL_GEN_BUFFERS = 18;
+    int CALL_BUFFER_DATA = 19;
+    int CALL_BUFFER_SUB_DATA = 20;
+    int CALL_GEN_FRAMEBUFFERS = 21;
+    int CALL_BIND_FRAMEBUFFER = 22;
+    int CALL_FRAMEBUFFER_TEXTURE_2D = 23;
+    int CALL_VIEWPORT = 24;
+    int CALL_BLEND_FUNC = 25;
+    int CALL_CLEAR_COLOR = 26;
+    int CALL_CREATE_PROGRAM = 27;
+    int CALL_ATTACH_SHADER = 28;
+    int CALL_LINK_PROGRAM = 29;
+    int CALL_DELETE_PROGRAM = 30;
+    int CALL_CREATE_SHADER = 31;
+    int CALL_SHADER_SOURCE = 32;
+    int CALL_COMPILE_SHADER = 33;
+    int CALL_DELETE_SHADER = 34;
+    String[] CALL_NAMES = new String[] {
+            "glUseProgram", "glBindTexture", "glEnableVertexAttribArray",
+            "glVertexAttribPointer", "glUniformMatrix4fv", "glDrawArrays", "glClear",
+            "glBindBuffer", "glDrawElements", "glEnable", "glDisable", "glUniform1f",
+            "glUniform4f", "glGenTextures", "glDeleteTextures", "glTexParameteri",
+            "glTexImage2D", "glGenerateMipmap", "glGenBuffers", "glBufferData",
+            "glBufferSubData", "glGenFramebuffers", "glBindFramebuffer",
+            "glFramebufferTexture2D", "glViewport", "glBlendFunc", "glClearColor",
+            "glCreateProgram", "glAttachShader", "glLinkProgram", "glDeleteProgram",
+            "glCreateShader", "glShaderSource", "glCompileShader", "glDeleteShader"
+    };
+
+    /**
+     * Called after each GL call.
+     *
+     * @param call One of the CALL_ constants.
+     * @param arg0 The first integer argument of the call, or 0.
+     * @param arg1 The second integer argument of the call, or 0.
+     * @param arg2 The third integer argument of the call, or 0.
+     * @param startNs When the call was made.
+     * @param durationNs How long the call took on the CPU side.
+     * @param error The result of glGetError after the call.
+     */
+    void onCall(int call, int arg0, int arg1, int arg2, long startNs, long durationNs, int error);
+}
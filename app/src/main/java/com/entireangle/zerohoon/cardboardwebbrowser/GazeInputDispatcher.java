@@ -0,0 +1,278 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns the gaze and the trigger into touch events on the active page.
+ *
+ * The trigger is pressed and released on the UI thread, but the gaze is known on the GL
+ * thread. The GL thread picks up trigger changes once per frame, pairs them with that frame's
+ * gaze and sends both through an {@link InputRing} to the UI thread, which dispatches them
+ * in order. While the trigger is up, gaze moves are coalesced into one hover event per drain.
+ * While it is held, they are batched into one ACTION_MOVE with history per drain, so that
+ * dragging the gaze scrolls the page. A press while the gaze is on a {@link BrowserChrome}
+ * widget clicks the widget instead of the page. Hover positions, and the gaze leaving the
+ * page, also go to the {@link LinkPrefetcher}. The time from a trigger change to its
+ * dispatch is recorded as {@link FrameMetrics#STAGE_INPUT}.
+ */
+class GazeInputDispatcher {
+
+    private static final int RING_CAPACITY = 256;
+    // Gaze moves smaller than this, in page pixels, are not sent.
+    private static final float MOVE_SLOP_PX = 0.5f;
+
+    private final InputRing mRing = new InputRing(RING_CAPACITY);
+    private final TabManager mTabs;
+    private final BrowserChrome mChrome;
+    private final LinkPrefetcher mPrefetcher;
+    private final FrameMetrics mMetrics;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    // When the trigger last went down and up. Written on the UI thread press first, and read
+    // on the GL thread release first, so a release is never seen without its press.
+    private volatile long mPressNs;
+    private volatile long mReleaseNs;
+
+    // GL thread.
+    private long mSeenPressNs;
+    private long mSeenReleaseNs;
+    private float mSentU = Float.NaN;
+    private float mSentV = Float.NaN;
+    private boolean mWasOnPage;
+
+    // UI thread.
+    private View mPressTarget;
+    private long mDownTime;
+    private float mHoverU = Float.NaN;
+    private float mHoverV;
+
+    GazeInputDispatcher(TabManager tabs, BrowserChrome chrome, LinkPrefetcher prefetcher,
+            FrameMetrics metrics, int pageWidth, int pageHeight) {
+        mTabs = tabs;
+        mChrome = chrome;
+        mPrefetcher = prefetcher;
+        mMetrics = metrics;
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+    }
+
+    /**
+     * The trigger went down. UI thread.
+     */
+    void press() {
+        mPressNs = System.nanoTime();
+    }
+
+    /**
+     * The trigger went up. UI thread.
+     */
+    void release() {
+        mReleaseNs = System.nanoTime();
+    }
+
+    /**
+     * The trigger was pulled, for triggers that do not report holding. UI thread.
+     */
+    void click() {
+        long now = System.nanoTime();
+        mPressNs = now;
+        mReleaseNs = now;
+    }
+
+    /**
+     * Sends the gaze of a frame and any trigger changes since the last one. GL thread, after
+     * the chrome's hit test of the frame.
+     *
+     * @param u Where the gaze hits the page, 0..1 from the left.
+     * @param v Where the gaze hits the page, 0..1 from the top.
+     * @param onPage Whether the gaze is on the page at all.
+     */
+    void onFrame(float u, float v, boolean onPage, long nowNs) {
+        long release = mReleaseNs;
+        long press = mPressNs;
+        boolean newPress = press != mSeenPressNs;
+        boolean newRelease = release != mSeenReleaseNs;
+        boolean sent = false;
+        // Trigger changes wait for the next frame if they do not all fit.
+        if ((newPress || newRelease) && mRing.remainingCapacity() >= 3) {
+            if (newRelease && (!newPress || release < press)) {
+                mRing.offer(InputRing.EVENT_RELEASE, u, v, release);
+            }
+            if (newPress) {
+                int widget = mChrome.getHoveredWidget();
+                if (widget != BrowserChrome.NO_WIDGET) {
+                    mRing.offer(InputRing.EVENT_CHROME, widget, mChrome.getHoveredU(),
+                            mChrome.getHoveredV(), press);
+                } else {
+                    mRing.offer(InputRing.EVENT_PRESS, u, v, press);
+                }
+            }
+            if (newRelease && newPress && release >= press) {
+                mRing.offer(InputRing.EVENT_RELEASE, u, v, release);
+            }
+            mSeenPressNs = press;
+            mSeenReleaseNs = release;
+            mSentU = u;
+            mSentV = v;
+            sent = true;
+        }
+        boolean held = mSeenPressNs > mSeenReleaseNs;
+        if ((onPage || held) && (Math.abs(u - mSentU) * mPageWidth > MOVE_SLOP_PX
+                || Math.abs(v - mSentV) * mPageHeight > MOVE_SLOP_PX || Float.isNaN(mSentU))) {
+            // Dropped when full; the UI thread only needs the latest gaze anyway.
+            if (mRing.offer(InputRing.EVENT_GAZE, u, v, nowNs)) {
+                mSentU = u;
+                mSentV = v;
+                sent = true;
+            }
+        }
+        if (mWasOnPage && !onPage && !held) {
+            if (mRing.offer(InputRing.EVENT_GAZE_LEFT, u, v, nowNs)) {
+                // Coming back sends the gaze again, wherever it is.
+                mSentU = Float.NaN;
+                sent = true;
+                mWasOnPage = false;
+            }
+        } else if (onPage) {
+            mWasOnPage = true;
+        }
+        if (sent && mDrainScheduled.compareAndSet(false, true)) {
+            mUiHandler.post(mDrain);
+        }
+    }
+
+    /**
+     * Dispatches everything the GL thread has sent so far. UI thread.
+     */
+    private void drain() {
+        // Cleared first, so that events sent from here on schedule another drain.
+        mDrainScheduled.set(false);
+        int count = mRing.available();
+        long nowNs = System.nanoTime();
+        long nowMs = SystemClock.uptimeMillis();
+        int movesStart = 0;
+        int moves = 0;
+        for (int i = 0; i < count; i++) {
+            switch (mRing.getType(i)) {
+                case InputRing.EVENT_GAZE:
+                    if (mPressTarget != null) {
+                        if (moves == 0) {
+                            movesStart = i;
+                        }
+                        moves++;
+                    } else {
+                        mHoverU = mRing.getU(i);
+                        mHoverV = mRing.getV(i);
+                    }
+                    break;
+                case InputRing.EVENT_PRESS:
+                    dispatchMoves(movesStart, moves, nowNs, nowMs);
+                    moves = 0;
+                    BrowserTab tab = mTabs.getActiveTab();
+                    mPressTarget = tab != null ? tab.getWebView() : null;
+                    mDownTime = toUptimeMillis(mRing.getTime(i), nowNs, nowMs);
+                    dispatchTouch(MotionEvent.ACTION_DOWN, i, nowNs, nowMs);
+                    mHoverU = Float.NaN;
+                    break;
+                case InputRing.EVENT_RELEASE:
+                    dispatchMoves(movesStart, moves, nowNs, nowMs);
+                    moves = 0;
+                    dispatchTouch(MotionEvent.ACTION_UP, i, nowNs, nowMs);
+                    mPressTarget = null;
+                    break;
+                case InputRing.EVENT_GAZE_LEFT:
+                    mHoverU = Float.NaN;
+                    mPrefetcher.onGazeLeft();
+                    break;
+                case InputRing.EVENT_CHROME:
+                    dispatchMoves(movesStart, moves, nowNs, nowMs);
+                    moves = 0;
+                    BrowserTab active = mTabs.getActiveTab();
+                    if (active != null) {
+                        mChrome.onClick(active.getWebView(), mRing.getArg(i), mRing.getU(i),
+                                mRing.getV(i));
+                    }
+                    mMetrics.record(FrameMetrics.STAGE_INPUT, System.nanoTime() - mRing.getTime(i));
+                    break;
+            }
+        }
+        dispatchMoves(movesStart, moves, nowNs, nowMs);
+        if (mPressTarget == null && !Float.isNaN(mHoverU)) {
+            dispatchHover();
+            mHoverU = Float.NaN;
+        }
+        mRing.release(count);
+    }
+
+    private void dispatchTouch(int action, int index, long nowNs, long nowMs) {
+        if (mPressTarget == null) {
+            return;
+        }
+        MotionEvent event = MotionEvent.obtain(mDownTime,
+                toUptimeMillis(mRing.getTime(index), nowNs, nowMs), action,
+                mRing.getU(index) * mPageWidth, mRing.getV(index) * mPageHeight, 0);
+        mPressTarget.dispatchTouchEvent(event);
+        event.recycle();
+        mMetrics.record(FrameMetrics.STAGE_INPUT, System.nanoTime() - mRing.getTime(index));
+    }
+
+    /**
+     * Sends the consecutive gaze samples of a drag as one ACTION_MOVE, the older ones as its
+     * history.
+     */
+    private void dispatchMoves(int start, int count, long nowNs, long nowMs) {
+        if (count == 0 || mPressTarget == null) {
+            return;
+        }
+        MotionEvent event = null;
+        for (int i = start; i < start + count; i++) {
+            long time = toUptimeMillis(mRing.getTime(i), nowNs, nowMs);
+            float x = mRing.getU(i) * mPageWidth;
+            float y = mRing.getV(i) * mPageHeight;
+            if (event == null) {
+                event = MotionEvent.obtain(mDownTime, time, MotionEvent.ACTION_MOVE, x, y, 0);
+            } else {
+                event.addBatch(time, x, y, 1.0f, 1.0f, 0);
+            }
+        }
+        mPressTarget.dispatchTouchEvent(event);
+        event.recycle();
+    }
+
+    private void dispatchHover() {
+        BrowserTab tab = mTabs.getActiveTab();
+        if (tab == null) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        MotionEvent event = MotionEvent.obtain(now, now, MotionEvent.ACTION_HOVER_MOVE,
+                mHoverU * mPageWidth, mHoverV * mPageHeight, 0);
+        event.setSource(InputDevice.SOURCE_MOUSE);
+        tab.getWebView().dispatchGenericMotionEvent(event);
+        event.recycle();
+        mPrefetcher.onGaze(tab.getWebView(), mHoverU, mHoverV);
+    }
+
+    /**
+     * MotionEvent times are on the uptime clock; events are stamped with System.nanoTime.
+     */
+    private static long toUptimeMillis(long timeNs, long nowNs, long nowMs) {
+        return nowMs - (nowNs - timeNs) / 1000000L;
+    }
+}
@@ -0,0 +1,169 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+
+/**
+ * The printable ASCII glyphs of one font, rasterized once into a bitmap for drawing text as
+ * textured quads.
+ *
+ * Glyphs are white with a dark shadow, premultiplied, so that text is tinted and faded by
+ * multiplying with a color. Each glyph sits in a cell padded for the shadow; a cell is drawn
+ * at the pen position minus the padding and advances the pen by the glyph's advance. Other
+ * characters are drawn as '?'. A small solid white cell next to the glyphs lets filled
+ * rectangles be drawn from the same texture. Building the atlas does not need GL, so it can
+ * be done on any thread; the bitmap is kept to upload it again into a new context.
+ */
+class GlyphAtlas {
+
+    private static final char FIRST_CHAR = ' ';
+    private static final char LAST_CHAR = '~';
+    private static final int GLYPH_COUNT = LAST_CHAR - FIRST_CHAR + 1;
+    private static final int ATLAS_WIDTH = 512;
+    // Big enough that linear filtering at its center only sees white.
+    private static final int SOLID_SIZE = 4;
+
+    private final Bitmap mBitmap;
+    // 4 floats per glyph: left, top, right and bottom in texture coordinates.
+    private final float[] mUvs = new float[GLYPH_COUNT * 4];
+    private final float[] mAdvances = new float[GLYPH_COUNT];
+    private final float[] mCellWidths = new float[GLYPH_COUNT];
+    private final float mSolidU;
+    private final float mSolidV;
+    private final float mCellHeight;
+    private final float mPadding;
+    private final float mLineHeight;
+
+    /**
+     * @param textSize The size glyphs are rasterized at, in pixels.
+     */
+    GlyphAtlas(float textSize) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(textSize);
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        paint.setColor(Color.WHITE);
+        float shadowRadius = textSize / 12;
+        paint.setShadowLayer(shadowRadius, 0, 0, Color.DKGRAY);
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+
+        mPadding = (float) Math.ceil(shadowRadius * 2);
+        mLineHeight = (float) Math.ceil(metrics.bottom - metrics.top);
+        mCellHeight = mLineHeight + 2 * mPadding;
+
+        // Lay the cells out in rows first, to know how tall the bitmap has to be.
+        float[] xs = new float[GLYPH_COUNT];
+        float[] ys = new float[GLYPH_COUNT];
+        float x = 0;
+        float y = 0;
+        char[] glyph = new char[1];
+        for (int i = 0; i < GLYPH_COUNT; i++) {
+            glyph[0] = (char) (FIRST_CHAR + i);
+            mAdvances[i] = paint.measureText(new String(glyph));
+            mCellWidths[i] = (float) Math.ceil(mAdvances[i] + 2 * mPadding);
+            if (x + mCellWidths[i] > ATLAS_WIDTH) {
+                x = 0;
+                y += mCellHeight;
+            }
+            xs[i] = x;
+            ys[i] = y;
+            x += mCellWidths[i];
+        }
+        if (x + SOLID_SIZE > ATLAS_WIDTH) {
+            x = 0;
+            y += mCellHeight;
+        }
+        float solidX = x;
+        float solidY = y;
+        int height = Integer.highestOneBit((int) (y + mCellHeight) - 1) << 1;
+
+        mBitmap = Bitmap.createBitmap(ATLAS_WIDTH, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < GLYPH_COUNT; i++) {
+            glyph[0] = (char) (FIRST_CHAR + i);
+            canvas.drawText(new String(glyph), xs[i] + mPadding, ys[i] + mPadding - metrics.top,
+                    paint);
+            mUvs[i * 4] = xs[i] / ATLAS_WIDTH;
+            mUvs[i * 4 + 1] = ys[i] / height;
+            mUvs[i * 4 + 2] = (xs[i] + mCellWidths[i]) / ATLAS_WIDTH;
+            mUvs[i * 4 + 3] = (ys[i] + mCellHeight) / height;
+        }
+        Paint solid = new Paint();
+        solid.setColor(Color.WHITE);
+        canvas.drawRect(solidX, solidY, solidX + SOLID_SIZE, solidY + SOLID_SIZE, solid);
+        mSolidU = (solidX + SOLID_SIZE / 2f) / ATLAS_WIDTH;
+        mSolidV = (solidY + SOLID_SIZE / 2f) / height;
+    }
+
+    /**
+     * Uploads the atlas into a new texture of the current context.
+     *
+     * @return The texture name, for GL_TEXTURE_2D.
+     */
+    int upload(GLStateCache state) {
+        int texture = state.genTexture();
+        state.bindTexture(GLES20.GL_TEXTURE_2D, texture);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texImage2D(GLES20.GL_TEXTURE_2D, mBitmap);
+        return texture;
+    }
+
+    /**
+     * @return The distance between the baselines of two lines, in pixels.
+     */
+    float getLineHeight() {
+        return mLineHeight;
+    }
+
+    float getCellHeight() {
+        return mCellHeight;
+    }
+
+    /**
+     * @return How far cells reach left of the pen and above the line, in pixels.
+     */
+    float getPadding() {
+        return mPadding;
+    }
+
+    float getAdvance(char c) {
+        return mAdvances[indexOf(c)];
+    }
+
+    float getCellWidth(char c) {
+        return mCellWidths[indexOf(c)];
+    }
+
+    /**
+     * @param out Receives left, top, right and bottom of the glyph's cell in texture
+     * coordinates, at the given offset.
+     */
+    void getUvs(char c, float[] out, int offset) {
+        System.arraycopy(mUvs, indexOf(c) * 4, out, offset, 4);
+    }
+
+    /**
+     * @param out Receives left, top, right and bottom texture coordinates that sample solid
+     * white, at the given offset.
+     */
+    void getSolidUvs(float[] out, int offset) {
+        out[offset] = mSolidU;
+        out[offset + 1] = mSolidV;
+        out[offset + 2] = mSolidU;
+        out[offset + 3] = mSolidV;
+    }
+
+    private static int indexOf(char c) {
+        return c >= FIRST_CHAR && c <= LAST_CHAR ? c - FIRST_CHAR : '?' - FIRST_CHAR;
+    }
+}
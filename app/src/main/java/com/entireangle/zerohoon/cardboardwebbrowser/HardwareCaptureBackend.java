@@ -0,0 +1,90 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.Surface;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Draws the page into the capture surface through a GPU-accelerated canvas.
+ *
+ * The canvas only records a display list on the UI thread; the render thread draws it on the
+ * GPU after the canvas is posted, so the raster stage measures recording only. Hardware
+ * canvases come from Surface.lockHardwareCanvas, which appeared after the SDK the app builds
+ * against, so it is looked up at run time; see {@link #isSupported()}. A hardware canvas
+ * always covers the whole surface, so every capture is a full one.
+ */
+class HardwareCaptureBackend implements CaptureBackend {
+
+    private static final String TAG = "HardwareCapture";
+    private static final Method LOCK_HARDWARE_CANVAS = findLockHardwareCanvas();
+
+    /**
+     * @return Whether the platform can lock a hardware canvas on a surface.
+     */
+    static boolean isSupported() {
+        return LOCK_HARDWARE_CANVAS != null;
+    }
+
+    @Override
+    public String getName() {
+        return "hardware";
+    }
+
+    @Override
+    public boolean supportsPartialCapture() {
+        return false;
+    }
+
+    @Override
+    public void capture(CustomWebView view, Surface surface, Rect dirty, float scale,
+            FrameMetrics metrics) throws Surface.OutOfResourcesException {
+        long start = System.nanoTime();
+        Canvas canvas = lockHardwareCanvas(surface);
+        if (scale != 1.0f) {
+            canvas.scale(scale, scale);
+        }
+        long locked = System.nanoTime();
+        view.drawPage(canvas);
+        long recorded = System.nanoTime();
+        surface.unlockCanvasAndPost(canvas);
+        if (metrics != null) {
+            metrics.record(FrameMetrics.STAGE_CAPTURE_LOCK, locked - start);
+            metrics.record(FrameMetrics.STAGE_CAPTURE_RASTER, recorded - locked);
+            metrics.record(FrameMetrics.STAGE_CAPTURE_POST, System.nanoTime() - recorded);
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private static Canvas lockHardwareCanvas(Surface surface) {
+        if (LOCK_HARDWARE_CANVAS == null) {
+            throw new UnsupportedOperationException("No hardware canvas on this platform");
+        }
+        try {
+            return (Canvas) LOCK_HARDWARE_CANVAS.invoke(surface);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static Method findLockHardwareCanvas() {
+        try {
+            return Surface.class.getMethod("lockHardwareCanvas");
+        } catch (NoSuchMethodException e) {
+            Log.i(TAG, "Surface.lockHardwareCanvas is not available");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer, single-consumer queue of gaze input events, from the GL thread
+ * to the UI thread.
+ *
+ * Events are stored in parallel primitive arrays, so neither side allocates. The producer
+ * publishes a slot by advancing the tail after writing it, and the consumer frees slots by
+ * advancing the head after reading them; neither takes a lock. The consumer reads the
+ * events it has been given in place, so it can look ahead before releasing them.
+ */
+class InputRing {
+
+    /** Where the gaze hits the page in this frame. */
+    public static final int EVENT_GAZE = 0;
+    /** The trigger went down, at the gaze of the frame that picked it up. */
+    public static final int EVENT_PRESS = 1;
+    /** The trigger went up. */
+    public static final int EVENT_RELEASE = 2;
+    /**
+     * The trigger went down on a chrome widget, the arg, at u and v across the widget. It
+     * has no press on the page and its release goes nowhere.
+     */
+    public static final int EVENT_CHROME = 3;
+    /** The gaze left the page while the trigger was up. */
+    public static final int EVENT_GAZE_LEFT = 4;
+
+    private final int mMask;
+    private final int[] mTypes;
+    private final int[] mArgs;
+    private final float[] mU;
+    private final float[] mV;
+    private final long[] mTimes;
+
+    // The next slot to read, advanced by the consumer.
+    private final AtomicLong mHead = new AtomicLong();
+    // The next slot to write, advanced by the producer.
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * @param capacity A power of two.
+     */
+    InputRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mMask = capacity - 1;
+        mTypes = new int[capacity];
+        mArgs = new int[capacity];
+        mU = new float[capacity];
+        mV = new float[capacity];
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * @return How many events the producer can add before the ring is full.
+     */
+    int remainingCapacity() {
+        return mTypes.length - (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * Adds an event. Producer only.
+     *
+     * @param timeNs When the event happened, on the System.nanoTime clock.
+     * @return false if the ring is full and the event was dropped.
+     */
+    boolean offer(int type, float u, float v, long timeNs) {
+        return offer(type, 0, u, v, timeNs);
+    }
+
+    /**
+     * Adds an event with an int argument. Producer only.
+     */
+    boolean offer(int type, int arg, float u, float v, long timeNs) {
+        long tail = mTail.get();
+        if (tail - mHead.get() == mTypes.length) {
+            return false;
+        }
+        int slot = (int) tail & mMask;
+        mTypes[slot] = type;
+        mArgs[slot] = arg;
+        mU[slot] = u;
+        mV[slot] = v;
+        mTimes[slot] = timeNs;
+        // Orders the writes above before the slot becomes visible to the consumer.
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * @return How many events the consumer can read. Consumer only.
+     */
+    int available() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * The accessors read the index-th event from the head, for index < {@link #available()}.
+     */
+    int getType(int index) {
+        return mTypes[slot(index)];
+    }
+
+    int getArg(int index) {
+        return mArgs[slot(index)];
+    }
+
+    float getU(int index) {
+        return mU[slot(index)];
+    }
+
+    float getV(int index) {
+        return mV[slot(index)];
+    }
+
+    long getTime(int index) {
+        return mTimes[slot(index)];
+    }
+
+    /**
+     * Frees the first count events for the producer. Consumer only.
+     */
+    void release(int count) {
+        mHead.lazySet(mHead.get() + count);
+    }
+
+    private int slot(int index) {
+        return (int) (mHead.get() + index) & mMask;
+    }
+}
@@ -0,0 +1,450 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.ValueCallback;
+
+import com.entireangle.zerohoon.cardboardwebbrowser.gaze.DwellTracker;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Warms up the link the gaze rests on, so that following it shows the page at once.
+ *
+ * Once the gaze dwells on the active page, the page is asked which link is under the gaze.
+ * The page itself then preconnects to the link's origin, which resolves its host and opens a
+ * connection in the network stack all WebViews share.
+ *
+ * With {@link #setRenderEnabled} the link is also loaded into a hidden WebView from a small
+ * pool, at most MAX_LOADS at a time. That is off by default: it sends the link's GET and runs
+ * its page's scripts for a link the user never followed, which for links such as logout or
+ * add to cart does what following them would. If the page then navigates to a link that was
+ * prefetched, the tab takes over the prefetched WebView instead, and keeps the WebView it had
+ * as a back view, see {@link TabManager#goBack()}. A tab that already keeps MAX_BACK_VIEWS
+ * loads the link in place instead, from the cache the prefetch warmed. A WebView a tab lets go
+ * of again comes back to the pool.
+ *
+ * A load still running when the gaze leaves its link is cancelled. A finished one is kept
+ * until its WebView is needed for another link. What the pool downloaded is measured with the
+ * prefetched page's Resource Timing, and counted as used or wasted by whether the page was
+ * shown.
+ *
+ * Use it from the UI thread.
+ */
+class LinkPrefetcher {
+
+    // The pool's WebViews, each holding one page; at least MAX_LOADS.
+    private static final int POOL_SIZE = 2;
+    private static final int MAX_LOADS = 1;
+    // WebViews a tab may keep to go back to, each holding a whole page.
+    private static final int MAX_BACK_VIEWS = 2;
+    // How long the gaze must rest, and how far it may wander meanwhile, in page pixels.
+    private static final long DWELL_NS = 350 * 1000000L;
+    private static final float DWELL_RADIUS_PX = 24;
+    private static final String BLANK_URL = "about:blank";
+    // Finds the link at a point given in fractions of the viewport, and preconnects to its
+    // origin. Returns the link's URL and bounds in fractions of the viewport, or null.
+    private static final String LINK_SCRIPT = "(function(u, v) {"
+            + "var e = document.elementFromPoint(u * innerWidth, v * innerHeight);"
+            + "while (e && !(e.tagName == 'A' && typeof e.href == 'string')) e = e.parentElement;"
+            + "if (!e || !/^https?:/.test(e.href)) return null;"
+            + "var origin = e.protocol + '//' + e.host;"
+            + "if (!document.querySelector('link[rel=preconnect][href=\"' + origin + '\"]')) {"
+            + "['dns-prefetch', 'preconnect'].forEach(function(rel) {"
+            + "var link = document.createElement('link'); link.rel = rel; link.href = origin;"
+            + "document.head.appendChild(link); }); }"
+            + "var r = e.getBoundingClientRect();"
+            + "return {href: e.href, left: r.left / innerWidth, top: r.top / innerHeight,"
+            + "right: r.right / innerWidth, bottom: r.bottom / innerHeight}; })";
+    // The bytes the page has transferred so far, by its Resource Timing.
+    private static final String BYTES_SCRIPT = "(function() {"
+            + "var entries = performance.getEntriesByType('navigation')"
+            + ".concat(performance.getEntriesByType('resource')), total = 0;"
+            + "for (var i = 0; i < entries.length; i++)"
+            + "total += entries[i].transferSize || entries[i].encodedBodySize || 0;"
+            + "return total; })()";
+
+    private static final int SLOT_FREE = 0;
+    private static final int SLOT_LOADING = 1;
+    private static final int SLOT_READY = 2;
+    // Being measured and cleared before it is free again.
+    private static final int SLOT_RECYCLING = 3;
+
+    /**
+     * A pooled WebView and the link it holds.
+     */
+    private static final class Slot {
+        // Null while a tab has the slot's WebView, until it is needed again.
+        CustomWebView mWebView;
+        int mState = SLOT_FREE;
+        String mUrl;
+        long mLastUsedNs;
+    }
+
+    private final TabManager mTabs;
+    private final TabManager.WebViewFactory mFactory;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final List<Slot> mSlots = new ArrayList<Slot>();
+    private final DwellTracker mDwell = new DwellTracker(DWELL_RADIUS_PX, DWELL_NS);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDwellCheck = new Runnable() {
+        @Override
+        public void run() {
+            onGazeSample(System.nanoTime());
+        }
+    };
+    private boolean mRender;
+
+    // The page the gaze is on, and where.
+    private CustomWebView mPage;
+    private float mGazeU;
+    private float mGazeV;
+    // The link the gaze dwelt on, in fractions of the page, while the gaze stays on it.
+    private String mTargetUrl;
+    private float mTargetLeft;
+    private float mTargetTop;
+    private float mTargetRight;
+    private float mTargetBottom;
+
+    private long mDwells;
+    private long mLinks;
+    private long mPrefetches;
+    private long mHits;
+    private long mCancelled;
+    private long mEvicted;
+    private long mUsedBytes;
+    private long mWastedBytes;
+
+    /**
+     * @param factory Creates the pool's WebViews, attached like those of tabs.
+     */
+    LinkPrefetcher(TabManager tabs, TabManager.WebViewFactory factory, int pageWidth,
+            int pageHeight) {
+        mTabs = tabs;
+        mFactory = factory;
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+    }
+
+    /**
+     * Enables or disables loading the link the gaze rests on into a hidden WebView, on top of
+     * preconnecting to it. Off by default; never with tiled capture, whose tile grid is bound
+     * to the WebView it was made for, so pages cannot be swapped.
+     */
+    void setRenderEnabled(boolean enabled) {
+        mRender = enabled && !CustomWebView.TILED_CAPTURE;
+    }
+
+    /**
+     * The gaze is on the page, at u and v across it.
+     */
+    void onGaze(CustomWebView page, float u, float v) {
+        if (page != mPage) {
+            leaveTarget();
+            mDwell.reset();
+            mPage = page;
+        }
+        mGazeU = u;
+        mGazeV = v;
+        if (mTargetUrl != null && (u < mTargetLeft || u > mTargetRight || v < mTargetTop
+                || v > mTargetBottom)) {
+            leaveTarget();
+        }
+        onGazeSample(System.nanoTime());
+    }
+
+    /**
+     * The gaze left the page.
+     */
+    void onGazeLeft() {
+        leaveTarget();
+        mDwell.reset();
+        mHandler.removeCallbacks(mDwellCheck);
+        mPage = null;
+    }
+
+    /**
+     * The page is about to navigate to the url.
+     *
+     * @return true if a prefetched WebView took over the page's tab, so the page must not
+     *         navigate itself.
+     */
+    boolean onNavigate(CustomWebView page, String url) {
+        BrowserTab tab = mTabs.getActiveTab();
+        if (tab == null || tab.getWebView() != page) {
+            return false;
+        }
+        Slot slot = findSlot(url);
+        if (slot == null) {
+            return false;
+        }
+        mHits++;
+        CustomWebView prefetched = slot.mWebView;
+        measure(prefetched, false);
+        if (tab.getBackViewCount() >= MAX_BACK_VIEWS) {
+            // Taking over would drop a page the tab can go back to.
+            recycle(slot);
+            return false;
+        }
+        // Kept first, so the chrome the new WebView reports to already sees the way back.
+        tab.pushBackView(page);
+        mTabs.replaceWebView(tab, prefetched);
+        slot.mWebView = null;
+        slot.mState = SLOT_FREE;
+        slot.mUrl = null;
+        if (mPage == page) {
+            onGazeLeft();
+        }
+        return true;
+    }
+
+    /**
+     * Takes a WebView a tab let go of into the pool, or destroys it if the pool has no room.
+     */
+    void adoptWebView(CustomWebView webView) {
+        for (Slot slot : mSlots) {
+            if (slot.mWebView == null) {
+                slot.mWebView = webView;
+                recycle(slot);
+                return;
+            }
+        }
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if (parent != null) {
+            parent.removeView(webView);
+        }
+        webView.destroy();
+    }
+
+    /**
+     * A WebView finished loading the url; it may be one of the pool's.
+     */
+    void onPageFinished(CustomWebView webView, String url) {
+        for (Slot slot : mSlots) {
+            if (slot.mWebView != webView) {
+                continue;
+            }
+            if (slot.mState == SLOT_LOADING && !BLANK_URL.equals(url)) {
+                slot.mState = SLOT_READY;
+                // Scripts and animations stop until the page is shown.
+                webView.onPause();
+            } else if (slot.mState == SLOT_RECYCLING && BLANK_URL.equals(url)) {
+                webView.clearHistory();
+                slot.mState = SLOT_FREE;
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return The prefetch counts and bytes so far, one per line.
+     */
+    String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("dwells=").append(mDwells).append(" links=").append(mLinks)
+                .append(" prefetches=").append(mPrefetches).append(" hits=").append(mHits)
+                .append(" hit rate=").append(mPrefetches > 0 ? mHits * 100 / mPrefetches : 0)
+                .append("%\n");
+        sb.append("cancelled=").append(mCancelled).append(" evicted=").append(mEvicted)
+                .append('\n');
+        sb.append("bytes used=").append(mUsedBytes).append(" wasted=").append(mWastedBytes)
+                .append('\n');
+        return sb.toString();
+    }
+
+    private void onGazeSample(long nowNs) {
+        mHandler.removeCallbacks(mDwellCheck);
+        if (mPage == null) {
+            return;
+        }
+        if (mDwell.addSample(mGazeU * mPageWidth, mGazeV * mPageHeight, nowNs)) {
+            mDwells++;
+            findLink(mPage, mGazeU, mGazeV);
+        }
+        long dwellNs = mDwell.getDwellTimeNs();
+        if (dwellNs != Long.MAX_VALUE) {
+            // The gaze may rest too still to send another sample.
+            mHandler.postDelayed(mDwellCheck, Math.max(0, (dwellNs - nowNs) / 1000000L) + 1);
+        }
+    }
+
+    private void findLink(final CustomWebView page, float u, float v) {
+        page.evaluateJavascript(LINK_SCRIPT + "(" + u + ", " + v + ")",
+                new ValueCallback<String>() {
+                    @Override
+                    public void onReceiveValue(String value) {
+                        if (page != mPage || value == null || value.equals("null")) {
+                            return;
+                        }
+                        try {
+                            JSONObject link = new JSONObject(value);
+                            onLink(page, link.getString("href"), (float) link.getDouble("left"),
+                                    (float) link.getDouble("top"),
+                                    (float) link.getDouble("right"),
+                                    (float) link.getDouble("bottom"));
+                        } catch (JSONException e) {
+                            // Not a link after all.
+                        }
+                    }
+                });
+    }
+
+    private void onLink(CustomWebView page, String url, float left, float top, float right,
+            float bottom) {
+        mLinks++;
+        leaveTarget();
+        mTargetUrl = url;
+        mTargetLeft = left;
+        mTargetTop = top;
+        mTargetRight = right;
+        mTargetBottom = bottom;
+        if (mRender && !isSameDocument(url, page.getUrl())) {
+            prefetch(url);
+        }
+    }
+
+    private void prefetch(String url) {
+        Slot slot = findSlot(url);
+        if (slot != null) {
+            slot.mLastUsedNs = System.nanoTime();
+            return;
+        }
+        int loads = 0;
+        for (Slot other : mSlots) {
+            if (other.mState == SLOT_LOADING) {
+                loads++;
+            }
+        }
+        if (loads >= MAX_LOADS) {
+            return;
+        }
+        slot = obtainSlot();
+        if (slot == null) {
+            return;
+        }
+        mPrefetches++;
+        slot.mState = SLOT_LOADING;
+        slot.mUrl = url;
+        slot.mLastUsedNs = System.nanoTime();
+        slot.mWebView.onResume();
+        slot.mWebView.loadUrl(url);
+    }
+
+    /**
+     * @return A free slot, a new one while the pool is not full, or the least recently used
+     *         finished one, or null if all are busy.
+     */
+    private Slot obtainSlot() {
+        Slot lru = null;
+        for (Slot slot : mSlots) {
+            if (slot.mState == SLOT_FREE) {
+                if (slot.mWebView == null) {
+                    slot.mWebView = createWebView();
+                }
+                return slot;
+            }
+            if (slot.mState == SLOT_READY && (lru == null || slot.mLastUsedNs < lru.mLastUsedNs)) {
+                lru = slot;
+            }
+        }
+        if (mSlots.size() < POOL_SIZE) {
+            Slot slot = new Slot();
+            slot.mWebView = createWebView();
+            mSlots.add(slot);
+            return slot;
+        }
+        if (lru != null) {
+            mEvicted++;
+            measure(lru.mWebView, true);
+            lru.mWebView.stopLoading();
+            // Reused right away, without going through about:blank.
+            lru.mState = SLOT_FREE;
+            return lru;
+        }
+        return null;
+    }
+
+    private CustomWebView createWebView() {
+        CustomWebView webView = mFactory.createWebView();
+        // Hidden views are not drawn, so they never capture.
+        webView.setVisibility(View.INVISIBLE);
+        return webView;
+    }
+
+    /**
+     * Cancels the load of the link the gaze was on, if it has not finished.
+     */
+    private void leaveTarget() {
+        String url = mTargetUrl;
+        mTargetUrl = null;
+        if (url == null) {
+            return;
+        }
+        Slot slot = findSlot(url);
+        if (slot != null && slot.mState == SLOT_LOADING) {
+            mCancelled++;
+            measure(slot.mWebView, true);
+            recycle(slot);
+        }
+    }
+
+    /**
+     * Clears the slot's WebView before it takes another link.
+     */
+    private void recycle(Slot slot) {
+        slot.mState = SLOT_RECYCLING;
+        slot.mUrl = null;
+        // A measuring script sent before this still runs on the page being dropped.
+        slot.mWebView.stopLoading();
+        slot.mWebView.loadUrl(BLANK_URL);
+    }
+
+    private void measure(CustomWebView webView, final boolean wasted) {
+        webView.evaluateJavascript(BYTES_SCRIPT, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                long bytes;
+                try {
+                    bytes = (long) Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    // The page was gone before the script ran.
+                    return;
+                }
+                if (wasted) {
+                    mWastedBytes += bytes;
+                } else {
+                    mUsedBytes += bytes;
+                }
+            }
+        });
+    }
+
+    private Slot findSlot(String url) {
+        for (Slot slot : mSlots) {
+            if ((slot.mState == SLOT_LOADING || slot.mState == SLOT_READY)
+                    && url.equals(slot.mUrl)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the url only differs from the page's by its fragment.
+     */
+    private static boolean isSameDocument(String url, String pageUrl) {
+        return pageUrl != null && stripFragment(url).equals(stripFragment(pageUrl));
+    }
+
+    private static String stripFragment(String url) {
+        int hash = url.indexOf('#');
+        return hash >= 0 ? url.substring(0, hash) : url;
+    }
+}
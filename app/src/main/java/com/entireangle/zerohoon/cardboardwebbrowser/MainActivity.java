@@ -21,28 +21,46 @@ import com.google.vrtoolkit.cardboard.CardboardView;
 import com.google.vrtoolkit.cardboard.Eye;
 import com.google.vrtoolkit.cardboard.HeadTransform;
 import com.google.vrtoolkit.cardboard.Viewport;
+import com.entireangle.zerohoon.cardboardwebbrowser.gaze.GazeHitTester;
+import com.entireangle.zerohoon.cardboardwebbrowser.gaze.GazeMath;
+import com.entireangle.zerohoon.cardboardwebbrowser.gaze.HeadPosePredictor;
+import com.entireangle.zerohoon.cardboardwebbrowser.gaze.HeadTrace;
 
-import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.util.Log;
 import android.view.MotionEvent;
-import android.view.Surface;
 import android.view.View;
 import android.view.ViewGroup;
+import android.webkit.CookieManager;
 import android.webkit.JsResult;
+import android.webkit.ValueCallback;
 import android.webkit.WebChromeClient;
 import android.webkit.WebView;
 
-import java.io.BufferedReader;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -52,22 +70,44 @@ import javax.microedition.khronos.egl.EGLConfig;
 public class MainActivity extends CardboardActivity implements CardboardView.StereoRenderer {
 
     private static final String TAG = "MainActivity";
+    // adb shell am broadcast -a com.entireangle.zerohoon.cardboardwebbrowser.DUMP_FRAME_METRICS
+    // Debug builds only: any app could send it, and the dump names the pages visited.
+    public static final String ACTION_DUMP_FRAME_METRICS =
+            "com.entireangle.zerohoon.cardboardwebbrowser.DUMP_FRAME_METRICS";
+    private static final String START_URL = "http://news.google.com";
     private static final float Z_NEAR = 0.1f;
     private static final float Z_FAR = 100.0f;
     private static final float CAMERA_Z = 0.01f;
     private static final int COORDS_PER_VERTEX = 3;
-    private static final WorldLayoutData DATA = new WorldLayoutData();
+    // Sample the page from a mipmapped copy instead of the external texture.
+    private static final boolean MIPMAPPED_PAGE = false;
+    // Also load the link the gaze rests on in a hidden WebView, see LinkPrefetcher.
+    private static final boolean PREFETCH_RENDER = false;
+    // In debug builds, a frame this much later than the last one dumps the GL trace.
+    private static final long STALL_DUMP_NS = 100 * 1000000L;
+    // A queued frame is scanned out about one refresh after its buffers are swapped.
+    private static final long SCANOUT_NS = 1000000000L / 60;
+    // In debug builds, the head views of the first minute are recorded for replay.
+    private static final int HEAD_TRACE_FRAMES = 60 * 60;
+    // Disk space for the subresources of the pages, see WebResourceCache.
+    private static final long RESOURCE_CACHE_BYTES = 64 * 1024 * 1024L;
 
     // We keep the light always position just above the user.
     private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] { 0.0f, 2.0f, 0.0f, 1.0f };
 
     private final float[] mLightPosInEyeSpace = new float[4];
 
-    private FloatBuffer mFloorVertices;
-    private FloatBuffer mFloorColors;
-    private FloatBuffer mFloorNormals;
+    // Static geometry, uploaded once per GL context.
+    private final MeshStore mMeshes = new MeshStore();
+    private int mPageMesh;
+    private final int[] mPageAttribs = new int[2];
+    // Built in the background during startup.
+    private Future<MeshBuilder.Mesh> mPageQuad;
 
-    private FloatBuffer mCubeVertices;
+    // Drawn in place of the page until the page's first frame is latched.
+    private int mPlaceholderProgram;
+    private int mPlaceholderModelViewProjectionParam;
+    private final int[] mPlaceholderAttribs = new int[] { -1, -1 };
 
     private int mCubeProgram;
     private int mCubePositionParam;
@@ -81,59 +121,187 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     private float[] mHeadView;
     private float[] mModelViewProjection;
     private float[] mModelView;
-    private float[] mModelFloor;
 
     private float mObjectDistance = 1.5f;
-    private float mFloorDepth = 20f;
 
-    private CardboardOverlayView mOverlayView;
+    // Toasts are drawn in the scene, from a glyph atlas built during startup.
+    private static final float TOAST_TEXT_SIZE_PX = 48;
+    private final ToastHud mToast = new ToastHud();
+    private Future<GlyphAtlas> mGlyphAtlas;
+    private int mHudProgram;
+    private boolean mToastVisible;
+    // The toast and the chrome share one upload of the atlas.
+    private int mAtlasTexture;
+    // Back, forward, address and scroll bar around the page panel.
+    private final BrowserChrome mChrome = new BrowserChrome();
+    private int mSpriteProgram;
+
+    // Finds the video of the element that asked for fullscreen, pauses and marks it, and
+    // returns where it is, so that it can be played in the video panel instead.
+    private static final String FULLSCREEN_VIDEO_SCRIPT = "(function() {"
+            + "var e = document.webkitFullscreenElement || document.fullscreenElement;"
+            + "var v = e && (e.tagName == 'VIDEO' ? e : e.querySelector('video'));"
+            + "if (!v) return null;"
+            + "var old = document.querySelector('video[data-cardboard-video]');"
+            + "if (old) old.removeAttribute('data-cardboard-video');"
+            + "v.setAttribute('data-cardboard-video', '');"
+            + "v.pause();"
+            + "return {src: v.currentSrc, time: v.currentTime}; })();";
+    // Moves the page's video to where the video panel stopped, given in seconds.
+    private static final String VIDEO_POSITION_SCRIPT = "(function(time) {"
+            + "var v = document.querySelector('video[data-cardboard-video]');"
+            + "if (v) v.currentTime = time; })(%s);";
+    // Fullscreen videos play in their own panel, in front of where the page is.
+    private VideoPanel mVideo;
+    // The WebView whose video is in the panel. UI thread.
+    private CustomWebView mVideoWebView;
+    private boolean mVideoVisible;
+    private float mVideoAspect;
+    private int mVideoPanel;
+    private final float[] mModelVideo = new float[16];
+    private final float[] mVideoModelView = new float[16];
+    private final float[] mVideoModelViewProjection = new float[16];
+    private final int[] mVideoAttribs = new int[2];
+    private int mVideoProgram;
+    private int mVideoModelParam;
+    private int mVideoModelViewParam;
+    private int mVideoModelViewProjectionParam;
+    private int mVideoSTMatrixParam;
+    // Whether the gaze is on the video panel, for the trigger on the UI thread.
+    private volatile boolean mGazeOnVideo;
+    // The eye being drawn, for the toast.
+    private int mEyeType;
+    private float mEyeAspect;
     public static final int GL_TEXTURE_EXTERNAL_OES                                 = 0x8D65;
-    private int mTextureID;
-    private SurfaceTexture mSurface;
-    private float[] mSTMatrix = new float[16];
     private int muSTMatrixHandle;
-    private FloatBuffer mTextCoords;
     private int mTextCoordsParam;
     private int mPointerProgram;
     private int mPointerPositionParam;
 
-    private float[] mIntersectionPointerVertices = new float[12];
+    private final float[] mIntersectionPointerVertices = new float[12];
     private FloatBuffer mFbIntersectionPointerVertices;
     private int mPointerModelViewProjectionParam;
     private float[] mIntersectionPointerVertex = new float[4];
-    private CustomWebView mMyWebView;
-    private int mEyeViewProjectionParam;
-
-    /**
-     * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-     *
-     * @param type The type of shader we will be creating.
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return The shader object handler.
-     */
-    private int loadGLShader(int type, int resId) {
-        String code = readRawTextFile(resId);
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
-
-        // Get the compilation status.
-        final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
 
-        // If the compilation failed, delete the shader.
-        if (compileStatus[0] == 0) {
-            Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
+    // Hit-tests the gaze against the page panel on the GL thread. It caches the inverse of
+    // mModelCube, so it has to be told whenever the panel moves, see mPanelMoved.
+    private final GazeHitTester mGazeHits = new GazeHitTester(2);
+    private int mPagePanel;
+    private volatile boolean mPanelMoved;
+    // Where the gaze hits the page, origin at the top left. Written on the GL thread.
+    private final float[] mPageUv = new float[2];
+    // Carries the gaze and trigger from the GL thread to the page on the UI thread.
+    private GazeInputDispatcher mInput;
+    private LinkPrefetcher mPrefetcher;
+    // Predicts where the head will be when a frame is displayed; the gaze hit test, and so
+    // the pointer and clicks, use the predicted head view.
+    private final HeadPosePredictor mHeadPredictor = new HeadPosePredictor();
+    private final float[] mPredictedHeadView = new float[16];
+    // Smoothed time from the head sample of a frame to its display.
+    private long mDisplayLatencyNs = 2 * SCANOUT_NS;
+    // Non-null in debug builds only.
+    private HeadTrace mHeadTrace;
+    // The page panel in head space, for the tile visibility test.
+    private final float[] mPageModelView = new float[16];
+    // Gaze math of the UI thread.
+    private final GazeMath mPanelMath = new GazeMath();
+
+    private volatile long mLatchedFrameCount;
+    private volatile long mSkippedFrameCount;
+
+    // Non-null when the page is captured into tiles, see CustomWebView.TILED_CAPTURE.
+    private PageTileGrid mPageTiles;
+    private final float[] mTileModelViewProjection = new float[16];
+
+    // Null when the page is sampled straight from its external texture. Read for dumps.
+    private volatile PageMipmapStage mMipmapStage;
+    private final float[] mIdentityMatrix = new float[16];
+
+    private final PageResolutionController mResolutionController = new PageResolutionController(
+            CustomWebView.TEXTURE_WIDTH, CustomWebView.TEXTURE_HEIGHT);
+    private final FrameMetrics mFrameMetrics = new FrameMetrics();
+    private final BroadcastReceiver mDumpReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.i(TAG, "Frame metrics\n" + mFrameMetrics.dump()
+                    + "GL calls last frame: issued=" + mGlState.getLastFrameIssuedCalls()
+                    + " elided=" + mGlState.getLastFrameElidedCalls()
+                    + "\nPage frames: latched=" + getLatchedFrameCount()
+                    + " skipped=" + getSkippedFrameCount()
+                    + dumpMipmapCopies());
+            Log.i(TAG, "Startup trace\n" + mStartupTrace.dump());
+            BrowserTab tab = mTabs.getActiveTab();
+            if (tab != null) {
+                Log.i(TAG, "Capture pacing\n" + tab.getWebView().dumpCapturePacing());
+            }
+            Log.i(TAG, "Resource cache\n" + mResourceCache.dump());
+            Log.i(TAG, "Request filter\n" + mRequestFilter.dump());
+            Log.i(TAG, "Link prefetch\n" + mPrefetcher.dump());
+            if (mGlTrace != null) {
+                Log.i(TAG, "GL trace\n" + mGlTrace.dump(GLTraceRing.DEFAULT_CAPACITY));
+            }
+            if (mHeadTrace != null) {
+                writeHeadTrace();
+            }
         }
-
-        if (shader == 0) {
-            throw new RuntimeException("Error creating shader.");
+    };
+
+    // All draws of an eye go through the render queue and the state cache.
+    private final GLStateCache mGlState = new GLStateCache();
+    // Non-null in debug builds only.
+    private GLTraceRing mGlTrace;
+    private long mLastFrameStartNs;
+    private final RenderQueue mRenderQueue = new RenderQueue();
+    private final RenderQueue.Command mPageCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            long drawStart = System.nanoTime();
+            drawCube(state);
+            mFrameMetrics.record(FrameMetrics.STAGE_DRAW_PAGE, System.nanoTime() - drawStart);
+        }
+    };
+    private final RenderQueue.Command mPlaceholderCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            drawPlaceholder(state);
+        }
+    };
+    private final RenderQueue.Command mToastCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            mToast.draw(state, mEyeType, mEyeAspect);
         }
+    };
+    private final RenderQueue.Command mVideoCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            drawVideo(state);
+        }
+    };
+    private final RenderQueue.Command mChromeCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            mChrome.draw(state, mModelViewProjection);
+        }
+    };
+    private final RenderQueue.Command mPointerCommand = new RenderQueue.Command() {
+        @Override
+        public void draw(GLStateCache state) {
+            long drawStart = System.nanoTime();
+            drawPointer(state);
+            mFrameMetrics.record(FrameMetrics.STAGE_DRAW_POINTER, System.nanoTime() - drawStart);
+        }
+    };
 
-        return shader;
-    }
+    private ProgramCache mPrograms;
+    private WebResourceCache mResourceCache;
+    private RequestFilter mRequestFilter;
+    private final StartupTrace mStartupTrace = new StartupTrace();
+
+    private TabManager mTabs;
+    // The tab whose page the GL thread is currently drawing.
+    private BrowserTab mRenderedTab;
+    private int mEyeViewProjectionParam;
 
     /**
      * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
@@ -148,6 +316,21 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         }
     }
 
+    /**
+     * Per-frame variant of checkGLError. glGetError stalls the pipeline, so it only runs in
+     * debug builds, where it also logs the GL calls leading up to the error.
+     */
+    private void checkFrameGLError(String label) {
+        if (mGlTrace == null) {
+            return;
+        }
+        int error = GLES20.glGetError();
+        if (error != GLES20.GL_NO_ERROR) {
+            Log.e(TAG, label + ": glError " + error + ", last calls:\n" + mGlTrace.dump(64));
+            throw new RuntimeException(label + ": glError " + error);
+        }
+    }
+
     /**
      * Sets the view to our CardboardView and initializes the transformation matrices we will use
      * to render our scene.
@@ -155,49 +338,231 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-
-        mMyWebView = new CustomWebView( this );
-        mMyWebView.loadUrl("http://news.google.com");
-        mMyWebView.getSettings().setUserAgentString("Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/43.0.2357.130 Safari/537.36");
-        mMyWebView.getSettings().setJavaScriptEnabled(true);
-        mMyWebView.setWebContentsDebuggingEnabled(true);
-        mMyWebView.setVerticalScrollBarEnabled(true);
-        mMyWebView.setHorizontalScrollBarEnabled(true);
-
-        mMyWebView.setWebChromeClient(new WebChromeClient(){
-            public void onShowCustomView (View view, WebChromeClient.CustomViewCallback callback){
-                mOverlayView.show3DToast("fullscreen");
-
+        mStartupTrace.start();
+        setContentView(R.layout.activity_main);
+        mPrograms = new ProgramCache(getResources(), new File(getCacheDir(), "programs"));
+        mResourceCache = new WebResourceCache(new File(getCacheDir(), "resources"),
+                RESOURCE_CACHE_BYTES);
+        mRequestFilter = new RequestFilter(this, new File(getCacheDir(), "filters"));
+
+        // Shader sources, cached program binaries and geometry are prepared in the background
+        // while the views are set up and the GL thread starts.
+        ExecutorService startup = Executors.newSingleThreadExecutor();
+        startup.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPrograms.prefetch(R.raw.light_vertex, R.raw.passthrough_fragment,
+                        R.raw.mipmap_fragment, R.raw.copy_vertex, R.raw.pointer_vertex,
+                        R.raw.pointer_fragment, R.raw.placeholder_fragment, R.raw.hud_vertex,
+                        R.raw.hud_fragment, R.raw.sprite_vertex, R.raw.sprite_fragment);
+                mStartupTrace.mark(StartupTrace.PHASE_SOURCES_READ);
             }
-            public boolean onJsAlert (WebView view, String url, String message, JsResult result){
-                mOverlayView.show3DToast(message);
-                result.confirm();
-                return true;
+        });
+        mPageQuad = startup.submit(new Callable<MeshBuilder.Mesh>() {
+            @Override
+            public MeshBuilder.Mesh call() {
+                MeshBuilder.Mesh mesh = WorldLayoutData.pageQuad();
+                mStartupTrace.mark(StartupTrace.PHASE_GEOMETRY_BUILT);
+                return mesh;
+            }
+        });
+        mGlyphAtlas = startup.submit(new Callable<GlyphAtlas>() {
+            @Override
+            public GlyphAtlas call() {
+                return new GlyphAtlas(TOAST_TEXT_SIZE_PX);
             }
-
         });
+        // Requests made before the list is mapped go through unfiltered.
+        startup.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRequestFilter.load();
+            }
+        });
+        startup.shutdown();
 
-        setContentView(R.layout.activity_main);
-        addContentView(mMyWebView,
-                new ViewGroup.LayoutParams(mMyWebView.TEXTURE_WIDTH,
-                        mMyWebView.TEXTURE_HEIGHT)
-        );
+        TabManager.WebViewFactory webViewFactory = new TabManager.WebViewFactory() {
+            @Override
+            public CustomWebView createWebView() {
+                return createTabWebView();
+            }
+
+            @Override
+            public void releaseWebView(CustomWebView webView) {
+                mPrefetcher.adoptWebView(webView);
+            }
+        };
+        mTabs = new TabManager(webViewFactory, TabManager.DEFAULT_TEXTURE_BUDGET_BYTES);
+        mTabs.setChrome(mChrome);
+        mChrome.setTabs(mTabs, START_URL);
+        mPrefetcher = new LinkPrefetcher(mTabs, webViewFactory, CustomWebView.TEXTURE_WIDTH,
+                CustomWebView.TEXTURE_HEIGHT);
+        mPrefetcher.setRenderEnabled(PREFETCH_RENDER);
+        mInput = new GazeInputDispatcher(mTabs, mChrome, mPrefetcher, mFrameMetrics,
+                CustomWebView.TEXTURE_WIDTH, CustomWebView.TEXTURE_HEIGHT);
 
         CardboardView cardboardView = (CardboardView) findViewById(R.id.cardboard_view);
         cardboardView.setRenderer(this);
         setCardboardView(cardboardView);
+        mStartupTrace.mark(StartupTrace.PHASE_VIEW_READY);
+
+        // Creating the first WebView loads the browser engine, which is the slowest part of a
+        // cold start. A runnable posted to an attached view runs after the first traversal,
+        // which creates the surface and starts the GL thread, so GL setup overlaps it. The GL
+        // thread draws a placeholder panel until the page's first frame arrives.
+        cardboardView.post(new Runnable() {
+            @Override
+            public void run() {
+                mTabs.openTab(START_URL);
+                mStartupTrace.mark(StartupTrace.PHASE_NAVIGATION_STARTED);
+            }
+        });
 
         mModelCube = new float[16];
         mCamera = new float[16];
         mView = new float[16];
         mModelViewProjection = new float[16];
         mModelView = new float[16];
-        mModelFloor = new float[16];
         mHeadView = new float[16];
+        Matrix.setIdentityM(mModelCube, 0);
+        mPagePanel = mGazeHits.addPanel(mModelCube);
+        Matrix.setIdentityM(mModelVideo, 0);
+        mVideoPanel = mGazeHits.addPanel(mModelVideo);
+        mVideo = new VideoPanel(this, mFrameMetrics, new VideoPanel.Listener() {
+            @Override
+            public void onVideoClosed(int positionMs, boolean failed) {
+                if (failed) {
+                    mToast.show("This video cannot be played here.");
+                }
+                if (mVideoWebView != null) {
+                    mVideoWebView.evaluateJavascript(String.format(Locale.US,
+                            VIDEO_POSITION_SCRIPT, Double.toString(positionMs / 1000.0)), null);
+                    mVideoWebView = null;
+                }
+            }
+        });
+
+        mToast.show("Pull the magnet when you want to click on screen with the red point.");
+        Matrix.setIdentityM(mIdentityMatrix, 0);
+
+        if (BuildConfig.DEBUG) {
+            mGlTrace = new GLTraceRing(GLTraceRing.DEFAULT_CAPACITY);
+            mGlState.setTracer(mGlTrace);
+            mHeadTrace = new HeadTrace(HEAD_TRACE_FRAMES);
+        }
+    }
+
+    /**
+     * Creates a configured WebView for a new tab and attaches it off screen.
+     */
+    private CustomWebView createTabWebView() {
+        final CustomWebView webView = new CustomWebView( this );
+        webView.getSettings().setUserAgentString("Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/43.0.2357.130 Safari/537.36");
+        webView.getSettings().setJavaScriptEnabled(true);
+        webView.setWebContentsDebuggingEnabled(true);
+        webView.setVerticalScrollBarEnabled(true);
+        webView.setHorizontalScrollBarEnabled(true);
+        webView.setFrameMetrics(mFrameMetrics);
+        webView.setResourceCache(mResourceCache);
+        webView.setRequestFilter(mRequestFilter);
+        webView.setLinkPrefetcher(mPrefetcher);
+
+        webView.setWebChromeClient(new WebChromeClient(){
+            public void onShowCustomView (View view,
+                    final WebChromeClient.CustomViewCallback callback){
+                // The fullscreen view would have to go through page capture, which is far
+                // too slow for video, so its video is played in the video panel instead.
+                webView.evaluateJavascript(FULLSCREEN_VIDEO_SCRIPT, new ValueCallback<String>() {
+                    @Override
+                    public void onReceiveValue(String value) {
+                        callback.onCustomViewHidden();
+                        openVideo(webView, value);
+                    }
+                });
+            }
+            public boolean onJsAlert (WebView view, String url, String message, JsResult result){
+                mToast.show(message);
+                result.confirm();
+                return true;
+            }
+
+        });
+
+        addContentView(webView,
+                new ViewGroup.LayoutParams(webView.TEXTURE_WIDTH,
+                        webView.TEXTURE_HEIGHT)
+        );
+        mStartupTrace.mark(StartupTrace.PHASE_WEBVIEW_CREATED);
+        return webView;
+    }
+
+    /**
+     * Plays a page's video in the video panel.
+     *
+     * @param video What FULLSCREEN_VIDEO_SCRIPT returned, as JSON.
+     */
+    private void openVideo(CustomWebView webView, String video) {
+        String src;
+        double time;
+        try {
+            JSONObject json = new JSONObject(video);
+            src = json.optString("src");
+            time = json.optDouble("time");
+        } catch (JSONException e) {
+            src = null;
+            time = 0;
+        }
+        // Media source streams only exist inside the page.
+        if (src == null || src.length() == 0 || src.startsWith("blob:")) {
+            mToast.show("This video cannot be played here.");
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("User-Agent", webView.getSettings().getUserAgentString());
+        headers.put("Referer", webView.getUrl());
+        String cookies = CookieManager.getInstance().getCookie(src);
+        if (cookies != null) {
+            headers.put("Cookie", cookies);
+        }
+        // Hands the playing video's position back to its own page before this one takes over.
+        mVideo.close();
+        mVideo.open(src, headers, Double.isNaN(time) ? 0 : (int) (time * 1000));
+        mVideoWebView = webView;
+        mToast.show("Pull the magnet on the video to pause it, or away from it to close it.");
+    }
+
+    @Override
+    protected void onResume() {
+        // Before the GL thread resumes, so the pause does not count as dropped frames.
+        mFrameMetrics.onResume();
+        super.onResume();
+        if (BuildConfig.DEBUG) {
+            registerReceiver(mDumpReceiver, new IntentFilter(ACTION_DUMP_FRAME_METRICS));
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        if (BuildConfig.DEBUG) {
+            unregisterReceiver(mDumpReceiver);
+        }
+        mVideo.close();
+        super.onPause();
+    }
+
+    /**
+     * @return Per-stage timings of the render and capture pipeline.
+     */
+    public FrameMetrics getFrameMetrics() {
+        return mFrameMetrics;
+    }
 
-        mOverlayView = (CardboardOverlayView) findViewById(R.id.overlay);
-        mOverlayView.show3DToast("Pull the magnet when you want to click on screen with the red point.");
-        Matrix.setIdentityM(mSTMatrix, 0);
+    /**
+     * @return When each startup phase was reached, including time to first frame and time
+     * to first page pixel.
+     */
+    public StartupTrace getStartupTrace() {
+        return mStartupTrace;
     }
 
     @Override
@@ -208,26 +573,6 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onSurfaceChanged(int width, int height) {
         Log.i(TAG, "onSurfaceChanged");
-
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-
-        mTextureID = textures[0];
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, mTextureID);
-        GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE );
-        GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE );
-        GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
-                GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
-                GLES20.GL_NEAREST);
-
-            /*
-             * Create the SurfaceTexture that will feed this textureID,
-             * and pass it to the MediaPlayer
-             */
-        mSurface = new SurfaceTexture(mTextureID);
-        mSurface.setDefaultBufferSize( mMyWebView.TEXTURE_WIDTH, mMyWebView.TEXTURE_HEIGHT );
-        mMyWebView.surface = new Surface( mSurface );
     }
 
     /**
@@ -241,47 +586,43 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
-        GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(DATA.SQURE_COORDS.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder());
-        mCubeVertices = bbVertices.asFloatBuffer();
-        mCubeVertices.put(DATA.SQURE_COORDS);
-        mCubeVertices.position(0);
-
-        ByteBuffer bbTexCoord = ByteBuffer.allocateDirect(DATA.TEX_COORDS.length * 4);
-        bbTexCoord.order(ByteOrder.nativeOrder());
-        mTextCoords = bbTexCoord.asFloatBuffer();
-        mTextCoords.put(DATA.TEX_COORDS);
-        mTextCoords.position(0);
-
-        // make a floor
-        ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(DATA.FLOOR_COORDS.length * 4);
-        bbFloorVertices.order(ByteOrder.nativeOrder());
-        mFloorVertices = bbFloorVertices.asFloatBuffer();
-        mFloorVertices.put(DATA.FLOOR_COORDS);
-        mFloorVertices.position(0);
-
-        ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(DATA.FLOOR_NORMALS.length * 4);
-        bbFloorNormals.order(ByteOrder.nativeOrder());
-        mFloorNormals = bbFloorNormals.asFloatBuffer();
-        mFloorNormals.put(DATA.FLOOR_NORMALS);
-        mFloorNormals.position(0);
-
-        ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(DATA.FLOOR_COLORS.length * 4);
-        bbFloorColors.order(ByteOrder.nativeOrder());
-        mFloorColors = bbFloorColors.asFloatBuffer();
-        mFloorColors.put(DATA.FLOOR_COLORS);
-        mFloorColors.position(0);
-
-        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-        int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-        mCubeProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mCubeProgram, vertexShader);
-        GLES20.glAttachShader(mCubeProgram, passthroughShader);
-        GLES20.glLinkProgram(mCubeProgram);
-        GLES20.glUseProgram(mCubeProgram);
+        long surfaceStart = System.nanoTime();
+        mStartupTrace.mark(StartupTrace.PHASE_SURFACE_CREATED);
+        // Textures from a previous GL context are gone; tabs recreate theirs on the next frame.
+        mTabs.abandonTextures();
+        mVideo.abandonTexture();
+        if (mPageTiles != null) {
+            mRenderedTab.getWebView().setTileGrid(null);
+            mPageTiles = null;
+        }
+        mRenderedTab = null;
+        mGlState.invalidate();
+        mGlState.clearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
+
+        // Buffers of a previous GL context are gone along with it.
+        mMeshes.abandon();
+        MeshBuilder.Mesh pageQuad = await(mPageQuad, "page quad");
+        mPageMesh = mMeshes.upload(mGlState,
+                pageQuad != null ? pageQuad : WorldLayoutData.pageQuad());
+
+        // The pointer quad is rewritten every frame, so its buffer is allocated only once here.
+        ByteBuffer bbPointerVertices = ByteBuffer.allocateDirect(mIntersectionPointerVertices.length * 4);
+        bbPointerVertices.order(ByteOrder.nativeOrder());
+        mFbIntersectionPointerVertices = bbPointerVertices.asFloatBuffer();
+
+        mPrograms.onContextCreated(mGlState);
+        boolean mipmapped = MIPMAPPED_PAGE && !CustomWebView.TILED_CAPTURE;
+
+        if (mipmapped) {
+            int copyProgram = mPrograms.getProgram(R.raw.copy_vertex, R.raw.passthrough_fragment);
+            checkGLError("Copy program");
+            mMipmapStage = new PageMipmapStage(mGlState, copyProgram, mMeshes, mPageMesh);
+        } else {
+            mMipmapStage = null;
+        }
+
+        mCubeProgram = mPrograms.getProgram(R.raw.light_vertex,
+                mipmapped ? R.raw.mipmap_fragment : R.raw.passthrough_fragment);
 
         checkGLError("Cube program");
 
@@ -292,58 +633,77 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         mCubeModelViewParam = GLES20.glGetUniformLocation(mCubeProgram, "u_MVMatrix");
         mCubeModelViewProjectionParam = GLES20.glGetUniformLocation(mCubeProgram, "u_MVP");
         muSTMatrixHandle = GLES20.glGetUniformLocation(mCubeProgram, "uSTMatrix");
+        mPageAttribs[0] = mCubePositionParam;
+        mPageAttribs[1] = mTextCoordsParam;
 
-        GLES20.glEnableVertexAttribArray(mCubePositionParam);
-        GLES20.glEnableVertexAttribArray(mTextCoordsParam);
+        mGlState.enableVertexAttribArray(mCubePositionParam);
+        mGlState.enableVertexAttribArray(mTextCoordsParam);
         checkGLError("Cube program params");
 
-        int pointerVertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.pointer_vertex);
-        int pointerFragmentShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.pointer_fragment);
-
-        mPointerProgram = GLES20.glCreateProgram();
-
-        GLES20.glAttachShader(mPointerProgram, pointerVertexShader);
-        GLES20.glAttachShader(mPointerProgram, pointerFragmentShader);
-        GLES20.glLinkProgram(mPointerProgram);
-        GLES20.glUseProgram(mPointerProgram);
+        mPointerProgram = mPrograms.getProgram(R.raw.pointer_vertex, R.raw.pointer_fragment);
+        mPlaceholderProgram = mPrograms.getProgram(R.raw.pointer_vertex,
+                R.raw.placeholder_fragment);
+        mHudProgram = mPrograms.getProgram(R.raw.hud_vertex, R.raw.hud_fragment);
+        mSpriteProgram = mPrograms.getProgram(R.raw.sprite_vertex, R.raw.sprite_fragment);
+        // Video is always sampled straight from its external texture, as the page is when it
+        // is not mipmapped.
+        mVideoProgram = mipmapped
+                ? mPrograms.getProgram(R.raw.light_vertex, R.raw.passthrough_fragment)
+                : mCubeProgram;
+        mVideoModelParam = GLES20.glGetUniformLocation(mVideoProgram, "u_Model");
+        mVideoModelViewParam = GLES20.glGetUniformLocation(mVideoProgram, "u_MVMatrix");
+        mVideoModelViewProjectionParam = GLES20.glGetUniformLocation(mVideoProgram, "u_MVP");
+        mVideoSTMatrixParam = GLES20.glGetUniformLocation(mVideoProgram, "uSTMatrix");
+        mVideoAttribs[0] = GLES20.glGetAttribLocation(mVideoProgram, "a_Position");
+        mVideoAttribs[1] = GLES20.glGetAttribLocation(mVideoProgram, "a_TextureCoord");
+        mPrograms.releaseShaders();
+        GlyphAtlas atlas = await(mGlyphAtlas, "glyph atlas");
+        if (atlas == null) {
+            atlas = new GlyphAtlas(TOAST_TEXT_SIZE_PX);
+        }
+        mAtlasTexture = atlas.upload(mGlState);
+        mToast.onSurfaceCreated(mHudProgram, atlas, mAtlasTexture);
+        mChrome.onSurfaceCreated(mGlState, mSpriteProgram, atlas);
+        // The atlas is premultiplied, and so are the chrome's colors.
+        mGlState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        checkGLError("Toast HUD");
+        mPlaceholderModelViewProjectionParam =
+                GLES20.glGetUniformLocation(mPlaceholderProgram, "u_MVP");
+        mPlaceholderAttribs[0] = GLES20.glGetAttribLocation(mPlaceholderProgram, "a_Position");
+        mGlState.enableVertexAttribArray(mPlaceholderAttribs[0]);
         mPointerModelViewProjectionParam = GLES20.glGetUniformLocation(mPointerProgram, "u_MVP");
         checkGLError("Pointer program");
 
         mEyeViewProjectionParam = GLES20.glGetUniformLocation(mPointerProgram, "u_EVP");
         mPointerPositionParam = GLES20.glGetAttribLocation(mPointerProgram, "a_Position");
         checkGLError("Pointer params");
-        checkGLError("Floor program params");
 
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        mGlState.enable(GLES20.GL_DEPTH_TEST);
 
         // Object first appears directly in front of user.
         Matrix.setIdentityM(mModelCube, 0);
         Matrix.translateM(mModelCube, 0, 0, 0, -mObjectDistance);
-        Matrix.setIdentityM(mModelFloor, 0);
-        Matrix.translateM(mModelFloor, 0, 0, -mFloorDepth, 0); // Floor appears below user.
+        mPanelMoved = true;
 
         checkGLError("onSurfaceCreated");
+        // A warm start found every program in the binary cache.
+        Log.i(TAG, String.format(Locale.US, "Surface ready in %.1fms, programs %.1fms (%s start: %d cached, %d compiled)",
+                (System.nanoTime() - surfaceStart) / 1000000.0, mPrograms.getBuildNanos() / 1000000.0,
+                mPrograms.getSourceBuilds() == 0 ? "warm" : "cold", mPrograms.getBinaryHits(),
+                mPrograms.getSourceBuilds()));
+        mStartupTrace.mark(StartupTrace.PHASE_GL_READY);
     }
 
     /**
-     * Converts a raw text file into a string.
-     *
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return The context of the text file, or null in case of error.
+     * @return The result of a startup task, or null if it failed.
      */
-    private String readRawTextFile(int resId) {
-        InputStream inputStream = getResources().openRawResource(resId);
+    private static <T> T await(Future<T> task, String name) {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-            reader.close();
-            return sb.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Building the " + name + " in the background failed", e);
         }
         return null;
     }
@@ -355,24 +715,156 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        long frameStart = System.nanoTime();
+        mFrameMetrics.onFrameStart(frameStart);
+        mGlState.beginFrame();
+        // The distortion pass of the last frame went around the cache.
+        mGlState.invalidate();
+        if (mGlTrace != null && mLastFrameStartNs != 0
+                && frameStart - mLastFrameStartNs > STALL_DUMP_NS) {
+            Log.w(TAG, "Frame stalled for " + (frameStart - mLastFrameStartNs) / 1000000
+                    + "ms, last GL calls:\n" + mGlTrace.dump(128));
+        }
+        if (mLastFrameStartNs != 0) {
+            // Rendering is paced by the swap, so a frame has been queued for display by the
+            // time the next one starts.
+            long latency = Math.min(frameStart - mLastFrameStartNs + SCANOUT_NS,
+                    HeadPosePredictor.MAX_HORIZON_NS);
+            mDisplayLatencyNs += (latency - mDisplayLatencyNs) / 8;
+        }
+        mLastFrameStartNs = frameStart;
+
         // Build the camera matrix and apply it to the ModelView.
         Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
 
+        // Null until the UI thread has created the first tab.
+        BrowserTab tab = mTabs.getActiveTab();
+        if (tab != null && tab != mRenderedTab) {
+            onActiveTabChanged(tab);
+        }
+        if (tab != null && mPageTiles == null && !tab.hasTexture()) {
+            // When the page goes through the mipmap stage this texture is only read by the
+            // copy, which downsamples it, so filter it linearly.
+            tab.createTexture(mGlState,
+                    mMipmapStage != null ? GLES20.GL_LINEAR : GLES20.GL_NEAREST);
+        }
+        mTabs.trimTextures(mGlState);
+        updatePageResolution();
+
         headTransform.getHeadView(mHeadView, 0);
-        getFocusIntersectionVertex(mIntersectionPointerVertex, WorldLayoutData.SQURE_VERTEX, WorldLayoutData.SQUARE_NORMAL);
-        mIntersectionPointerVertices = getPointerCoordinate(mIntersectionPointerVertex);
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(mIntersectionPointerVertices.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder());
-        mFbIntersectionPointerVertices = bbVertices.asFloatBuffer();
+        if (mHeadTrace != null) {
+            mHeadTrace.add(frameStart, mHeadView);
+        }
+        mHeadPredictor.addSample(frameStart, mHeadView);
+        mToastVisible = mToast.onNewFrame(frameStart);
+        mHeadPredictor.predict(mPredictedHeadView, mDisplayLatencyNs);
+        boolean panelMoved = mPanelMoved;
+        if (panelMoved) {
+            mPanelMoved = false;
+            mGazeHits.setPanelModel(mPagePanel, mModelCube);
+        }
+        mVideoVisible = mVideo.onNewFrame(mGlState, frameStart, mDisplayLatencyNs);
+        if (mVideoVisible) {
+            float aspect = mVideo.getAspect();
+            if (panelMoved || aspect != mVideoAspect) {
+                mVideoAspect = aspect;
+                updateVideoModel(aspect);
+                mGazeHits.setPanelModel(mVideoPanel, mModelVideo);
+            }
+            mGazeOnVideo = mGazeHits.hitTest(mPredictedHeadView, mVideoPanel);
+        } else {
+            mGazeOnVideo = false;
+        }
+        mGazeHits.hitTest(mPredictedHeadView, mPagePanel);
+        mGazeHits.getHit(mPagePanel, mIntersectionPointerVertex);
+        mGazeHits.getUv(mPagePanel, mPageUv);
+        // Widgets around the page are hit where the gaze meets the page's plane.
+        mChrome.hitTest(mIntersectionPointerVertex[0], mIntersectionPointerVertex[1],
+                mGazeHits.getDistance(mPagePanel) > 0);
+        mChrome.update(mGlState);
+        mInput.onFrame(mPageUv[0], mPageUv[1], mGazeHits.isHit(mPagePanel), frameStart);
+        GazeMath.getPointerCoordinate(mIntersectionPointerVertices, mIntersectionPointerVertex);
+        mFbIntersectionPointerVertices.clear();
         mFbIntersectionPointerVertices.put(mIntersectionPointerVertices);
         mFbIntersectionPointerVertices.position(0);
 
-        synchronized(this) {
-            mSurface.updateTexImage();
-            mSurface.getTransformMatrix(mSTMatrix);
+        // Only latch when the WebView has produced something new; otherwise keep drawing the
+        // current texture with the current transform matrix.
+        boolean latched = false;
+        if (mPageTiles != null) {
+            Matrix.multiplyMM(mPageModelView, 0, mHeadView, 0, mModelCube, 0);
+            latched = mPageTiles.onNewFrame(mGlState, mPageModelView) > 0;
+        } else if (tab != null) {
+            long latchStart = System.nanoTime();
+            latched = tab.latch();
+            if (latched) {
+                mFrameMetrics.record(FrameMetrics.STAGE_LATCH, System.nanoTime() - latchStart);
+                if (mMipmapStage != null) {
+                    mMipmapStage.copy(mGlState, tab.getTextureId(), tab.getSTMatrix());
+                }
+            }
         }
+        if (latched) {
+            mLatchedFrameCount++;
+            if (mStartupTrace.mark(StartupTrace.PHASE_FIRST_PAGE_PIXEL)) {
+                Log.i(TAG, "Startup trace\n" + mStartupTrace.dump());
+            }
+        } else {
+            mSkippedFrameCount++;
+        }
+
+        // Cardboard binds its framebuffer and sets the viewport of each eye around the cache.
+        // Between the eyes of a frame it only sets the viewport and scissor.
+        mGlState.invalidate();
+        checkFrameGLError("onReadyToDraw");
+        mFrameMetrics.record(FrameMetrics.STAGE_NEW_FRAME, System.nanoTime() - frameStart);
+    }
 
-        checkGLError("onReadyToDraw");
+    /**
+     * Resizes the page capture to what the panel actually covers on screen. The tiled
+     * backend always captures at full resolution.
+     */
+    private void updatePageResolution() {
+        mResolutionController.onNewFrame(System.nanoTime());
+        if (!mResolutionController.update() || mPageTiles != null || mRenderedTab == null) {
+            return;
+        }
+        applyPageResolution(mRenderedTab);
+    }
+
+    /**
+     * Resizes the tab's capture buffer before telling its WebView, so the next capture
+     * already lands in a buffer of the new size.
+     */
+    private void applyPageResolution(BrowserTab tab) {
+        float scale = mResolutionController.getScale();
+        if (tab.hasTexture()) {
+            tab.resizeBuffer(scale);
+        }
+        tab.getWebView().setCaptureScale(scale);
+    }
+
+    /**
+     * Moves the page capture state over to a newly shown tab. The previous tab keeps its
+     * texture, so it can be shown again without a re-raster.
+     */
+    private void onActiveTabChanged(BrowserTab tab) {
+        if (CustomWebView.TILED_CAPTURE) {
+            if (mPageTiles != null) {
+                mPageTiles.release(mGlState);
+                mRenderedTab.getWebView().setTileGrid(null);
+            }
+            mPageTiles = new PageTileGrid(tab.getWebView(), CustomWebView.TEXTURE_WIDTH,
+                    CustomWebView.TEXTURE_HEIGHT, PageTileGrid.DEFAULT_MEMORY_BUDGET_BYTES);
+            tab.getWebView().setTileGrid(mPageTiles);
+        } else if (tab.getWebView().getCaptureScale() != mResolutionController.getScale()) {
+            applyPageResolution(tab);
+        }
+        if (mMipmapStage != null && tab.hasTexture()) {
+            // The tab's texture still holds its last page frame; no new one may come soon.
+            mMipmapStage.copy(mGlState, tab.getTextureId(), tab.getSTMatrix());
+        }
+        mRenderedTab = tab;
     }
 
     /**
@@ -382,9 +874,7 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
      */
     @Override
     public void onDrawEye(Eye eye) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-
-        checkGLError("mColorParam");
+        mGlState.clear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         // Apply the eye transformation to the camera.
         Matrix.multiplyMM(mView, 0, eye.getEyeView(), 0, mCamera, 0);
@@ -394,50 +884,138 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
         Matrix.multiplyMM(mModelView, 0, mView, 0, mModelCube, 0);
         Matrix.multiplyMM(mModelViewProjection, 0, perspective, 0, mModelView, 0);
-        drawCube();
-        drawPointer();
+        Viewport viewport = eye.getViewport();
+        mResolutionController.onDrawEye(mModelViewProjection, viewport.width, viewport.height);
+
+        if (mVideoVisible) {
+            // Shown in place of the page, like a fullscreen video.
+            Matrix.multiplyMM(mVideoModelView, 0, mView, 0, mModelVideo, 0);
+            Matrix.multiplyMM(mVideoModelViewProjection, 0, perspective, 0, mVideoModelView, 0);
+            mRenderQueue.submit(0, mVideoProgram, GL_TEXTURE_EXTERNAL_OES,
+                    mVideo.getTextureId(), mVideoCommand);
+        } else if (mPageTiles != null) {
+            // The tiles bind their own textures.
+            mRenderQueue.submit(0, mCubeProgram, 0, 0, mPageCommand);
+        } else if (mRenderedTab == null || !mRenderedTab.hasFrame()) {
+            mRenderQueue.submit(0, mPlaceholderProgram, 0, 0, mPlaceholderCommand);
+        } else if (mMipmapStage != null) {
+            mRenderQueue.submit(0, mCubeProgram, GLES20.GL_TEXTURE_2D,
+                    mMipmapStage.getTextureId(), mPageCommand);
+        } else {
+            mRenderQueue.submit(0, mCubeProgram, GL_TEXTURE_EXTERNAL_OES,
+                    mRenderedTab.getTextureId(), mPageCommand);
+        }
+        mRenderQueue.submit(0, mPointerProgram, 0, 0, mPointerCommand);
+        if (!mVideoVisible) {
+            // Blended over the opaque layer.
+            mRenderQueue.submit(1, mSpriteProgram, GLES20.GL_TEXTURE_2D, mAtlasTexture,
+                    mChromeCommand);
+        }
+        if (mToastVisible) {
+            // Blended over everything else.
+            mEyeType = eye.getType();
+            mEyeAspect = (float) viewport.width / viewport.height;
+            mRenderQueue.submit(2, mHudProgram, GLES20.GL_TEXTURE_2D, mToast.getTexture(),
+                    mToastCommand);
+        }
+        mRenderQueue.flush(mGlState);
+        // Calls through mGlState are checked as they are made; this catches the rest.
+        checkFrameGLError("onDrawEye");
     }
 
     @Override
     public void onFinishFrame(Viewport viewport) {
+        mStartupTrace.mark(StartupTrace.PHASE_FIRST_FRAME);
+    }
+
+    /**
+     * @return The number of frames in which a new page image was latched into the texture.
+     */
+    public long getLatchedFrameCount() {
+        return mLatchedFrameCount;
     }
 
-    public void drawPointer(){
-        GLES20.glUseProgram(mPointerProgram);
-        GLES20.glVertexAttribPointer(mPointerPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, mFbIntersectionPointerVertices);
+    /**
+     * @return The number of frames that reused the previously latched page image.
+     */
+    public long getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    /**
+     * Draw the pointer. The pointer program is bound already.
+     */
+    public void drawPointer(GLStateCache state) {
+        state.vertexAttribPointer(mPointerPositionParam, COORDS_PER_VERTEX, 0,
+                mFbIntersectionPointerVertices);
 
-        GLES20.glUniformMatrix4fv(mPointerModelViewProjectionParam, 1, false, mModelViewProjection, 0);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        checkGLError("Drawing pointer");
+        state.uniformMatrix4fv(mPointerModelViewProjectionParam, mModelViewProjection, 0);
+        state.drawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    /**
+     * Draw the page quad in a flat color, while there is no page frame to show yet.
+     */
+    private void drawPlaceholder(GLStateCache state) {
+        mMeshes.bind(state, mPageMesh, mPlaceholderAttribs);
+        state.uniformMatrix4fv(mPlaceholderModelViewProjectionParam, mModelViewProjection, 0);
+        mMeshes.draw(state, mPageMesh);
     }
 
     /**
      * Draw the cube.
      *
      * We've set all of our transformation matrices. Now we simply pass them into the shader.
+     * The cube program and the page texture are bound already.
      */
-    public void drawCube() {
-        GLES20.glUseProgram(mCubeProgram);
-
+    public void drawCube(GLStateCache state) {
         // Set the Model in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(mCubeModelParam, 1, false, mModelCube, 0);
+        state.uniformMatrix4fv(mCubeModelParam, mModelCube, 0);
 
         // Set the ModelView in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(mCubeModelViewParam, 1, false, mModelView, 0);
+        state.uniformMatrix4fv(mCubeModelViewParam, mModelView, 0);
 
-        // Set the position of the cube
-        GLES20.glVertexAttribPointer(mCubePositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, mCubeVertices);
+        // Set the position and texture coordinates of the cube
+        mMeshes.bind(state, mPageMesh, mPageAttribs);
 
-        GLES20.glVertexAttribPointer(mTextCoordsParam, 2, GLES20.GL_FLOAT,
-                false, 0, mTextCoords);
+        if (mPageTiles != null) {
+            // Each tile is the same quad scaled onto its part of the page.
+            mPageTiles.draw(state, mModelViewProjection, mCubeModelViewProjectionParam,
+                    muSTMatrixHandle, mTileModelViewProjection);
+            return;
+        }
 
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mCubeModelViewProjectionParam, 1, false, mModelViewProjection, 0);
-        GLES20.glUniformMatrix4fv(muSTMatrixHandle, 1, false, mSTMatrix, 0);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        checkGLError("Drawing cube");
+        state.uniformMatrix4fv(mCubeModelViewProjectionParam, mModelViewProjection, 0);
+        // The mipmap copy already applied the texture transform.
+        state.uniformMatrix4fv(muSTMatrixHandle,
+                mMipmapStage != null ? mIdentityMatrix : mRenderedTab.getSTMatrix(), 0);
+        mMeshes.draw(state, mPageMesh);
+    }
+
+    /**
+     * Draw the video panel. The video program and texture are bound already.
+     */
+    private void drawVideo(GLStateCache state) {
+        state.uniformMatrix4fv(mVideoModelParam, mModelVideo, 0);
+        state.uniformMatrix4fv(mVideoModelViewParam, mVideoModelView, 0);
+        state.uniformMatrix4fv(mVideoModelViewProjectionParam, mVideoModelViewProjection, 0);
+        state.uniformMatrix4fv(mVideoSTMatrixParam, mVideo.getSTMatrix(), 0);
+        mMeshes.bind(state, mPageMesh, mVideoAttribs);
+        mMeshes.draw(state, mPageMesh);
+    }
+
+    /**
+     * Fits a quad of the video's aspect into the page panel, slightly in front of it.
+     */
+    private void updateVideoModel(float aspect) {
+        System.arraycopy(mModelCube, 0, mModelVideo, 0, 16);
+        Matrix.translateM(mModelVideo, 0, 0, 0, 0.01f);
+        if (aspect >= 1) {
+            Matrix.scaleM(mModelVideo, 0, 1, 1 / aspect, 1);
+        } else {
+            Matrix.scaleM(mModelVideo, 0, aspect, 1, 1);
+        }
     }
 
     /**
@@ -446,13 +1024,45 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onCardboardTrigger() {
         Log.i(TAG, "onCardboardTrigger");
-        performWebviewClick();
+        if (onVideoTrigger()) {
+            return;
+        }
+        mInput.click();
+    }
+
+    /**
+     * While a video plays, the trigger pauses it when looking at it and closes it otherwise.
+     *
+     * @return Whether the trigger went to the video.
+     */
+    private boolean onVideoTrigger() {
+        if (!mVideo.isOpen()) {
+            return false;
+        }
+        if (mGazeOnVideo) {
+            mVideo.togglePause();
+        } else {
+            mVideo.close();
+        }
+        return true;
     }
 
+    /**
+     * A touch on the screen holds the trigger down, so that moving the head drags the page.
+     */
     @Override
     public boolean onTouchEvent(MotionEvent me) {
-        Log.i(TAG, "onCardboardTrigger");
-        performWebviewClick();
+        switch (me.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                if (!onVideoTrigger()) {
+                    mInput.press();
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mInput.release();
+                break;
+        }
         return true;
     }
 
@@ -462,92 +1072,50 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
      * We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
      */
     private void hideObject() {
-        float[] rotationMatrix = new float[16];
-        float[] posVec = new float[4];
-
         // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
         // the object's distance from the user.
         float angleXZ = (float) Math.random() * 180 + 90;
-        Matrix.setRotateM(rotationMatrix, 0, angleXZ, 0f, 1f, 0f);
         float oldObjectDistance = mObjectDistance;
         mObjectDistance = (float) Math.random() * 15 + 5;
-        float objectScalingFactor = mObjectDistance / oldObjectDistance;
-        Matrix.scaleM(rotationMatrix, 0, objectScalingFactor, objectScalingFactor,
-                objectScalingFactor);
-        Matrix.multiplyMV(posVec, 0, rotationMatrix, 0, mModelCube, 12);
 
         // Now get the up or down angle, between -20 and 20 degrees.
         float angleY = (float) Math.random() * 80 - 40; // Angle in Y plane, between -40 and 40.
-        angleY = (float) Math.toRadians(angleY);
-        float newY = (float) Math.tan(angleY) * mObjectDistance;
-
-        Matrix.setIdentityM(mModelCube, 0);
-        Matrix.translateM(mModelCube, 0, posVec[0], newY, posVec[2]);
-    }
-
-    private float[]  getPointerCoordinate(float[] v){
-        float s = 0.005f;
-        float lx = v[0] - s;
-        float rx = v[0] + s;
-        float by = v[1] - s;
-        float ty = v[1] + s;
-        float z = v[2] + 0.05f;
-
-        return new float[]{
-                lx, by, z,
-                rx, by, z,
-                lx, ty, z,
-                rx, ty, z
-        };
+        mPanelMath.movePanel(mModelCube, oldObjectDistance, mObjectDistance, angleXZ, angleY);
+        mPanelMoved = true;
     }
 
-    private void getFocusIntersectionVertex(float[] intersectionVertex, float[] planeVertex, float[] normalVector){
-
-        float[] cPlaneVertex = new float[4];
-        float[] cNormalVector = new float[4];
-
-        Matrix.multiplyMM(mModelView, 0, mHeadView, 0, mModelCube, 0);
-        Matrix.multiplyMV(cPlaneVertex, 0, mModelView, 0, planeVertex, 0);
-        Matrix.multiplyMV(cNormalVector, 0, mModelView, 0, normalVector, 0);
-
-        float t = (cNormalVector[0] * cPlaneVertex[0] + cNormalVector[1] * cPlaneVertex[1]) / cNormalVector[2] + cPlaneVertex[2];
-        float[] cIntersectionVertex = new float[]{0, 0, t, 1.0f};
-
-        float[] invertedModelView = new float[16];
-        Matrix.invertM(invertedModelView, 0, mModelView, 0);
-        Matrix.multiplyMV(intersectionVertex,0, invertedModelView, 0, cIntersectionVertex, 0);
+    /**
+     * @return How often the page went through the mipmap stage and what a copy costs, as
+     * another dump line, or nothing without the stage.
+     */
+    private String dumpMipmapCopies() {
+        PageMipmapStage stage = mMipmapStage;
+        if (stage == null) {
+            return "";
+        }
+        return "\nMipmap copies: n=" + stage.getCopyCount()
+                + " avg=" + stage.getAverageCopyNanos() / 1000 + "us";
     }
 
     /**
-     * Check if user is looking at object by calculating where the object is in eye-space.
-     *
-     * @return true if the user is looking at the object.
+     * Writes the recorded head views where adb can pull them, for HeadPosePredictorTest.
      */
-    private void performWebviewClick() {
-        float x = (mIntersectionPointerVertex[0] + 1.0f) * 500.0f * 3;
-        float y = (-mIntersectionPointerVertex[1] + 1.0f) * 500.0f * 3;
-        long downTime = SystemClock.uptimeMillis();
-        long eventTime = SystemClock.uptimeMillis() + 10;
-
-        int metaState = 0;
-        MotionEvent motionEventDown = MotionEvent.obtain(
-                downTime,
-                eventTime,
-                MotionEvent.ACTION_DOWN,
-                x,
-                y,
-                metaState
-        );
-
-        MotionEvent motionEventUp = MotionEvent.obtain(
-                downTime,
-                eventTime,
-                MotionEvent.ACTION_UP,
-                x,
-                y,
-                metaState
-        );
-        mMyWebView.dispatchTouchEvent(motionEventDown);
-        mMyWebView.dispatchTouchEvent(motionEventUp);
+    private void writeHeadTrace() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            return;
+        }
+        File file = new File(dir, "head_trace.txt");
+        try {
+            Writer out = new FileWriter(file);
+            try {
+                mHeadTrace.write(out);
+            } finally {
+                out.close();
+            }
+            Log.i(TAG, "Head trace of " + mHeadTrace.size() + " frames written to " + file);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the head trace", e);
+        }
     }
 }
@@ -0,0 +1,137 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import java.util.Arrays;
+
+/**
+ * Packs vertex attributes into one interleaved array, plus optional 16 bit indices, ready
+ * to be uploaded once by a {@link MeshStore}.
+ *
+ * The vertex format is a list of float attribute sizes, for example 3 and 2 for a position
+ * followed by a texture coordinate. Vertices are added either one at a time or from one
+ * planar array per attribute.
+ */
+class MeshBuilder {
+
+    /**
+     * The CPU side of a mesh, as produced by {@link MeshBuilder#build()}.
+     */
+    static final class Mesh {
+        final int mode;
+        final int[] attributeSizes;
+        // Floats per vertex.
+        final int stride;
+        final float[] vertices;
+        // Null if the mesh is drawn with glDrawArrays.
+        final short[] indices;
+
+        Mesh(int mode, int[] attributeSizes, int stride, float[] vertices, short[] indices) {
+            this.mode = mode;
+            this.attributeSizes = attributeSizes;
+            this.stride = stride;
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+
+        int getVertexCount() {
+            return vertices.length / stride;
+        }
+    }
+
+    private final int mMode;
+    private final int[] mAttributeSizes;
+    private final int mStride;
+    private float[] mVertices = new float[64];
+    private int mFloatCount;
+    private short[] mIndices;
+    private int mIndexCount;
+
+    /**
+     * @param mode The primitive the mesh is drawn as, such as GL_TRIANGLES.
+     * @param attributeSizes The number of floats of each attribute, in the order they are
+     *        interleaved.
+     */
+    MeshBuilder(int mode, int... attributeSizes) {
+        mMode = mode;
+        mAttributeSizes = attributeSizes.clone();
+        int stride = 0;
+        for (int size : attributeSizes) {
+            stride += size;
+        }
+        mStride = stride;
+    }
+
+    /**
+     * @return The index the next added vertex gets.
+     */
+    int getVertexCount() {
+        return mFloatCount / mStride;
+    }
+
+    /**
+     * Adds one vertex with all of its attributes, in format order.
+     */
+    MeshBuilder vertex(float... values) {
+        if (values.length != mStride) {
+            throw new IllegalArgumentException("Expected " + mStride + " floats per vertex");
+        }
+        ensureFloats(mStride);
+        System.arraycopy(values, 0, mVertices, mFloatCount, mStride);
+        mFloatCount += mStride;
+        return this;
+    }
+
+    /**
+     * Adds the vertices given as one array per attribute, and interleaves them.
+     */
+    MeshBuilder vertices(float[]... attributes) {
+        if (attributes.length != mAttributeSizes.length) {
+            throw new IllegalArgumentException("Expected " + mAttributeSizes.length + " attributes");
+        }
+        int count = attributes[0].length / mAttributeSizes[0];
+        for (int a = 0; a < attributes.length; a++) {
+            if (attributes[a].length != count * mAttributeSizes[a]) {
+                throw new IllegalArgumentException("Attribute " + a + " has the wrong length");
+            }
+        }
+        ensureFloats(count * mStride);
+        for (int v = 0; v < count; v++) {
+            for (int a = 0; a < attributes.length; a++) {
+                int size = mAttributeSizes[a];
+                System.arraycopy(attributes[a], v * size, mVertices, mFloatCount, size);
+                mFloatCount += size;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds indices into the vertices added so far. A mesh with indices is drawn with
+     * glDrawElements.
+     */
+    MeshBuilder indices(int... indices) {
+        if (mIndices == null) {
+            mIndices = new short[Math.max(16, indices.length)];
+        } else if (mIndexCount + indices.length > mIndices.length) {
+            mIndices = Arrays.copyOf(mIndices, Math.max(mIndices.length * 2,
+                    mIndexCount + indices.length));
+        }
+        for (int index : indices) {
+            if (index < 0 || index > 0xffff) {
+                throw new IllegalArgumentException("Index out of 16 bit range: " + index);
+            }
+            mIndices[mIndexCount++] = (short) index;
+        }
+        return this;
+    }
+
+    Mesh build() {
+        return new Mesh(mMode, mAttributeSizes, mStride, Arrays.copyOf(mVertices, mFloatCount),
+                mIndices != null ? Arrays.copyOf(mIndices, mIndexCount) : null);
+    }
+
+    private void ensureFloats(int extra) {
+        if (mFloatCount + extra > mVertices.length) {
+            mVertices = Arrays.copyOf(mVertices, Math.max(mVertices.length * 2, mFloatCount + extra));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Owns the vertex and index buffer objects of static meshes.
+ *
+ * Meshes are uploaded once, usually in onSurfaceCreated, and referred to by the handle
+ * {@link #upload} returns from then on. Drawing one is a buffer bind and an attribute
+ * pointer per attribute, both of which the state cache skips when they are bound already;
+ * no vertex data crosses into the driver per draw. Must be used on the GL thread.
+ */
+class MeshStore {
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int BYTES_PER_SHORT = 2;
+    private static final int MAX_MESHES = 16;
+
+    private final int[] mVertexBuffers = new int[MAX_MESHES];
+    private final int[] mIndexBuffers = new int[MAX_MESHES];
+    private final int[] mModes = new int[MAX_MESHES];
+    private final int[] mCounts = new int[MAX_MESHES];
+    private final int[][] mAttributeSizes = new int[MAX_MESHES][];
+    private final int[] mStrides = new int[MAX_MESHES];
+    private int mMeshCount;
+
+    /**
+     * Uploads a mesh into new buffer objects.
+     *
+     * @return The handle of the mesh.
+     */
+    int upload(GLStateCache state, MeshBuilder.Mesh mesh) {
+        if (mMeshCount == MAX_MESHES) {
+            throw new IllegalStateException("No room for more than " + MAX_MESHES + " meshes");
+        }
+        int handle = mMeshCount++;
+        FloatBuffer vertices = ByteBuffer.allocateDirect(mesh.vertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertices.put(mesh.vertices).position(0);
+        int vertexBuffer = state.genBuffer();
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer);
+        state.bufferData(GLES20.GL_ARRAY_BUFFER, mesh.vertices.length * BYTES_PER_FLOAT,
+                vertices, GLES20.GL_STATIC_DRAW);
+        mVertexBuffers[handle] = vertexBuffer;
+
+        if (mesh.indices != null) {
+            ShortBuffer indices = ByteBuffer.allocateDirect(mesh.indices.length * BYTES_PER_SHORT)
+                    .order(ByteOrder.nativeOrder()).asShortBuffer();
+            indices.put(mesh.indices).position(0);
+            int indexBuffer = state.genBuffer();
+            state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+            state.bufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+                    mesh.indices.length * BYTES_PER_SHORT, indices, GLES20.GL_STATIC_DRAW);
+            mIndexBuffers[handle] = indexBuffer;
+            mCounts[handle] = mesh.indices.length;
+        } else {
+            mIndexBuffers[handle] = 0;
+            mCounts[handle] = mesh.getVertexCount();
+        }
+        mModes[handle] = mesh.mode;
+        mAttributeSizes[handle] = mesh.attributeSizes;
+        mStrides[handle] = mesh.stride * BYTES_PER_FLOAT;
+        return handle;
+    }
+
+    /**
+     * Points the given attribute locations at the mesh's buffer.
+     *
+     * @param locations One attribute location per attribute of the mesh's vertex format, in
+     *        format order; -1 skips an attribute the program does not use.
+     */
+    void bind(GLStateCache state, int handle, int[] locations) {
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBuffers[handle]);
+        int[] sizes = mAttributeSizes[handle];
+        int offset = 0;
+        for (int a = 0; a < sizes.length; a++) {
+            if (a < locations.length && locations[a] >= 0) {
+                state.vertexAttribPointer(locations[a], sizes[a], mStrides[handle], offset);
+            }
+            offset += sizes[a] * BYTES_PER_FLOAT;
+        }
+        if (mIndexBuffers[handle] != 0) {
+            state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBuffers[handle]);
+        }
+    }
+
+    /**
+     * Draws the whole mesh. {@link #bind} must have been called for it.
+     */
+    void draw(GLStateCache state, int handle) {
+        if (mIndexBuffers[handle] != 0) {
+            state.drawElements(mModes[handle], mCounts[handle], GLES20.GL_UNSIGNED_SHORT, 0);
+        } else {
+            state.drawArrays(mModes[handle], 0, mCounts[handle]);
+        }
+    }
+
+    /**
+     * Forgets every mesh after the GL context that held the buffers was lost.
+     */
+    void abandon() {
+        mMeshCount = 0;
+    }
+}
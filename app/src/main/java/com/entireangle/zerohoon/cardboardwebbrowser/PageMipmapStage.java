@@ -0,0 +1,125 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Copies the external page texture into a mipmapped GL_TEXTURE_2D so the page can be sampled
+ * trilinearly. External textures cannot have mipmaps, so a minified page otherwise shimmers.
+ *
+ * The copy goes through a framebuffer object and only runs when a new page frame has been
+ * latched. Its CPU submission time is tracked so it can be weighed against the sampling
+ * savings; GLES 2.0 has no timer queries, so the GPU side of the copy shows up in the frame
+ * time instead.
+ *
+ * The copy runs before the eyes are drawn, and Cardboard binds the framebuffer and sets the
+ * viewport of each eye itself, so the copy leaves the default framebuffer bound and does not
+ * read back or restore any state.
+ */
+class PageMipmapStage {
+
+    private static final String TAG = "PageMipmapStage";
+    // glGenerateMipmap needs power of two sizes on GLES 2.0.
+    public static final int TEXTURE_SIZE = 2048;
+
+    private final int mCopyProgram;
+    private final int mPositionParam;
+    private final int mTextureCoordParam;
+    private final int mSTMatrixParam;
+    private final MeshStore mMeshes;
+    private final int mQuadMesh;
+    private final int[] mQuadAttribs = new int[2];
+    private final int mTextureId;
+    private final int mFramebufferId;
+
+    // Written on the GL thread, read for dumps.
+    private volatile long mCopyCount;
+    private volatile long mCopyNanos;
+
+    /**
+     * @param copyProgram A linked program of copy_vertex and passthrough_fragment.
+     * @param quadMesh The handle of the page quad in meshes.
+     */
+    PageMipmapStage(GLStateCache state, int copyProgram, MeshStore meshes, int quadMesh) {
+        mCopyProgram = copyProgram;
+        mPositionParam = GLES20.glGetAttribLocation(copyProgram, "a_Position");
+        mTextureCoordParam = GLES20.glGetAttribLocation(copyProgram, "a_TextureCoord");
+        mSTMatrixParam = GLES20.glGetUniformLocation(copyProgram, "uSTMatrix");
+
+        mMeshes = meshes;
+        mQuadMesh = quadMesh;
+        mQuadAttribs[0] = mPositionParam;
+        mQuadAttribs[1] = mTextureCoordParam;
+
+        mTextureId = state.genTexture();
+        state.bindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        state.texImage2D(GLES20.GL_TEXTURE_2D, GLES20.GL_RGBA, TEXTURE_SIZE, TEXTURE_SIZE, null);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR_MIPMAP_LINEAR);
+        state.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        state.generateMipmap(GLES20.GL_TEXTURE_2D);
+
+        mFramebufferId = state.genFramebuffer();
+        state.bindFramebuffer(mFramebufferId);
+        state.framebufferTexture2D(mTextureId);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        state.bindFramebuffer(0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Incomplete framebuffer: " + status);
+            throw new RuntimeException("Error creating mipmap framebuffer.");
+        }
+    }
+
+    /**
+     * @return The mipmapped GL_TEXTURE_2D holding the last copied page frame.
+     */
+    int getTextureId() {
+        return mTextureId;
+    }
+
+    /**
+     * @return How many page frames have been copied since the stage was created.
+     */
+    long getCopyCount() {
+        return mCopyCount;
+    }
+
+    /**
+     * @return The average CPU time spent submitting a copy, in nanoseconds.
+     */
+    long getAverageCopyNanos() {
+        return mCopyCount == 0 ? 0 : mCopyNanos / mCopyCount;
+    }
+
+    /**
+     * Copies the latched external texture into level 0 and rebuilds the mipmap chain.
+     * Must run on the GL thread, after updateTexImage.
+     */
+    void copy(GLStateCache state, int externalTextureId, float[] stMatrix) {
+        long start = System.nanoTime();
+        state.bindFramebuffer(mFramebufferId);
+        state.viewport(0, 0, TEXTURE_SIZE, TEXTURE_SIZE);
+        state.disable(GLES20.GL_DEPTH_TEST);
+
+        state.useProgram(mCopyProgram);
+        state.bindTexture(MainActivity.GL_TEXTURE_EXTERNAL_OES, externalTextureId);
+        state.enableVertexAttribArray(mPositionParam);
+        state.enableVertexAttribArray(mTextureCoordParam);
+        mMeshes.bind(state, mQuadMesh, mQuadAttribs);
+        state.uniformMatrix4fv(mSTMatrixParam, stMatrix, 0);
+        mMeshes.draw(state, mQuadMesh);
+
+        state.bindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        state.generateMipmap(GLES20.GL_TEXTURE_2D);
+
+        state.enable(GLES20.GL_DEPTH_TEST);
+        state.bindFramebuffer(0);
+        mCopyNanos += System.nanoTime() - start;
+        mCopyCount++;
+    }
+}
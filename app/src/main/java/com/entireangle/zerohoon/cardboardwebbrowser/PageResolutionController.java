@@ -0,0 +1,142 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.opengl.Matrix;
+
+/**
+ * Picks the resolution of the captured page from how many pixels the panel covers on screen
+ * and how well the renderer is keeping up.
+ *
+ * The result is a scale in (0, 1] relative to the full page size. Changes are only reported
+ * after the target has stayed outside the hysteresis band for a while, so the page is not
+ * re-rasterized every time the head moves a little.
+ */
+class PageResolutionController {
+
+    public static final float MIN_SCALE = 0.25f;
+    public static final float MAX_SCALE = 1.0f;
+    // Render a bit above the projected footprint to keep text sharp when magnified.
+    private static final float OVERSAMPLE = 1.25f;
+    // Relative change needed before the scale is moved.
+    private static final float HYSTERESIS = 0.15f;
+    // Frames the target must stay outside the band before the scale follows it.
+    private static final int SETTLE_FRAMES = 45;
+    private static final long FRAME_BUDGET_NS = 1000000000L / 60;
+    // Weight of the newest frame interval in the running average.
+    private static final float FRAME_TIME_ALPHA = 0.1f;
+
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final float[] mCorner = new float[4];
+    private final float[] mClip = new float[4];
+
+    private float mScale = MAX_SCALE;
+    private float mFootprintScale;
+    // Whether either eye saw the panel since the last update.
+    private boolean mPanelSeen;
+    private float mLoadFactor = 1.0f;
+    private float mAverageFrameNs = FRAME_BUDGET_NS;
+    private long mLastFrameNs;
+    private int mFramesOutsideBand;
+
+    PageResolutionController(int pageWidth, int pageHeight) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+    }
+
+    /**
+     * @return The current page scale, relative to the full page size.
+     */
+    float getScale() {
+        return mScale;
+    }
+
+    /**
+     * Accounts the time since the previous frame. Call once at the start of every frame.
+     */
+    void onNewFrame(long nowNs) {
+        if (mLastFrameNs != 0) {
+            long frameNs = nowNs - mLastFrameNs;
+            mAverageFrameNs += (frameNs - mAverageFrameNs) * FRAME_TIME_ALPHA;
+        }
+        mLastFrameNs = nowNs;
+    }
+
+    /**
+     * Accumulates the page footprint for one eye.
+     *
+     * @param modelViewProjection The page quad's model-view-projection matrix for this eye.
+     * @param viewportWidth Width of the eye viewport in pixels.
+     * @param viewportHeight Height of the eye viewport in pixels.
+     */
+    void onDrawEye(float[] modelViewProjection, int viewportWidth, int viewportHeight) {
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        int behind = 0;
+        for (int i = 0; i < 4; i++) {
+            mCorner[0] = (i & 1) == 0 ? -1.0f : 1.0f;
+            mCorner[1] = (i & 2) == 0 ? -1.0f : 1.0f;
+            mCorner[2] = 0;
+            mCorner[3] = 1.0f;
+            Matrix.multiplyMV(mClip, 0, modelViewProjection, 0, mCorner, 0);
+            if (mClip[3] <= 0) {
+                behind++;
+                continue;
+            }
+            float x = (mClip[0] / mClip[3] + 1.0f) * 0.5f * viewportWidth;
+            float y = (mClip[1] / mClip[3] + 1.0f) * 0.5f * viewportHeight;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        if (behind == 4 || behind == 0 && (maxX < 0 || minX > viewportWidth || maxY < 0
+                || minY > viewportHeight)) {
+            // The panel is out of sight for this eye.
+            return;
+        }
+        mPanelSeen = true;
+        if (behind > 0) {
+            // Part of the panel is behind the eye; its footprint is unbounded.
+            mFootprintScale = MAX_SCALE;
+            return;
+        }
+        float scale = Math.max((maxX - minX) / mPageWidth, (maxY - minY) / mPageHeight);
+        mFootprintScale = Math.max(mFootprintScale, scale);
+    }
+
+    /**
+     * Folds the footprint of the last frame and the frame time into a new target scale.
+     * Frames in which neither eye saw the panel leave the scale as it is, so looking away
+     * does not lower it to the minimum for when the page comes back into view.
+     *
+     * @return true if the scale changed and the page should be re-captured at it.
+     */
+    boolean update() {
+        if (mAverageFrameNs > FRAME_BUDGET_NS * 1.1f) {
+            mLoadFactor = Math.max(MIN_SCALE, mLoadFactor * 0.99f);
+        } else if (mAverageFrameNs < FRAME_BUDGET_NS * 0.9f) {
+            mLoadFactor = Math.min(1.0f, mLoadFactor * 1.01f);
+        }
+        if (!mPanelSeen) {
+            return false;
+        }
+        float target = clamp(mFootprintScale * OVERSAMPLE * mLoadFactor);
+        mFootprintScale = 0;
+        mPanelSeen = false;
+
+        if (Math.abs(target - mScale) <= mScale * HYSTERESIS) {
+            mFramesOutsideBand = 0;
+            return false;
+        }
+        if (++mFramesOutsideBand < SETTLE_FRAMES) {
+            return false;
+        }
+        mFramesOutsideBand = 0;
+        mScale = target;
+        return true;
+    }
+
+    private static float clamp(float scale) {
+        return Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale));
+    }
+}
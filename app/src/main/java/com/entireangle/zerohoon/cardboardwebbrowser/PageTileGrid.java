@@ -0,0 +1,344 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits the web page into fixed-size tiles, each backed by its own SurfaceTexture.
+ *
+ * The UI thread rasterizes only the tiles that intersect the dirty region (see
+ * {@link CustomWebView}). The page is drawn once per capture, into a Picture, which is then
+ * replayed into each of those tiles clipped to it; drawing the page itself per tile would run
+ * the page's whole raster once per tile. The GL thread latches only the tiles that received a
+ * new frame, and tiles that are out of sight are evicted when the resident textures go over
+ * the memory budget. An evicted tile is recreated and re-rasterized once it comes back into view.
+ *
+ * As with {@link BrowserTab}, the GL thread hands a tile's surface to the UI thread and takes
+ * it back through posts to the UI thread, so it never waits for a capture in progress.
+ */
+class PageTileGrid {
+
+    private static final String TAG = "PageTileGrid";
+    public static final int TILE_SIZE = 512;
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 24L * 1024 * 1024;
+    // Each tile's BufferQueue holds at least a front and a back buffer.
+    private static final int BUFFERS_PER_TILE = 2;
+    private static final int BYTES_PER_PIXEL = 4;
+    // Tan of the half field of view used to decide whether a tile is on screen, with some margin.
+    private static final float VISIBLE_TAN = 1.5f;
+
+    /**
+     * One tile of the page. The texture side belongs to the GL thread, the surface the page is
+     * drawn into to the UI thread.
+     */
+    static class Tile implements SurfaceTexture.OnFrameAvailableListener {
+        final Rect bounds;
+        // Maps the unit page quad onto the part of it covered by this tile.
+        final float[] localMatrix = new float[16];
+        final float[] stMatrix = new float[16];
+        final AtomicBoolean frameAvailable = new AtomicBoolean();
+        // GL thread.
+        int textureId;
+        SurfaceTexture surfaceTexture;
+        // UI thread.
+        Surface surface;
+        // Set when the tile surface is new and must be rasterized as a whole. UI thread.
+        boolean needsRaster;
+        // True once a frame has been latched, so there is something to draw. GL thread.
+        boolean hasContent;
+        boolean visible;
+        long lastVisibleFrame;
+
+        Tile(Rect bounds, int pageWidth, int pageHeight) {
+            this.bounds = bounds;
+            float cx = (float) (bounds.left + bounds.right) / pageWidth - 1.0f;
+            float cy = 1.0f - (float) (bounds.top + bounds.bottom) / pageHeight;
+            Matrix.setIdentityM(localMatrix, 0);
+            Matrix.translateM(localMatrix, 0, cx, cy, 0);
+            Matrix.scaleM(localMatrix, 0, (float) bounds.width() / pageWidth,
+                    (float) bounds.height() / pageHeight, 1.0f);
+            Matrix.setIdentityM(stMatrix, 0);
+        }
+
+        long sizeInBytes() {
+            return (long) bounds.width() * bounds.height() * BYTES_PER_PIXEL * BUFFERS_PER_TILE;
+        }
+
+        @Override
+        public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+            frameAvailable.set(true);
+        }
+    }
+
+    private final Tile[] mTiles;
+    private final View mPageView;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    // The page as of the last capture, replayed into each tile. UI thread.
+    private final Picture mPicture = new Picture();
+    private final long mMemoryBudgetBytes;
+    private long mResidentBytes;
+    private long mFrame;
+    private final float[] mCorner = new float[4];
+    private final float[] mEyeCorner = new float[4];
+    private final Rect mTileDirty = new Rect();
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param pageView The view rendering the page, invalidated when a tile needs content.
+     * @param pageWidth Width of the page in pixels.
+     * @param pageHeight Height of the page in pixels.
+     * @param memoryBudgetBytes Resident tile memory above which invisible tiles are evicted.
+     */
+    PageTileGrid(View pageView, int pageWidth, int pageHeight, long memoryBudgetBytes) {
+        mPageView = pageView;
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mMemoryBudgetBytes = memoryBudgetBytes;
+        int cols = (pageWidth + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (pageHeight + TILE_SIZE - 1) / TILE_SIZE;
+        mTiles = new Tile[cols * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                Rect bounds = new Rect(col * TILE_SIZE, row * TILE_SIZE,
+                        Math.min((col + 1) * TILE_SIZE, pageWidth),
+                        Math.min((row + 1) * TILE_SIZE, pageHeight));
+                mTiles[row * cols + col] = new Tile(bounds, pageWidth, pageHeight);
+            }
+        }
+    }
+
+    /**
+     * Updates tile visibility, creates textures for tiles that came into view, latches new
+     * tile frames and evicts invisible tiles over the memory budget. Must run on the GL thread.
+     *
+     * @param headModelView The page quad's model matrix in head space.
+     * @return The number of tiles latched in this frame.
+     */
+    int onNewFrame(GLStateCache state, float[] headModelView) {
+        mFrame++;
+        int latched = 0;
+        for (Tile tile : mTiles) {
+            tile.visible = isVisible(tile, headModelView);
+            if (tile.visible) {
+                tile.lastVisibleFrame = mFrame;
+                if (tile.surfaceTexture == null) {
+                    createTileSurface(state, tile);
+                }
+            }
+            if (tile.surfaceTexture != null && tile.frameAvailable.getAndSet(false)) {
+                tile.surfaceTexture.updateTexImage();
+                tile.surfaceTexture.getTransformMatrix(tile.stMatrix);
+                tile.hasContent = true;
+                latched++;
+            }
+        }
+        evictOverBudget(state);
+        return latched;
+    }
+
+    /**
+     * Draws all resident tiles with the currently bound program.
+     */
+    void draw(GLStateCache state, float[] modelViewProjection, int mvpParam, int stMatrixParam,
+            float[] scratch) {
+        for (Tile tile : mTiles) {
+            if (!tile.visible || !tile.hasContent) {
+                continue;
+            }
+            state.bindTexture(MainActivity.GL_TEXTURE_EXTERNAL_OES, tile.textureId);
+            Matrix.multiplyMM(scratch, 0, modelViewProjection, 0, tile.localMatrix, 0);
+            state.uniformMatrix4fv(mvpParam, scratch, 0);
+            state.uniformMatrix4fv(stMatrixParam, tile.stMatrix, 0);
+            state.drawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        }
+    }
+
+    /**
+     * Rasterizes the tiles touched by the dirty region, or all resident tiles when dirty is
+     * null. Must run on the UI thread.
+     *
+     * @param metrics Receives the recording of the page as the raster stage and the tiles'
+     * rasters as the replay stage, when not null.
+     */
+    void capture(CustomWebView view, Rect dirty, FrameMetrics metrics) {
+        boolean anyTile = false;
+        for (Tile tile : mTiles) {
+            if (getTileDirty(tile, dirty)) {
+                anyTile = true;
+                break;
+            }
+        }
+        if (!anyTile) {
+            return;
+        }
+        long start = System.nanoTime();
+        Canvas recording = mPicture.beginRecording(mPageWidth, mPageHeight);
+        view.drawPage(recording);
+        mPicture.endRecording();
+        long recorded = System.nanoTime();
+
+        for (Tile tile : mTiles) {
+            if (!getTileDirty(tile, dirty)) {
+                continue;
+            }
+            try {
+                Canvas canvas = tile.surface.lockCanvas(mTileDirty);
+                canvas.translate(-tile.bounds.left, -tile.bounds.top);
+                mPicture.draw(canvas);
+                tile.surface.unlockCanvasAndPost(canvas);
+                tile.needsRaster = false;
+            } catch (Surface.OutOfResourcesException e) {
+                Log.w(TAG, "Could not lock tile surface", e);
+            }
+        }
+        if (metrics != null) {
+            metrics.record(FrameMetrics.STAGE_CAPTURE_RASTER, recorded - start);
+            metrics.record(FrameMetrics.STAGE_CAPTURE_REPLAY, System.nanoTime() - recorded);
+        }
+    }
+
+    /**
+     * Sets mTileDirty to the part of the tile to rasterize, in tile coordinates. UI thread.
+     *
+     * @return Whether any of the tile is to be rasterized.
+     */
+    private boolean getTileDirty(Tile tile, Rect dirty) {
+        if (tile.surface == null) {
+            return false;
+        }
+        if (tile.needsRaster || dirty == null) {
+            mTileDirty.set(0, 0, tile.bounds.width(), tile.bounds.height());
+            return true;
+        }
+        if (mTileDirty.setIntersect(dirty, tile.bounds)) {
+            mTileDirty.offset(-tile.bounds.left, -tile.bounds.top);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases every tile. Must run on the GL thread.
+     */
+    void release(GLStateCache state) {
+        for (Tile tile : mTiles) {
+            if (tile.surfaceTexture != null) {
+                evict(state, tile);
+            }
+        }
+    }
+
+    private boolean isVisible(Tile tile, float[] headModelView) {
+        float[] m = tile.localMatrix;
+        // Test the tile center and its corners in head space against a generous view cone.
+        for (int i = 0; i < 5; i++) {
+            float sx = (i == 4) ? 0 : ((i & 1) == 0 ? -1.0f : 1.0f);
+            float sy = (i == 4) ? 0 : ((i & 2) == 0 ? -1.0f : 1.0f);
+            mCorner[0] = m[12] + m[0] * sx;
+            mCorner[1] = m[13] + m[5] * sy;
+            mCorner[2] = 0;
+            mCorner[3] = 1.0f;
+            Matrix.multiplyMV(mEyeCorner, 0, headModelView, 0, mCorner, 0);
+            float z = -mEyeCorner[2];
+            if (z > 0 && Math.abs(mEyeCorner[0]) < z * VISIBLE_TAN
+                    && Math.abs(mEyeCorner[1]) < z * VISIBLE_TAN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void createTileSurface(GLStateCache state, Tile tile) {
+        int textureId = state.genTexture();
+        state.bindTexture(MainActivity.GL_TEXTURE_EXTERNAL_OES, textureId);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_NEAREST);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_NEAREST);
+
+        SurfaceTexture surfaceTexture = new SurfaceTexture(textureId);
+        surfaceTexture.setDefaultBufferSize(tile.bounds.width(), tile.bounds.height());
+        surfaceTexture.setOnFrameAvailableListener(tile);
+        tile.textureId = textureId;
+        tile.surfaceTexture = surfaceTexture;
+        tile.hasContent = false;
+        mResidentBytes += tile.sizeInBytes();
+        postTileSurface(tile, new Surface(surfaceTexture));
+    }
+
+    /**
+     * Has the UI thread draw the tile into the surface, as a whole at first.
+     */
+    private void postTileSurface(final Tile tile, final Surface surface) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                tile.surface = surface;
+                tile.needsRaster = true;
+                Rect b = tile.bounds;
+                mPageView.invalidate(b.left, b.top, b.right, b.bottom);
+            }
+        });
+    }
+
+    /**
+     * Stops the UI thread drawing into the tile and then releases its surface. Runs after the
+     * hand-off posted before it.
+     */
+    private void postReleaseTileSurface(final Tile tile, final SurfaceTexture surfaceTexture) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Surface surface = tile.surface;
+                tile.surface = null;
+                if (surface != null) {
+                    surface.release();
+                }
+                surfaceTexture.release();
+            }
+        });
+    }
+
+    private void evictOverBudget(GLStateCache state) {
+        while (mResidentBytes > mMemoryBudgetBytes) {
+            Tile lru = null;
+            for (Tile tile : mTiles) {
+                if (tile.surfaceTexture != null && !tile.visible
+                        && (lru == null || tile.lastVisibleFrame < lru.lastVisibleFrame)) {
+                    lru = tile;
+                }
+            }
+            if (lru == null) {
+                // Everything resident is on screen; stay over budget rather than flicker.
+                return;
+            }
+            evict(state, lru);
+        }
+    }
+
+    private void evict(GLStateCache state, Tile tile) {
+        postReleaseTileSurface(tile, tile.surfaceTexture);
+        tile.surfaceTexture = null;
+        tile.hasContent = false;
+        tile.frameAvailable.set(false);
+        state.deleteTexture(tile.textureId);
+        tile.textureId = 0;
+        mResidentBytes -= tile.sizeInBytes();
+    }
+}
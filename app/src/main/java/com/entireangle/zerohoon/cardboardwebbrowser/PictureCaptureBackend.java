@@ -0,0 +1,166 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * Records the page into a Picture on the UI thread and replays it into the capture surface
+ * on a worker thread.
+ *
+ * Recording only stores the drawing commands, which is much cheaper than rasterizing them, so
+ * the UI thread is free again sooner; the raster happens in the replay. A picture is only
+ * recorded when the page changed, and only the newest one is replayed: one that is replaced
+ * before the worker gets to it is dropped. Pictures are recycled, so at most three exist.
+ *
+ * The raster stage measures recording, and the replay stage the worker's raster.
+ */
+class PictureCaptureBackend implements CaptureBackend {
+
+    private static final String TAG = "PictureCapture";
+
+    private final HandlerThread mThread = new HandlerThread("PictureCapture");
+    private final Handler mHandler;
+    private final Runnable mReplay = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    // Guards the hand-off between the UI thread and the worker.
+    private final Object mLock = new Object();
+    private Picture mPending;
+    private Picture mFree;
+    private CustomWebView mPendingView;
+    private Surface mPendingSurface;
+    private float mPendingScale;
+    private FrameMetrics mPendingMetrics;
+    private boolean mReplayScheduled;
+
+    PictureCaptureBackend() {
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public String getName() {
+        return "picture";
+    }
+
+    @Override
+    public boolean supportsPartialCapture() {
+        return false;
+    }
+
+    @Override
+    public void capture(CustomWebView view, Surface surface, Rect dirty, float scale,
+            FrameMetrics metrics) {
+        long start = System.nanoTime();
+        Picture picture;
+        synchronized (mLock) {
+            picture = mFree;
+            mFree = null;
+        }
+        if (picture == null) {
+            picture = new Picture();
+        }
+        Canvas canvas = picture.beginRecording(CustomWebView.TEXTURE_WIDTH,
+                CustomWebView.TEXTURE_HEIGHT);
+        view.drawPage(canvas);
+        picture.endRecording();
+        if (metrics != null) {
+            metrics.record(FrameMetrics.STAGE_CAPTURE_RASTER, System.nanoTime() - start);
+        }
+        synchronized (mLock) {
+            if (mPending != null) {
+                // Never replayed; the new picture covers it.
+                mFree = mPending;
+            }
+            mPending = picture;
+            mPendingView = view;
+            mPendingSurface = surface;
+            mPendingScale = scale;
+            mPendingMetrics = metrics;
+            if (!mReplayScheduled) {
+                mReplayScheduled = true;
+                mHandler.post(mReplay);
+            }
+        }
+    }
+
+    /**
+     * Rasterizes the newest picture into the surface it was recorded for. Worker thread.
+     */
+    private void replay() {
+        Picture picture;
+        CustomWebView view;
+        Surface surface;
+        float scale;
+        FrameMetrics metrics;
+        synchronized (mLock) {
+            mReplayScheduled = false;
+            picture = mPending;
+            mPending = null;
+            view = mPendingView;
+            surface = mPendingSurface;
+            scale = mPendingScale;
+            metrics = mPendingMetrics;
+            mPendingView = null;
+            mPendingSurface = null;
+        }
+        if (picture == null) {
+            return;
+        }
+        // Held like a capture on the UI thread, so the surface is not swapped or released
+        // while it is drawn into.
+        synchronized (view.getSurfaceLock()) {
+            if (view.isCaptureSurface(surface)) {
+                try {
+                    long start = System.nanoTime();
+                    Canvas canvas = surface.lockCanvas(null);
+                    if (scale != 1.0f) {
+                        canvas.scale(scale, scale);
+                    }
+                    long locked = System.nanoTime();
+                    picture.draw(canvas);
+                    long replayed = System.nanoTime();
+                    surface.unlockCanvasAndPost(canvas);
+                    if (metrics != null) {
+                        metrics.record(FrameMetrics.STAGE_CAPTURE_LOCK, locked - start);
+                        metrics.record(FrameMetrics.STAGE_CAPTURE_REPLAY, replayed - locked);
+                        metrics.record(FrameMetrics.STAGE_CAPTURE_POST,
+                                System.nanoTime() - replayed);
+                    }
+                } catch (Surface.OutOfResourcesException e) {
+                    Log.w(TAG, "Could not lock the capture surface", e);
+                }
+            }
+        }
+        synchronized (mLock) {
+            if (mFree == null) {
+                mFree = picture;
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (mLock) {
+            mPending = null;
+            mFree = null;
+            mPendingView = null;
+            mPendingSurface = null;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the shader programs, from linked binaries cached on disk when the context is
+ * OpenGL ES 3 or later, and from source otherwise.
+ *
+ * A binary is keyed by a hash of both shader sources and the driver's renderer, version and
+ * the system build, so an app or driver update misses the cache instead of loading a stale
+ * binary. A binary the driver rejects anyway is deleted and the program is compiled from
+ * source. Binaries that no program of the current context was built from are deleted once
+ * all of its programs are built. Programs compiled from source are checked for compile and
+ * link errors.
+ *
+ * Must be used on the GL thread, except for {@link #prefetch}. Calls go through the
+ * context's {@link GLStateCache}, except the binary ones, whose errors are expected and
+ * handled here rather than by a tracer.
+ */
+class ProgramCache {
+
+    private static final String TAG = "ProgramCache";
+    private static final int FILE_MAGIC = 0x50524f47;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Errors a broken driver may report over and over; stop draining after this many.
+    private static final int MAX_STALE_ERRORS = 16;
+
+    private final Resources mResources;
+    private final File mDirectory;
+    // Sources do not change while the app runs, so they outlive GL contexts.
+    private final Map<Integer, String> mSources = new ConcurrentHashMap<Integer, String>();
+    // Binary files read ahead by prefetch, by file name; each is used once.
+    private final Map<String, byte[]> mPrefetchedFiles = new ConcurrentHashMap<String, byte[]>();
+    // Compiled shaders of the current context, shared between its programs.
+    private final Map<Integer, Integer> mShaders = new HashMap<Integer, Integer>();
+    // Binary files of the programs of the current context, by file name.
+    private final Set<String> mUsedFiles = new HashSet<String>();
+    private final int[] mStatus = new int[1];
+    private final int[] mFormat = new int[1];
+    private GLStateCache mState;
+    private boolean mBinarySupported;
+    private String mDriverVersion;
+
+    private int mBinaryHits;
+    private int mSourceBuilds;
+    private long mBuildNanos;
+
+    /**
+     * @param directory Where binaries are kept, typically under the cache dir.
+     */
+    ProgramCache(Resources resources, File directory) {
+        mResources = resources;
+        mDirectory = directory;
+    }
+
+    /**
+     * Reads the shader sources and all cached binaries into memory, so the GL thread does
+     * not wait for storage. Meant for a background thread during startup; anything it has
+     * not read yet by the time a program is built is read on the GL thread instead.
+     */
+    void prefetch(int... resIds) {
+        for (int resId : resIds) {
+            getSource(resId);
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(".bin")) {
+                try {
+                    mPrefetchedFiles.put(file.getName(), readFile(file));
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not prefetch " + file.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts over for a new GL context: shaders of the old one are gone and the driver may
+     * be a different one. Resets the statistics.
+     */
+    void onContextCreated(GLStateCache state) {
+        mState = state;
+        mShaders.clear();
+        mUsedFiles.clear();
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        // The bindings only reach the driver's program binary calls through the ES 3 entry
+        // points. On an ES 2 context those are stubs that do nothing and raise no error, even
+        // when the driver advertises GL_OES_get_program_binary.
+        boolean es3 = version != null && version.startsWith("OpenGL ES ")
+                && version.length() > 10 && version.charAt(10) >= '3'
+                && version.charAt(10) <= '9';
+        mStatus[0] = 0;
+        if (es3) {
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, mStatus, 0);
+        }
+        mBinarySupported = es3 && mStatus[0] > 0 && mDirectory != null
+                && (mDirectory.isDirectory() || mDirectory.mkdirs());
+        drainErrors();
+        mDriverVersion = GLES20.glGetString(GLES20.GL_RENDERER) + '\n' + version + '\n'
+                + Build.FINGERPRINT;
+        mBinaryHits = 0;
+        mSourceBuilds = 0;
+        mBuildNanos = 0;
+    }
+
+    /**
+     * @return A linked program of the two shaders.
+     * @throws RuntimeException If a shader does not compile or the program does not link.
+     */
+    int getProgram(int vertexResId, int fragmentResId) {
+        long start = System.nanoTime();
+        String vertexSource = getSource(vertexResId);
+        String fragmentSource = getSource(fragmentResId);
+        File binaryFile = mBinarySupported
+                ? new File(mDirectory, key(vertexSource, fragmentSource) + ".bin") : null;
+
+        if (binaryFile != null) {
+            mUsedFiles.add(binaryFile.getName());
+        }
+        int program = binaryFile != null ? loadBinary(binaryFile) : 0;
+        if (program != 0) {
+            mBinaryHits++;
+        } else {
+            program = mState.createProgram();
+            mState.attachShader(program, getShader(GLES20.GL_VERTEX_SHADER, vertexResId));
+            mState.attachShader(program, getShader(GLES20.GL_FRAGMENT_SHADER, fragmentResId));
+            mState.linkProgram(program);
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mStatus, 0);
+            if (mStatus[0] == 0) {
+                String log = GLES20.glGetProgramInfoLog(program);
+                mState.deleteProgram(program);
+                Log.e(TAG, "Error linking program: " + log);
+                throw new RuntimeException("Error linking program.");
+            }
+            if (binaryFile != null) {
+                saveBinary(program, binaryFile);
+            }
+            mSourceBuilds++;
+        }
+        mBuildNanos += System.nanoTime() - start;
+        return program;
+    }
+
+    /**
+     * Deletes the shader objects once all programs of the context are built. Linked
+     * programs keep working without them. Also deletes the cached binaries of other sources
+     * or drivers, so they are not read again on the next start.
+     */
+    void releaseShaders() {
+        for (int shader : mShaders.values()) {
+            mState.deleteShader(shader);
+        }
+        mShaders.clear();
+        mPrefetchedFiles.clear();
+        if (mBinarySupported) {
+            deleteUnusedBinaries();
+        }
+    }
+
+    /**
+     * @return How many programs of this context came from the binary cache.
+     */
+    int getBinaryHits() {
+        return mBinaryHits;
+    }
+
+    /**
+     * @return How many programs of this context were compiled and linked from source.
+     */
+    int getSourceBuilds() {
+        return mSourceBuilds;
+    }
+
+    /**
+     * @return The time spent building the programs of this context, in nanoseconds.
+     */
+    long getBuildNanos() {
+        return mBuildNanos;
+    }
+
+    private int loadBinary(File file) {
+        byte[] contents = mPrefetchedFiles.remove(file.getName());
+        if (contents == null && !file.isFile()) {
+            return 0;
+        }
+        int program = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new ByteArrayInputStream(
+                    contents != null ? contents : readFile(file)));
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a program binary");
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            // A corrupt length must not allocate more than the file holds.
+            if (length <= 0 || length > in.available()) {
+                throw new IOException("Binary of " + length + " bytes");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            ByteBuffer binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+            binary.put(bytes).position(0);
+
+            program = mState.createProgram();
+            // Only an error of glProgramBinary itself means the binary is bad.
+            drainErrors();
+            GLES30.glProgramBinary(program, format, binary, bytes.length);
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, mStatus, 0);
+            if (GLES20.glGetError() == GLES20.GL_NO_ERROR && mStatus[0] != 0) {
+                return program;
+            }
+            Log.w(TAG, "Driver rejected cached program " + file.getName());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read cached program " + file.getName(), e);
+        } finally {
+            closeQuietly(in);
+        }
+        if (program != 0) {
+            mState.deleteProgram(program);
+        }
+        file.delete();
+        return 0;
+    }
+
+    private void deleteUnusedBinaries() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if ((name.endsWith(".bin") && !mUsedFiles.contains(name))
+                    || name.endsWith(".bin.tmp")) {
+                file.delete();
+            }
+        }
+    }
+
+    private void saveBinary(int program, File file) {
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, mStatus, 0);
+        int length = mStatus[0];
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        // A call that silently does nothing leaves these as they are, so nothing is written.
+        mStatus[0] = 0;
+        mFormat[0] = 0;
+        drainErrors();
+        GLES30.glGetProgramBinary(program, length, mStatus, 0, mFormat, 0, binary);
+        int written = mStatus[0];
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || written <= 0 || written > length
+                || mFormat[0] == 0) {
+            Log.w(TAG, "Driver returned no binary for " + file.getName());
+            return;
+        }
+        byte[] bytes = new byte[written];
+        binary.get(bytes);
+
+        // Write to the side and rename, so a crash never leaves a truncated binary behind.
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(mFormat[0]);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache program " + file.getName(), e);
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Clears errors left over by earlier calls, so the next glGetError is about the next call.
+     */
+    private static void drainErrors() {
+        for (int i = 0; i < MAX_STALE_ERRORS
+                && GLES20.glGetError() != GLES20.GL_NO_ERROR; i++) {
+            // Keep draining.
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(contents);
+        } finally {
+            closeQuietly(in);
+        }
+        return contents;
+    }
+
+    private int getShader(int type, int resId) {
+        Integer cached = mShaders.get(resId);
+        if (cached != null) {
+            return cached;
+        }
+        int shader = mState.createShader(type);
+        mState.shaderSource(shader, getSource(resId));
+        mState.compileShader(shader);
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, mStatus, 0);
+        if (mStatus[0] == 0) {
+            Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
+            mState.deleteShader(shader);
+            throw new RuntimeException("Error creating shader.");
+        }
+        mShaders.put(resId, shader);
+        return shader;
+    }
+
+    private String getSource(int resId) {
+        String source = mSources.get(resId);
+        if (source == null) {
+            source = readResource(resId);
+            mSources.put(resId, source);
+        }
+        return source;
+    }
+
+    private String readResource(int resId) {
+        InputStream in = mResources.openRawResource(resId);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading shader resource " + resId, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(mDriverVersion.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format(Locale.US, "%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do.
+            }
+        }
+    }
+}
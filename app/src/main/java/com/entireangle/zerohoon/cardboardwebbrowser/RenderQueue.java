@@ -0,0 +1,95 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+/**
+ * The draws of one eye, collected first and then issued in an order that keeps program and
+ * texture switches to a minimum.
+ *
+ * Commands are sorted by layer, then program, then texture. Layers are for draws whose
+ * order matters, such as blended ones; within a layer the depth test resolves the order.
+ * Draws with equal keys keep their submission order. Nothing is allocated once the queue has
+ * grown to the number of draws of a frame. Must be used on the GL thread.
+ */
+class RenderQueue {
+
+    /**
+     * Issues the GL calls of one draw. The program and texture of the command are bound
+     * already when it runs.
+     */
+    interface Command {
+        void draw(GLStateCache state);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Command[] mCommands = new Command[INITIAL_CAPACITY];
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private int[] mPrograms = new int[INITIAL_CAPACITY];
+    private int[] mTextureTargets = new int[INITIAL_CAPACITY];
+    private int[] mTextures = new int[INITIAL_CAPACITY];
+    private int mCount;
+
+    /**
+     * Queues a draw.
+     *
+     * @param layer Draws of a lower layer are issued first, 0..255.
+     * @param program The program the draw uses.
+     * @param textureTarget The target of the texture, or 0 if the command binds its own.
+     * @param texture The texture the draw samples, or 0.
+     */
+    void submit(int layer, int program, int textureTarget, int texture, Command command) {
+        if (mCount == mCommands.length) {
+            grow();
+        }
+        int i = mCount++;
+        long key = ((long) layer << 56) | ((long) (program & 0xfffffff) << 28)
+                | (texture & 0xfffffff);
+        // Insertion sort: the queue holds a handful of draws and is mostly submitted in order.
+        while (i > 0 && mKeys[i - 1] > key) {
+            mCommands[i] = mCommands[i - 1];
+            mKeys[i] = mKeys[i - 1];
+            mPrograms[i] = mPrograms[i - 1];
+            mTextureTargets[i] = mTextureTargets[i - 1];
+            mTextures[i] = mTextures[i - 1];
+            i--;
+        }
+        mCommands[i] = command;
+        mKeys[i] = key;
+        mPrograms[i] = program;
+        mTextureTargets[i] = textureTarget;
+        mTextures[i] = texture;
+    }
+
+    /**
+     * Issues every queued draw in key order and empties the queue.
+     */
+    void flush(GLStateCache state) {
+        for (int i = 0; i < mCount; i++) {
+            state.useProgram(mPrograms[i]);
+            if (mTextureTargets[i] != 0) {
+                state.bindTexture(mTextureTargets[i], mTextures[i]);
+            }
+            mCommands[i].draw(state);
+            mCommands[i] = null;
+        }
+        mCount = 0;
+    }
+
+    private void grow() {
+        int capacity = mCommands.length * 2;
+        Command[] commands = new Command[capacity];
+        System.arraycopy(mCommands, 0, commands, 0, mCount);
+        mCommands = commands;
+        long[] keys = new long[capacity];
+        System.arraycopy(mKeys, 0, keys, 0, mCount);
+        mKeys = keys;
+        int[] programs = new int[capacity];
+        System.arraycopy(mPrograms, 0, programs, 0, mCount);
+        mPrograms = programs;
+        int[] targets = new int[capacity];
+        System.arraycopy(mTextureTargets, 0, targets, 0, mCount);
+        mTextureTargets = targets;
+        int[] textures = new int[capacity];
+        System.arraycopy(mTextures, 0, textures, 0, mCount);
+        mTextures = textures;
+    }
+}
@@ -0,0 +1,168 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.entireangle.zerohoon.cardboardwebbrowser.net.ContentBlocker;
+import com.entireangle.zerohoon.cardboardwebbrowser.net.FilterListCompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Blocks the pages' ad and tracking requests with the filter list in assets/filters, see
+ * {@link ContentBlocker}.
+ *
+ * The list is compiled once per install or update of the app, which is when the asset can
+ * change, into the cache directory and memory-mapped from there, so startup only maps a file. Until it is loaded nothing is blocked. Page loads
+ * themselves are never blocked. Shared by all tabs; called on the WebViews' I/O threads.
+ */
+class RequestFilter {
+
+    private static final String TAG = "RequestFilter";
+    private static final String LIST_ASSET = "filters/blocklist.txt";
+
+    private final Context mContext;
+    private final File mDirectory;
+    private volatile ContentBlocker mBlocker;
+
+    private final AtomicLong mChecked = new AtomicLong();
+    private final AtomicLong mBlocked = new AtomicLong();
+    private final AtomicLong mMatchNanos = new AtomicLong();
+    private final AtomicLong mMaxMatchNanos = new AtomicLong();
+
+    /**
+     * Does no I/O; see {@link #load()}.
+     */
+    RequestFilter(Context context, File directory) {
+        mContext = context.getApplicationContext();
+        mDirectory = directory;
+    }
+
+    /**
+     * Maps the compiled list, compiling it first if this app version has not. Blocks; call it
+     * off the UI thread.
+     */
+    void load() {
+        long start = System.nanoTime();
+        File file = new File(mDirectory, "blocklist-" + getInstallTime() + ".bin");
+        try {
+            ContentBlocker blocker = null;
+            if (file.isFile()) {
+                try {
+                    blocker = ContentBlocker.map(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Compiling again: " + e);
+                }
+            }
+            if (blocker == null) {
+                compile(file);
+                blocker = ContentBlocker.map(file);
+            }
+            mBlocker = blocker;
+            Log.i(TAG, "Loaded " + blocker.getRuleCount() + " rules and "
+                    + blocker.getExceptionCount() + " exceptions in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot load the filter list, not blocking", e);
+        }
+    }
+
+    /**
+     * @return An empty error response if the request is blocked, or null to let it through.
+     */
+    WebResourceResponse intercept(WebResourceRequest request) {
+        ContentBlocker blocker = mBlocker;
+        String scheme = request.getUrl().getScheme();
+        if (blocker == null || request.isForMainFrame()
+                || !("http".equals(scheme) || "https".equals(scheme))) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean blocked = blocker.shouldBlock(request.getUrl().toString());
+        long nanos = System.nanoTime() - start;
+        mChecked.incrementAndGet();
+        mMatchNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMaxMatchNanos.get())
+                && !mMaxMatchNanos.compareAndSet(max, nanos)) {
+            // Lost to another thread; try again.
+        }
+        if (!blocked) {
+            return null;
+        }
+        mBlocked.incrementAndGet();
+        // An error status fails the request in the page as a network error would, so scripts
+        // fall back instead of parsing an empty body.
+        return new WebResourceResponse("text/plain", "utf-8", 403, "Blocked",
+                Collections.<String, String>emptyMap(), new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * @return The request counts and match times so far, for logging.
+     */
+    String dump() {
+        long checked = mChecked.get();
+        return "checked=" + checked + " blocked=" + mBlocked.get()
+                + " avg match=" + (checked > 0 ? mMatchNanos.get() / checked / 1000.0f : 0)
+                + "us max match=" + mMaxMatchNanos.get() / 1000.0f + "us\n";
+    }
+
+    /**
+     * @return When the app was last installed or updated. Unlike the version code, this
+     *         changes with every build that is installed.
+     */
+    private long getInstallTime() {
+        try {
+            return mContext.getPackageManager()
+                    .getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Our own package; cannot happen.
+            return BuildConfig.VERSION_CODE;
+        }
+    }
+
+    private void compile(File file) throws IOException {
+        FilterListCompiler compiler = new FilterListCompiler();
+        InputStreamReader list = new InputStreamReader(mContext.getAssets().open(LIST_ASSET),
+                "UTF-8");
+        try {
+            compiler.addRules(list);
+        } finally {
+            list.close();
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        // Lists of earlier installs.
+        File[] old = mDirectory.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                f.delete();
+            }
+        }
+        // Write to the side and rename, so a crash never leaves a truncated list behind.
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            compiler.write(out);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp);
+        }
+        Log.i(TAG, "Compiled " + compiler.getRuleCount() + " rules, skipped "
+                + compiler.getSkippedCount() + " unsupported ones");
+    }
+}
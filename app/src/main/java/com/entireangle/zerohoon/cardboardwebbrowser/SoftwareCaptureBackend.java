@@ -0,0 +1,56 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.view.Surface;
+
+/**
+ * Rasterizes the page on the CPU straight into the capture surface, locking only the dirty
+ * part of it when it can. The previous contents of the rest of the buffer are preserved.
+ */
+class SoftwareCaptureBackend implements CaptureBackend {
+
+    private final Rect mLockRect = new Rect();
+
+    @Override
+    public String getName() {
+        return "software";
+    }
+
+    @Override
+    public boolean supportsPartialCapture() {
+        return true;
+    }
+
+    @Override
+    public void capture(CustomWebView view, Surface surface, Rect dirty, float scale,
+            FrameMetrics metrics) throws Surface.OutOfResourcesException {
+        long start = System.nanoTime();
+        final Canvas canvas;
+        if (dirty != null) {
+            // The canvas comes back clipped to the dirty rect and the rest of the previous
+            // buffer is preserved, so only the changed area is rasterized.
+            mLockRect.set((int) (dirty.left * scale), (int) (dirty.top * scale),
+                    (int) Math.ceil(dirty.right * scale), (int) Math.ceil(dirty.bottom * scale));
+            canvas = surface.lockCanvas(mLockRect);
+        } else {
+            canvas = surface.lockCanvas(null);
+        }
+        if (scale != 1.0f) {
+            canvas.scale(scale, scale);
+        }
+        long locked = System.nanoTime();
+        view.drawPage(canvas);
+        long rastered = System.nanoTime();
+        surface.unlockCanvasAndPost(canvas);
+        if (metrics != null) {
+            metrics.record(FrameMetrics.STAGE_CAPTURE_LOCK, locked - start);
+            metrics.record(FrameMetrics.STAGE_CAPTURE_RASTER, rastered - locked);
+            metrics.record(FrameMetrics.STAGE_CAPTURE_POST, System.nanoTime() - rastered);
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+}
@@ -0,0 +1,184 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Colored, textured quads from one texture, collected into one dynamic vertex buffer and
+ * drawn with a single draw call.
+ *
+ * The quads are written between {@link #begin()} and {@link #end()} whenever their contents
+ * change, and {@link #upload} copies them into the buffer only then, so a batch that does not
+ * change costs one draw call a frame and nothing else. Vertices are x and y in model space,
+ * u and v, and a premultiplied color, for the sprite_vertex and sprite_fragment program.
+ * Use it from the GL thread.
+ */
+class SpriteBatch {
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int FLOATS_PER_VERTEX = 8;
+    private static final int VERTICES_PER_QUAD = 6;
+    private static final int STRIDE = FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+    private final int mMaxQuads;
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private int mQuadCount;
+    private boolean mDirty;
+
+    private int mBuffer;
+    private int mUploadedQuads;
+    private int mMvpParam;
+    private int mPositionParam;
+    private int mTexCoordParam;
+    private int mColorParam;
+    private final float[] mUvs = new float[4];
+
+    SpriteBatch(int maxQuads) {
+        mMaxQuads = maxQuads;
+        mVertices = new float[maxQuads * VERTICES_PER_QUAD * FLOATS_PER_VERTEX];
+        mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Creates the vertex buffer in a new GL context. The quads are uploaded again on the next
+     * {@link #upload}.
+     *
+     * @param program The program of sprite_vertex and sprite_fragment.
+     */
+    void onSurfaceCreated(GLStateCache state, int program) {
+        mMvpParam = GLES20.glGetUniformLocation(program, "u_MVP");
+        mPositionParam = GLES20.glGetAttribLocation(program, "a_Position");
+        mTexCoordParam = GLES20.glGetAttribLocation(program, "a_TexCoordinate");
+        mColorParam = GLES20.glGetAttribLocation(program, "a_Color");
+        mBuffer = state.genBuffer();
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer);
+        state.bufferData(GLES20.GL_ARRAY_BUFFER, mVertices.length * BYTES_PER_FLOAT, null,
+                GLES20.GL_DYNAMIC_DRAW);
+        mUploadedQuads = 0;
+        mDirty = true;
+    }
+
+    /**
+     * Starts writing the quads over.
+     */
+    void begin() {
+        mQuadCount = 0;
+    }
+
+    /**
+     * Adds a quad. Quads past the capacity are dropped.
+     *
+     * @param uvs Left, top, right and bottom texture coordinates.
+     * @param alpha The color is multiplied by it.
+     */
+    void quad(float left, float bottom, float right, float top, float[] uvs, float red,
+            float green, float blue, float alpha) {
+        if (mQuadCount == mMaxQuads) {
+            return;
+        }
+        float r = red * alpha;
+        float g = green * alpha;
+        float b = blue * alpha;
+        int offset = mQuadCount * VERTICES_PER_QUAD * FLOATS_PER_VERTEX;
+        offset = putVertex(offset, left, top, uvs[0], uvs[1], r, g, b, alpha);
+        offset = putVertex(offset, left, bottom, uvs[0], uvs[3], r, g, b, alpha);
+        offset = putVertex(offset, right, top, uvs[2], uvs[1], r, g, b, alpha);
+        offset = putVertex(offset, right, top, uvs[2], uvs[1], r, g, b, alpha);
+        offset = putVertex(offset, left, bottom, uvs[0], uvs[3], r, g, b, alpha);
+        putVertex(offset, right, bottom, uvs[2], uvs[3], r, g, b, alpha);
+        mQuadCount++;
+    }
+
+    /**
+     * Adds one line of text from a glyph atlas.
+     *
+     * @param x Where the pen starts.
+     * @param top The top of the line.
+     * @param lineHeight The height of the line in model units.
+     * @return Where the pen ends.
+     */
+    float text(GlyphAtlas atlas, CharSequence text, float x, float top, float lineHeight,
+            float red, float green, float blue, float alpha) {
+        float scale = lineHeight / atlas.getLineHeight();
+        float padding = atlas.getPadding() * scale;
+        float cellHeight = atlas.getCellHeight() * scale;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != ' ') {
+                float left = x - padding;
+                float cellTop = top + padding;
+                atlas.getUvs(c, mUvs, 0);
+                quad(left, cellTop - cellHeight, left + atlas.getCellWidth(c) * scale, cellTop,
+                        mUvs, red, green, blue, alpha);
+            }
+            x += atlas.getAdvance(c) * scale;
+        }
+        return x;
+    }
+
+    /**
+     * Finishes writing the quads.
+     */
+    void end() {
+        mDirty = true;
+    }
+
+    /**
+     * Copies the quads into the vertex buffer if they changed since the last upload.
+     */
+    void upload(GLStateCache state) {
+        if (!mDirty || mBuffer == 0) {
+            return;
+        }
+        int floats = mQuadCount * VERTICES_PER_QUAD * FLOATS_PER_VERTEX;
+        if (floats > 0) {
+            mVertexBuffer.clear();
+            mVertexBuffer.put(mVertices, 0, floats);
+            mVertexBuffer.position(0);
+            state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer);
+            state.bufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floats * BYTES_PER_FLOAT,
+                    mVertexBuffer);
+        }
+        mUploadedQuads = mQuadCount;
+        mDirty = false;
+    }
+
+    /**
+     * Draws the uploaded quads, blended. The program and the texture must be bound.
+     */
+    void draw(GLStateCache state, float[] mvp) {
+        if (mUploadedQuads == 0) {
+            return;
+        }
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer);
+        state.enableVertexAttribArray(mPositionParam);
+        state.enableVertexAttribArray(mTexCoordParam);
+        state.enableVertexAttribArray(mColorParam);
+        state.vertexAttribPointer(mPositionParam, 2, STRIDE, 0);
+        state.vertexAttribPointer(mTexCoordParam, 2, STRIDE, 2 * BYTES_PER_FLOAT);
+        state.vertexAttribPointer(mColorParam, 4, STRIDE, 4 * BYTES_PER_FLOAT);
+        state.uniformMatrix4fv(mMvpParam, mvp, 0);
+        state.enable(GLES20.GL_BLEND);
+        state.drawArrays(GLES20.GL_TRIANGLES, 0, mUploadedQuads * VERTICES_PER_QUAD);
+        state.disable(GLES20.GL_BLEND);
+    }
+
+    private int putVertex(int offset, float x, float y, float u, float v, float red,
+            float green, float blue, float alpha) {
+        float[] vertices = mVertices;
+        vertices[offset] = x;
+        vertices[offset + 1] = y;
+        vertices[offset + 2] = u;
+        vertices[offset + 3] = v;
+        vertices[offset + 4] = red;
+        vertices[offset + 5] = green;
+        vertices[offset + 6] = blue;
+        vertices[offset + 7] = alpha;
+        return offset + FLOATS_PER_VERTEX;
+    }
+}
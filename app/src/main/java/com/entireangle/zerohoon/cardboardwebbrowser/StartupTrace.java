@@ -0,0 +1,97 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamps of the startup phases, relative to the start of onCreate.
+ *
+ * Phases run on the UI, GL and background threads and overlap, so each one is just the
+ * first time it was marked. Marking does not allocate or lock and later marks of a phase are
+ * ignored, so a phase can be marked from a per-frame path.
+ */
+class StartupTrace {
+
+    public static final int PHASE_CREATE = 0;
+    public static final int PHASE_VIEW_READY = 1;
+    public static final int PHASE_SOURCES_READ = 2;
+    public static final int PHASE_GEOMETRY_BUILT = 3;
+    public static final int PHASE_SURFACE_CREATED = 4;
+    public static final int PHASE_GL_READY = 5;
+    public static final int PHASE_FIRST_FRAME = 6;
+    public static final int PHASE_WEBVIEW_CREATED = 7;
+    public static final int PHASE_NAVIGATION_STARTED = 8;
+    public static final int PHASE_FIRST_PAGE_PIXEL = 9;
+    private static final String[] PHASE_NAMES = new String[] {
+            "onCreate", "cardboard view ready", "shader sources read", "geometry built",
+            "surface created", "GL ready", "first frame", "WebView created",
+            "navigation started", "first page pixel"
+    };
+    private static final int PHASE_COUNT = PHASE_NAMES.length;
+
+    private final AtomicLongArray mMarks = new AtomicLongArray(PHASE_COUNT);
+    private volatile long mOriginNs;
+
+    /**
+     * Starts the trace; all phases are timed from here.
+     */
+    void start() {
+        mOriginNs = System.nanoTime();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            mMarks.set(i, 0);
+        }
+        mMarks.set(PHASE_CREATE, mOriginNs);
+    }
+
+    /**
+     * Records the phase as reached now, unless it was reached before.
+     *
+     * @return true if this was the first mark of the phase.
+     */
+    boolean mark(int phase) {
+        return mMarks.compareAndSet(phase, 0, System.nanoTime());
+    }
+
+    boolean isMarked(int phase) {
+        return mMarks.get(phase) != 0;
+    }
+
+    /**
+     * @return Milliseconds from the start of onCreate to the phase, or -1 if not reached.
+     */
+    long getMillis(int phase) {
+        long mark = mMarks.get(phase);
+        return mark == 0 ? -1 : (mark - mOriginNs) / 1000000;
+    }
+
+    long getTimeToFirstFrameMillis() {
+        return getMillis(PHASE_FIRST_FRAME);
+    }
+
+    long getTimeToFirstPagePixelMillis() {
+        return getMillis(PHASE_FIRST_PAGE_PIXEL);
+    }
+
+    /**
+     * Formats the reached phases in the order they were reached, one per line.
+     */
+    String dump() {
+        StringBuilder sb = new StringBuilder();
+        boolean[] printed = new boolean[PHASE_COUNT];
+        for (int n = 0; n < PHASE_COUNT; n++) {
+            int next = -1;
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                if (!printed[i] && mMarks.get(i) != 0
+                        && (next < 0 || mMarks.get(i) < mMarks.get(next))) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            printed[next] = true;
+            sb.append(String.format(Locale.US, "%6dms %s%n", getMillis(next), PHASE_NAMES[next]));
+        }
+        return sb.toString();
+    }
+}
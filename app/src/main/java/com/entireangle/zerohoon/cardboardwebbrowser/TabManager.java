@@ -0,0 +1,228 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.util.Log;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns a bounded pool of tabs and decides which of them keep a page texture.
+ *
+ * Tabs are opened and switched on the UI thread. Background tabs are paused and hidden, so
+ * their WebView stops running animations and stops capturing. The GL thread only reads the
+ * active tab and a snapshot of the tab list, and evicts the textures of background tabs,
+ * least recently used first, once the textures go over the memory budget. The active tab and
+ * the one shown before it are never evicted, so flipping between the two is instant.
+ */
+class TabManager {
+
+    private static final String TAG = "TabManager";
+    public static final int MAX_TABS = 4;
+    // Enough for the active and the previous tab at full resolution.
+    public static final long DEFAULT_TEXTURE_BUDGET_BYTES = 160L * 1024 * 1024;
+
+    /**
+     * Creates and attaches the WebView of a new tab, and takes back those tabs let go of.
+     */
+    interface WebViewFactory {
+        CustomWebView createWebView();
+
+        void releaseWebView(CustomWebView webView);
+    }
+
+    private final WebViewFactory mFactory;
+    private final long mTextureBudgetBytes;
+    // Only touched on the UI thread.
+    private final List<BrowserTab> mTabs = new ArrayList<BrowserTab>();
+    // Copy of mTabs for the GL thread, replaced whenever a tab is added.
+    private volatile BrowserTab[] mTabSnapshot = new BrowserTab[0];
+    private volatile BrowserTab mActiveTab;
+    private volatile BrowserTab mPreviousTab;
+    // Follows the active tab. UI thread.
+    private BrowserChrome mChrome;
+
+    TabManager(WebViewFactory factory, long textureBudgetBytes) {
+        mFactory = factory;
+        mTextureBudgetBytes = textureBudgetBytes;
+    }
+
+    /**
+     * Has the chrome show the active tab's page from now on. Must run on the UI thread.
+     */
+    void setChrome(BrowserChrome chrome) {
+        mChrome = chrome;
+        if (mActiveTab != null) {
+            mActiveTab.getWebView().setChrome(chrome);
+        }
+    }
+
+    BrowserTab getActiveTab() {
+        return mActiveTab;
+    }
+
+    int getTabCount() {
+        return mTabSnapshot.length;
+    }
+
+    /**
+     * Opens the url in a new tab and shows it. Once the pool is full, the least recently used
+     * background tab is reused. Must run on the UI thread.
+     */
+    BrowserTab openTab(String url) {
+        BrowserTab tab;
+        if (mTabs.size() < MAX_TABS) {
+            tab = new BrowserTab(mFactory.createWebView());
+            mTabs.add(tab);
+            mTabSnapshot = mTabs.toArray(new BrowserTab[mTabs.size()]);
+            tab.getWebView().loadUrl(url);
+        } else {
+            tab = leastRecentlyUsed(mTabSnapshot, false);
+            if (tab == null) {
+                // Only possible with MAX_TABS below 3.
+                tab = mActiveTab;
+            }
+            // Its texture still holds the page it showed before.
+            tab.discardFrame();
+            // Nor may Back lead to the pages it showed before.
+            CustomWebView back;
+            while ((back = tab.popBackView()) != null) {
+                mFactory.releaseWebView(back);
+            }
+            tab.getWebView().loadUrlInFreshHistory(url);
+        }
+        switchTo(tab);
+        return tab;
+    }
+
+    /**
+     * Shows the given tab and pauses the one shown before. Must run on the UI thread.
+     */
+    void switchTo(BrowserTab tab) {
+        BrowserTab active = mActiveTab;
+        if (tab == active) {
+            return;
+        }
+        if (active != null) {
+            pause(active);
+            active.getWebView().setChrome(null);
+            mPreviousTab = active;
+        }
+        resume(tab);
+        tab.markUsed();
+        mActiveTab = tab;
+        tab.getWebView().setChrome(mChrome);
+    }
+
+    /**
+     * Puts another WebView in the tab, such as one with a page already loaded, and shows it
+     * if the tab is active. The GL thread moves the tab's capture surface over on its next
+     * latch. Must run on the UI thread.
+     *
+     * @return The WebView the tab had, paused and hidden.
+     */
+    CustomWebView replaceWebView(BrowserTab tab, CustomWebView webView) {
+        CustomWebView previous = tab.getWebView();
+        pause(tab);
+        previous.setChrome(null);
+        tab.setWebView(webView);
+        if (tab == mActiveTab) {
+            resume(tab);
+            webView.setChrome(mChrome);
+        } else {
+            pause(tab);
+        }
+        return previous;
+    }
+
+    /**
+     * Goes back in the active tab: in its WebView's history, or once that is at its start, to
+     * the WebView the tab showed before a prefetched page took over. The WebView that is left
+     * goes back to the factory, so the page it showed cannot be gone forward to again. Must
+     * run on the UI thread.
+     */
+    void goBack() {
+        BrowserTab tab = mActiveTab;
+        if (tab == null) {
+            return;
+        }
+        CustomWebView webView = tab.getWebView();
+        if (webView.canGoBack()) {
+            webView.goBack();
+            return;
+        }
+        CustomWebView back = tab.popBackView();
+        if (back != null) {
+            mFactory.releaseWebView(replaceWebView(tab, back));
+        }
+    }
+
+    /**
+     * Flips back to the tab shown before the active one. Must run on the UI thread.
+     */
+    void switchToPrevious() {
+        BrowserTab previous = mPreviousTab;
+        if (previous != null) {
+            switchTo(previous);
+        }
+    }
+
+    /**
+     * Evicts background textures, least recently used first, until the tabs fit the budget.
+     * Must run on the GL thread.
+     */
+    void trimTextures(GLStateCache state) {
+        BrowserTab[] tabs = mTabSnapshot;
+        long residentBytes = 0;
+        for (BrowserTab tab : tabs) {
+            residentBytes += tab.getTextureBytes();
+        }
+        while (residentBytes > mTextureBudgetBytes) {
+            BrowserTab lru = leastRecentlyUsed(tabs, true);
+            if (lru == null) {
+                return;
+            }
+            Log.i(TAG, "Evicting texture of " + lru.getWebView().getUrl());
+            residentBytes -= lru.getTextureBytes();
+            lru.releaseTexture(state);
+        }
+    }
+
+    /**
+     * Drops every texture after the GL context was lost. Must run on the GL thread.
+     */
+    void abandonTextures() {
+        for (BrowserTab tab : mTabSnapshot) {
+            tab.abandonTexture();
+        }
+    }
+
+    /**
+     * Returns the least recently used tab other than the active and the previous one.
+     *
+     * @param withTexture Only consider tabs that currently hold a texture.
+     */
+    private BrowserTab leastRecentlyUsed(BrowserTab[] tabs, boolean withTexture) {
+        BrowserTab lru = null;
+        for (BrowserTab tab : tabs) {
+            if (tab != mActiveTab && tab != mPreviousTab && (!withTexture || tab.hasTexture())
+                    && (lru == null || tab.getLastUsedNanos() < lru.getLastUsedNanos())) {
+                lru = tab;
+            }
+        }
+        return lru;
+    }
+
+    private static void pause(BrowserTab tab) {
+        CustomWebView webView = tab.getWebView();
+        // An invisible view is not drawn, so capture stops along with it.
+        webView.setVisibility(View.INVISIBLE);
+        webView.onPause();
+    }
+
+    private static void resume(BrowserTab tab) {
+        CustomWebView webView = tab.getWebView();
+        webView.onResume();
+        webView.setVisibility(View.VISIBLE);
+    }
+}
@@ -0,0 +1,232 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import com.google.vrtoolkit.cardboard.Eye;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A head-locked text toast drawn in the GL scene from a {@link GlyphAtlas}, in place of an
+ * Android overlay view that the compositor had to blend over the scene every frame.
+ *
+ * The text is laid out once per message in atlas pixels and drawn as one batch of quads per
+ * eye. The shader shifts each eye's image horizontally by a depth offset, so the text
+ * appears at a distance instead of on the lenses. The toast fades out with the frame clock
+ * and is not drawn at all once it has faded. {@link #show} may be called from any thread;
+ * everything else runs on the GL thread.
+ */
+class ToastHud {
+
+    // Fades out like the overlay's AlphaAnimation did, over the same time.
+    private static final long FADE_NS = 5000 * 1000000L;
+    private static final int MAX_GLYPHS = 256;
+    // x and y in atlas pixels, then u and v.
+    private static final int FLOATS_PER_VERTEX = 4;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    // The top of the text, as a fraction of the eye's height from the top.
+    private static final float TOP = 0.52f;
+    // The height of a line, as a fraction of the eye's height.
+    private static final float LINE_HEIGHT = 0.045f;
+    // The widest a line may get, as a fraction of the eye's width.
+    private static final float MAX_LINE_WIDTH = 0.9f;
+    // The horizontal shift of each eye's image, as a fraction of the eye's width.
+    private static final float DEPTH_OFFSET = 0.016f;
+    // In front of everything else, within the near plane.
+    private static final float DEPTH = -0.999f;
+    private static final float RED = 150 / 255f;
+    private static final float GREEN = 1.0f;
+    private static final float BLUE = 180 / 255f;
+
+    private final AtomicReference<String> mPendingMessage = new AtomicReference<String>();
+    private String mMessage;
+    private long mShownNs;
+    private float mAlpha;
+
+    private GlyphAtlas mAtlas;
+    private int mTexture;
+    private int mTransformParam;
+    private int mEyeOffsetParam;
+    private int mColorParam;
+    private final int[] mAttribs = new int[2];
+
+    private final float[] mVertices = new float[MAX_GLYPHS * 6 * FLOATS_PER_VERTEX];
+    private final FloatBuffer mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private int mVertexCount;
+    // The eye aspect ratio the message was laid out for, or 0 to lay it out again.
+    private float mLayoutAspect;
+    private final float[] mTransform = new float[16];
+    private final float[] mUvs = new float[4];
+
+    /**
+     * Shows a message, replacing the current one.
+     */
+    void show(String message) {
+        mPendingMessage.set(message);
+    }
+
+    /**
+     * Sets up a new GL context.
+     *
+     * @param program The program of hud_vertex and hud_fragment.
+     * @param texture The atlas, uploaded into the new context.
+     */
+    void onSurfaceCreated(int program, GlyphAtlas atlas, int texture) {
+        mAtlas = atlas;
+        mTexture = texture;
+        mTransformParam = GLES20.glGetUniformLocation(program, "u_Transform");
+        mEyeOffsetParam = GLES20.glGetUniformLocation(program, "u_EyeOffset");
+        mColorParam = GLES20.glGetUniformLocation(program, "u_Color");
+        mAttribs[0] = GLES20.glGetAttribLocation(program, "a_Position");
+        mAttribs[1] = GLES20.glGetAttribLocation(program, "a_TexCoordinate");
+        mLayoutAspect = 0;
+    }
+
+    int getTexture() {
+        return mTexture;
+    }
+
+    /**
+     * Picks up a new message and advances the fade.
+     *
+     * @return Whether there is anything to draw in this frame.
+     */
+    boolean onNewFrame(long frameNs) {
+        String message = mPendingMessage.getAndSet(null);
+        if (message != null) {
+            mMessage = message;
+            mShownNs = frameNs;
+            mLayoutAspect = 0;
+        }
+        if (mMessage == null || mAtlas == null) {
+            return false;
+        }
+        float t = (float) (frameNs - mShownNs) / FADE_NS;
+        if (t >= 1) {
+            mMessage = null;
+            return false;
+        }
+        // The accelerate-decelerate curve of the overlay's animation.
+        mAlpha = 1 - ((float) Math.cos((t + 1) * Math.PI) / 2 + 0.5f);
+        return true;
+    }
+
+    /**
+     * Draws the toast for one eye. The program and the atlas texture must be bound.
+     *
+     * @param eyeType One of Eye.Type, to pick the direction of the depth offset.
+     * @param aspect The width of the eye's viewport over its height.
+     */
+    void draw(GLStateCache state, int eyeType, float aspect) {
+        if (aspect != mLayoutAspect) {
+            layout(aspect);
+        }
+        float scale = 2 * LINE_HEIGHT / mAtlas.getLineHeight();
+        mTransform[0] = scale / aspect;
+        mTransform[5] = -scale;
+        mTransform[10] = 1;
+        mTransform[12] = 0;
+        mTransform[13] = 1 - 2 * TOP;
+        mTransform[14] = DEPTH;
+        mTransform[15] = 1;
+
+        state.enable(GLES20.GL_BLEND);
+        state.enableVertexAttribArray(mAttribs[0]);
+        state.enableVertexAttribArray(mAttribs[1]);
+        mVertexBuffer.position(0);
+        state.vertexAttribPointer(mAttribs[0], 2, STRIDE, mVertexBuffer);
+        mVertexBuffer.position(2);
+        state.vertexAttribPointer(mAttribs[1], 2, STRIDE, mVertexBuffer);
+        state.uniformMatrix4fv(mTransformParam, mTransform, 0);
+        // In clip space, which spans 2 across the eye.
+        float eyeOffset = eyeType == Eye.Type.LEFT ? 2 * DEPTH_OFFSET
+                : eyeType == Eye.Type.RIGHT ? -2 * DEPTH_OFFSET : 0;
+        state.uniform1f(mEyeOffsetParam, eyeOffset);
+        state.uniform4f(mColorParam, RED * mAlpha, GREEN * mAlpha, BLUE * mAlpha, mAlpha);
+        state.drawArrays(GLES20.GL_TRIANGLES, 0, mVertexCount);
+        state.disable(GLES20.GL_BLEND);
+    }
+
+    /**
+     * Breaks the message into centered lines no wider than MAX_LINE_WIDTH, at spaces where
+     * possible, and writes two triangles per glyph. The origin is the top center of the text.
+     */
+    private void layout(float aspect) {
+        mLayoutAspect = aspect;
+        String text = mMessage;
+        int length = Math.min(text.length(), MAX_GLYPHS);
+        float scale = 2 * LINE_HEIGHT / mAtlas.getLineHeight();
+        float maxWidth = 2 * MAX_LINE_WIDTH * aspect / scale;
+        float padding = mAtlas.getPadding();
+        int floats = 0;
+        float top = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            float width = 0;
+            int lastSpace = -1;
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                char c = text.charAt(lineEnd);
+                float advance = mAtlas.getAdvance(c);
+                if (c == ' ') {
+                    lastSpace = lineEnd;
+                } else if (width + advance > maxWidth && lineEnd > lineStart) {
+                    if (lastSpace > lineStart) {
+                        lineEnd = lastSpace;
+                    }
+                    break;
+                }
+                width += advance;
+                lineEnd++;
+            }
+
+            width = 0;
+            for (int i = lineStart; i < lineEnd; i++) {
+                width += mAtlas.getAdvance(text.charAt(i));
+            }
+            float x = -width / 2;
+            for (int i = lineStart; i < lineEnd; i++) {
+                char c = text.charAt(i);
+                if (c != ' ') {
+                    floats = putGlyph(floats, c, x - padding, top - padding);
+                }
+                x += mAtlas.getAdvance(c);
+            }
+
+            top += mAtlas.getLineHeight();
+            lineStart = lineEnd;
+            // The space or newline the line was broken at starts no line.
+            if (lineStart < length && (text.charAt(lineStart) == ' '
+                    || text.charAt(lineStart) == '\n')) {
+                lineStart++;
+            }
+        }
+        mVertexCount = floats / FLOATS_PER_VERTEX;
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, floats);
+    }
+
+    private int putGlyph(int offset, char c, float left, float top) {
+        float right = left + mAtlas.getCellWidth(c);
+        float bottom = top + mAtlas.getCellHeight();
+        mAtlas.getUvs(c, mUvs, 0);
+        offset = putVertex(offset, left, top, mUvs[0], mUvs[1]);
+        offset = putVertex(offset, left, bottom, mUvs[0], mUvs[3]);
+        offset = putVertex(offset, right, top, mUvs[2], mUvs[1]);
+        offset = putVertex(offset, right, top, mUvs[2], mUvs[1]);
+        offset = putVertex(offset, left, bottom, mUvs[0], mUvs[3]);
+        return putVertex(offset, right, bottom, mUvs[2], mUvs[3]);
+    }
+
+    private int putVertex(int offset, float x, float y, float u, float v) {
+        mVertices[offset] = x;
+        mVertices[offset + 1] = y;
+        mVertices[offset + 2] = u;
+        mVertices[offset + 3] = v;
+        return offset + FLOATS_PER_VERTEX;
+    }
+}
@@ -0,0 +1,370 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a page's video in its own panel, decoded straight into an external texture.
+ *
+ * The video goes through neither the WebView nor the page capture. A MediaPlayer decodes into
+ * the Surface of a SurfaceTexture, and the GL thread latches each new frame as it arrives,
+ * independent of how often the page is captured. The time from a frame's presentation time, as
+ * stamped by the decoder, to the display it is latched for is recorded as
+ * {@link FrameMetrics#STAGE_VIDEO}.
+ *
+ * The player is opened, paused and closed on the UI thread; the texture is created, latched
+ * and released on the GL thread. Each open starts a new generation, so a texture or surface
+ * of an earlier video is never handed to a later player.
+ */
+class VideoPanel implements SurfaceTexture.OnFrameAvailableListener {
+
+    private static final String TAG = "VideoPanel";
+
+    /**
+     * Told on the UI thread when the video closes, by {@link #close()}, at its end or on an
+     * error.
+     */
+    interface Listener {
+        /**
+         * @param positionMs Where playback stopped, to continue the page's video from.
+         * @param failed Whether the video could not be played.
+         */
+        void onVideoClosed(int positionMs, boolean failed);
+    }
+
+    private final Context mContext;
+    private final FrameMetrics mMetrics;
+    private final Listener mListener;
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+
+    // UI thread.
+    private MediaPlayer mPlayer;
+    private String mUrl;
+    private Map<String, String> mHeaders;
+    private int mStartMs;
+    private boolean mPrepared;
+
+    // The generation of the open video, or 0 when closed. Written on the UI thread.
+    private volatile int mGeneration;
+    private int mLastGeneration;
+    private volatile int mVideoWidth;
+    private volatile int mVideoHeight;
+    private final AtomicInteger mPendingFrames = new AtomicInteger();
+    // Set on the UI thread when playback jumps or stops, so the gap to the next frame is not
+    // taken for dropped frames.
+    private volatile boolean mTimelineBroken;
+
+    // GL thread.
+    private int mTextureGeneration;
+    private int mTextureId;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+    private final float[] mSTMatrix = new float[16];
+    private boolean mHasFrame;
+    private long mDroppedFrames;
+    // The presentation time of the last latched frame, and the video's frame interval as seen
+    // from the gaps between frames.
+    private long mLastTimestampNs;
+    private long mFrameIntervalNs;
+
+    VideoPanel(Context context, FrameMetrics metrics, Listener listener) {
+        mContext = context;
+        mMetrics = metrics;
+        mListener = listener;
+        Matrix.setIdentityM(mSTMatrix, 0);
+    }
+
+    /**
+     * Starts playing a video in the panel, closing the one playing. UI thread.
+     *
+     * @param headers Request headers for the video, such as its page's cookies.
+     * @param startMs Where to start playing.
+     */
+    void open(String url, Map<String, String> headers, int startMs) {
+        if (isOpen()) {
+            close();
+        }
+        mUrl = url;
+        mHeaders = headers;
+        mStartMs = startMs;
+        mPrepared = false;
+        mVideoWidth = 0;
+        mVideoHeight = 0;
+        mTimelineBroken = true;
+        // The GL thread creates the texture for the new generation and hands its surface
+        // back, see attachSurface.
+        mGeneration = ++mLastGeneration;
+    }
+
+    /**
+     * @return Whether a video is open, even if it is not showing yet. UI thread.
+     */
+    boolean isOpen() {
+        return mGeneration != 0;
+    }
+
+    /**
+     * Pauses a playing video or resumes a paused one. UI thread.
+     */
+    void togglePause() {
+        if (mPlayer == null || !mPrepared) {
+            return;
+        }
+        if (mPlayer.isPlaying()) {
+            mPlayer.pause();
+        } else {
+            mPlayer.start();
+        }
+        mTimelineBroken = true;
+    }
+
+    /**
+     * Stops the video and hides the panel. UI thread.
+     */
+    void close() {
+        closeWith(false);
+    }
+
+    private void closeWith(boolean failed) {
+        if (!isOpen()) {
+            return;
+        }
+        int positionMs = mStartMs;
+        if (mPlayer != null) {
+            if (mPrepared) {
+                positionMs = mPlayer.getCurrentPosition();
+            }
+            // Released before the GL thread releases the surface it decodes into.
+            mPlayer.release();
+            mPlayer = null;
+        }
+        mGeneration = 0;
+        mListener.onVideoClosed(positionMs, failed);
+    }
+
+    /**
+     * Starts the player on the surface the GL thread created for its generation. UI thread.
+     */
+    private void attachSurface(int generation, Surface surface) {
+        if (generation != mGeneration) {
+            // Closed or replaced meanwhile; the GL thread releases the surface.
+            return;
+        }
+        if (mPlayer != null) {
+            // The GL context was lost and the texture made again.
+            mPlayer.setSurface(surface);
+            return;
+        }
+        final MediaPlayer player = new MediaPlayer();
+        player.setSurface(surface);
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                mPrepared = true;
+                if (mStartMs > 0) {
+                    mp.seekTo(mStartMs);
+                    mTimelineBroken = true;
+                }
+                mp.start();
+            }
+        });
+        player.setOnVideoSizeChangedListener(new MediaPlayer.OnVideoSizeChangedListener() {
+            @Override
+            public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+                mVideoWidth = width;
+                mVideoHeight = height;
+            }
+        });
+        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                if (mp == mPlayer) {
+                    closeWith(false);
+                }
+            }
+        });
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                Log.w(TAG, "Cannot play " + mUrl + ": " + what + "/" + extra);
+                if (mp == mPlayer) {
+                    mPrepared = false;
+                    closeWith(true);
+                }
+                return true;
+            }
+        });
+        mPlayer = player;
+        try {
+            player.setDataSource(mContext, Uri.parse(mUrl), mHeaders);
+            player.prepareAsync();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot open " + mUrl, e);
+            closeWith(true);
+        }
+    }
+
+    /**
+     * Follows the open video and latches its newest frame. GL thread.
+     *
+     * @param frameNs When this frame started.
+     * @param displayLatencyNs How long after its start the frame is expected on the display.
+     * @return Whether there is a video frame to draw.
+     */
+    boolean onNewFrame(GLStateCache state, long frameNs, long displayLatencyNs) {
+        int generation = mGeneration;
+        if (generation != mTextureGeneration) {
+            releaseTexture(state);
+            if (generation == 0) {
+                return false;
+            }
+            createTexture(state, generation);
+        }
+        if (mSurfaceTexture == null) {
+            return false;
+        }
+        if (mPendingFrames.getAndSet(0) > 0) {
+            mSurfaceTexture.updateTexImage();
+            mSurfaceTexture.getTransformMatrix(mSTMatrix);
+            mHasFrame = true;
+            // When the decoder meant the frame to be shown; replaced frames never call back,
+            // so drops show as gaps between these.
+            long timestampNs = mSurfaceTexture.getTimestamp();
+            if (mTimelineBroken) {
+                mTimelineBroken = false;
+                mLastTimestampNs = 0;
+            }
+            if (timestampNs > 0) {
+                countDroppedFrames(timestampNs);
+                mMetrics.record(FrameMetrics.STAGE_VIDEO,
+                        frameNs + displayLatencyNs - timestampNs);
+            }
+        }
+        return mHasFrame && mVideoWidth > 0 && mVideoHeight > 0;
+    }
+
+    /**
+     * Counts the frames missing between the last latched frame and this one. GL thread.
+     */
+    private void countDroppedFrames(long timestampNs) {
+        long last = mLastTimestampNs;
+        mLastTimestampNs = timestampNs;
+        if (last == 0 || timestampNs <= last) {
+            return;
+        }
+        long gap = timestampNs - last;
+        if (mFrameIntervalNs == 0 || gap < mFrameIntervalNs * 3 / 4) {
+            mFrameIntervalNs = gap;
+        } else if (gap < mFrameIntervalNs * 3 / 2) {
+            // Follows slow drift of the rate.
+            mFrameIntervalNs += (gap - mFrameIntervalNs) / 8;
+        } else {
+            mDroppedFrames += (gap + mFrameIntervalNs / 2) / mFrameIntervalNs - 1;
+        }
+    }
+
+    int getTextureId() {
+        return mTextureId;
+    }
+
+    float[] getSTMatrix() {
+        return mSTMatrix;
+    }
+
+    /**
+     * @return The width of the video over its height, once known.
+     */
+    float getAspect() {
+        int height = mVideoHeight;
+        return height > 0 ? (float) mVideoWidth / height : 1;
+    }
+
+    /**
+     * @return How many frames were missing between the latched ones, going by their
+     *         presentation times: replaced by a newer one before being latched, or dropped by
+     *         the decoder.
+     */
+    long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Forgets the texture after the GL context was lost; the next frame makes a new one and
+     * hands its surface to the player. GL thread.
+     */
+    void abandonTexture() {
+        if (mSurfaceTexture == null) {
+            return;
+        }
+        mSurface.release();
+        mSurface = null;
+        mSurfaceTexture.release();
+        mSurfaceTexture = null;
+        mTextureId = 0;
+        mTextureGeneration = 0;
+        mHasFrame = false;
+    }
+
+    private void createTexture(GLStateCache state, int generation) {
+        mTextureId = state.genTexture();
+        state.bindTexture(MainActivity.GL_TEXTURE_EXTERNAL_OES, mTextureId);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        state.texParameteri(MainActivity.GL_TEXTURE_EXTERNAL_OES,
+                GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(this);
+        mPendingFrames.set(0);
+        mHasFrame = false;
+        mLastTimestampNs = 0;
+        mFrameIntervalNs = 0;
+        Matrix.setIdentityM(mSTMatrix, 0);
+        mSurface = new Surface(mSurfaceTexture);
+        mTextureGeneration = generation;
+
+        final int attachGeneration = generation;
+        final Surface surface = mSurface;
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                attachSurface(attachGeneration, surface);
+            }
+        });
+    }
+
+    private void releaseTexture(GLStateCache state) {
+        if (mSurfaceTexture == null) {
+            return;
+        }
+        mSurface.release();
+        mSurface = null;
+        mSurfaceTexture.release();
+        mSurfaceTexture = null;
+        state.deleteTexture(mTextureId);
+        mTextureId = 0;
+        mTextureGeneration = 0;
+        mHasFrame = false;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        mPendingFrames.incrementAndGet();
+    }
+}
@@ -0,0 +1,89 @@
+package com.entireangle.zerohoon.cardboardwebbrowser;
+
+import android.util.Log;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+
+import com.entireangle.zerohoon.cardboardwebbrowser.net.HttpResourceCache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Serves the pages' subresources from an {@link HttpResourceCache} on disk, in place of the
+ * platform cache, which evicts them too soon to help when a page is opened again.
+ *
+ * Only GET requests for http and https subresources are served. Page loads themselves are
+ * left to the WebView, which handles their redirects, POSTs and history; so is anything that
+ * fails, which the WebView then loads itself. Cookies go through the WebView's CookieManager,
+ * and only for requests to the page's own site unless the WebView accepts third-party cookies.
+ * A third-party request with cookies is left to the WebView, which applies its own policy.
+ * Shared by all tabs; called on the WebViews' I/O threads.
+ */
+class WebResourceCache {
+
+    private static final String TAG = "WebResourceCache";
+
+    private final HttpResourceCache mCache;
+
+    /**
+     * Does no I/O; the directory is read on the first request.
+     */
+    WebResourceCache(File directory, long maxBytes) {
+        mCache = new HttpResourceCache(directory, maxBytes, new HttpResourceCache.CookieJar() {
+            @Override
+            public String getCookie(String url) {
+                return CookieManager.getInstance().getCookie(url);
+            }
+
+            @Override
+            public void setCookie(String url, String setCookie) {
+                CookieManager.getInstance().setCookie(url, setCookie);
+            }
+        });
+    }
+
+    /**
+     * @param firstPartyUrl The URL of the page the request is made for, or null if unknown.
+     * @param thirdPartyCookies Whether the WebView accepts third-party cookies.
+     * @return The response for the request, or null to let the WebView load it.
+     */
+    WebResourceResponse intercept(WebResourceRequest request, String firstPartyUrl,
+            boolean thirdPartyCookies) {
+        String scheme = request.getUrl().getScheme();
+        if (request.isForMainFrame() || !"GET".equals(request.getMethod())
+                || !("http".equals(scheme) || "https".equals(scheme))) {
+            return null;
+        }
+        String url = request.getUrl().toString();
+        boolean withCookies = thirdPartyCookies || HttpResourceCache.isSameSite(url, firstPartyUrl);
+        if (!withCookies && CookieManager.getInstance().getCookie(url) != null) {
+            return null;
+        }
+        HttpResourceCache.Response response;
+        try {
+            response = mCache.fetch(url, request.getRequestHeaders(), withCookies);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot fetch " + url + ": " + e);
+            return null;
+        }
+        if (response == null) {
+            return null;
+        }
+        String reason = response.getReasonPhrase();
+        if (reason == null || reason.isEmpty()) {
+            // WebResourceResponse rejects an empty reason phrase.
+            reason = response.getStatusCode() < 400 ? "OK" : "Error";
+        }
+        return new WebResourceResponse(response.getMimeType(), response.getEncoding(),
+                response.getStatusCode(), reason, response.getHeaders(), response.getBody());
+    }
+
+    /**
+     * @return The hit and miss counts and sizes so far, for logging.
+     */
+    String dump() {
+        return mCache.dump();
+    }
+}
@@ -16,262 +16,40 @@
 
 package com.entireangle.zerohoon.cardboardwebbrowser;
 
+import android.opengl.GLES20;
+
 /**
- * Contains vertex, normal and color data.
+ * Contains the vertex data of the page panel.
+ *
+ * Meshes come out of a {@link MeshBuilder} with interleaved attributes, for upload into a
+ * {@link MeshStore}.
  */
 public final class WorldLayoutData {
 
-    public static final float[] POINTER_COORDS = new float[]{
-            -0.005f, -0.005f, 0.2f,  // bottom left
-            0.005f, -0.005f, 0.2f,   // bottom right
-            -0.005f,  0.005f, 0.2f,  // top left
-            0.005f,  0.005f, 0.2f    // top right
-    };
-
-    public static final float[] SQURE_VERTEX = new float[]{
-            -1.0f, -1.0f, 0.0f, 1.0f  // bottom left
-    };
-    public static final float[] SQURE_COORDS = new float[]{
+    private static final float[] SQURE_COORDS = new float[]{
             -1.0f, -1.0f, 0.0f,  // bottom left
             1.0f, -1.0f, 0.0f,   // bottom right
             -1.0f,  1.0f, 0.0f,  // top left
             1.0f,  1.0f, 0.0f    // top right
     };
-    public static final float[] SQUARE_NORMAL = new float[]{
-            0.0f, 0.0f, 1.0f, 0
-    };
 
-    public static final float[] TEX_COORDS = new float[]{
+    private static final float[] TEX_COORDS = new float[]{
             0.0f, 0.0f,  // bottom left
             1.0f, 0.0f,   // bottom right
             0.0f, 1.0f,  // top left
             1.0f,  1.0f   // top right
     };
 
-    public static final float[] CUBE_COORDS = new float[] {
-            // Front face
-            -1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-
-            // Right face
-            1.0f, 1.0f, 1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, -1.0f, -1.0f,
-            1.0f, 1.0f, -1.0f,
-
-            // Back face
-            1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, -1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, -1.0f,
-
-            // Left face
-            -1.0f, 1.0f, -1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, -1.0f, 1.0f,
-            -1.0f, 1.0f, 1.0f,
-
-            // Top face
-            -1.0f, 1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-
-            // Bottom face
-            1.0f, -1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-    };
-
-    public static final float[] CUBE_COLORS = new float[] {
-            // front, green
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-
-            // right, blue
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-
-            // back, also green
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-
-            // left, also blue
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-
-            // top, red
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-
-            // bottom, also red
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-            0.8359375f,  0.17578125f,  0.125f, 1.0f,
-    };
-
-    public static final float[] CUBE_FOUND_COLORS = new float[] {
-            // front, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-
-            // right, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-
-            // back, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-
-            // left, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-
-            // top, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-
-            // bottom, yellow
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-            1.0f,  0.6523f, 0.0f, 1.0f,
-    };
-
-    public static final float[] CUBE_NORMALS = new float[] {
-            // Front face
-            0.0f, 0.0f, 1.0f,
-            0.0f, 0.0f, 1.0f,
-            0.0f, 0.0f, 1.0f,
-            0.0f, 0.0f, 1.0f,
-            0.0f, 0.0f, 1.0f,
-            0.0f, 0.0f, 1.0f,
-
-            // Right face
-            1.0f, 0.0f, 0.0f,
-            1.0f, 0.0f, 0.0f,
-            1.0f, 0.0f, 0.0f,
-            1.0f, 0.0f, 0.0f,
-            1.0f, 0.0f, 0.0f,
-            1.0f, 0.0f, 0.0f,
-
-            // Back face
-            0.0f, 0.0f, -1.0f,
-            0.0f, 0.0f, -1.0f,
-            0.0f, 0.0f, -1.0f,
-            0.0f, 0.0f, -1.0f,
-            0.0f, 0.0f, -1.0f,
-            0.0f, 0.0f, -1.0f,
+    private WorldLayoutData() {
+    }
 
-            // Left face
-            -1.0f, 0.0f, 0.0f,
-            -1.0f, 0.0f, 0.0f,
-            -1.0f, 0.0f, 0.0f,
-            -1.0f, 0.0f, 0.0f,
-            -1.0f, 0.0f, 0.0f,
-            -1.0f, 0.0f, 0.0f,
-
-            // Top face
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-
-            // Bottom face
-            0.0f, -1.0f, 0.0f,
-            0.0f, -1.0f, 0.0f,
-            0.0f, -1.0f, 0.0f,
-            0.0f, -1.0f, 0.0f,
-            0.0f, -1.0f, 0.0f,
-            0.0f, -1.0f, 0.0f
-    };
-
-    public static final float[] FLOOR_COORDS = new float[] {
-            200f, 0, -200f,
-            -200f, 0, -200f,
-            -200f, 0, 200f,
-            200f, 0, -200f,
-            -200f, 0, 200f,
-            200f, 0, 200f,
-    };
-
-    public static final float[] FLOOR_NORMALS = new float[] {
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-            0.0f, 1.0f, 0.0f,
-    };
-
-    public static final float[] FLOOR_COLORS = new float[] {
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-    };
+    /**
+     * The page panel: a triangle strip spanning -1..1 in x and y, with position (3) and
+     * texture coordinate (2) per vertex.
+     */
+    public static MeshBuilder.Mesh pageQuad() {
+        return new MeshBuilder(GLES20.GL_TRIANGLE_STRIP, 3, 2)
+                .vertices(SQURE_COORDS, TEX_COORDS)
+                .build();
+    }
 }
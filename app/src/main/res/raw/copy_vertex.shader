@@ -0,0 +1,12 @@
+uniform mat4 uSTMatrix;
+
+attribute vec4 a_Position;
+attribute vec4 a_TextureCoord;
+
+varying vec2 v_TextureCoord;
+
+void main() {
+   // The page quad already spans clip space, so it covers the whole target texture.
+   gl_Position = vec4(a_Position.xy, 0.0, 1.0);
+   v_TextureCoord = (uSTMatrix * a_TextureCoord).xy;
+}
@@ -0,0 +1,9 @@
+precision mediump float;
+uniform sampler2D u_Texture;
+// The text color, premultiplied by the fade.
+uniform vec4 u_Color;
+varying vec2 v_TexCoordinate;
+
+void main() {
+    gl_FragColor = texture2D(u_Texture, v_TexCoordinate) * u_Color;
+}
@@ -0,0 +1,14 @@
+uniform mat4 u_Transform;
+// Shifts the eye's image horizontally, in clip space, so the text appears at a depth.
+uniform float u_EyeOffset;
+
+attribute vec4 a_Position;
+attribute vec2 a_TexCoordinate;
+
+varying vec2 v_TexCoordinate;
+
+void main() {
+   v_TexCoordinate = a_TexCoordinate;
+   gl_Position = u_Transform * a_Position;
+   gl_Position.x += u_EyeOffset * gl_Position.w;
+}
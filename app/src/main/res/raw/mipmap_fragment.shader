@@ -0,0 +1,7 @@
+precision mediump float;
+varying vec2 v_TextureCoord;
+uniform sampler2D sTexture;
+
+void main() {
+    gl_FragColor = texture2D(sTexture, v_TextureCoord);
+}
@@ -0,0 +1,6 @@
+precision mediump float;
+
+void main() {
+    // Light grey, where the page will appear once its first frame is captured.
+    gl_FragColor = vec4(0.85, 0.85, 0.85, 1.0);
+}
@@ -0,0 +1,51 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame hit-testing against a growing number of panels, to see that the cost stays
+ * linear in the panels with no matrix inverted per panel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GazeHitTesterBenchmark {
+
+    @Param({ "1", "4", "16", "64" })
+    public int panels;
+
+    private GazeHitTester mTester;
+    private final float[] mHeadView = new float[16];
+
+    @Setup
+    public void setUp() {
+        MatrixMath.setRotateM(mHeadView, 0, 12, 0.2f, 1, 0.1f);
+        mTester = new GazeHitTester(panels);
+        float[] model = new float[16];
+        for (int i = 0; i < panels; i++) {
+            MatrixMath.setRotateM(model, 0, i * 360.0f / panels, 0, 1, 0);
+            MatrixMath.translateM(model, 0, 0, 0, -1.5f);
+            mTester.addPanel(model);
+        }
+    }
+
+    @Benchmark
+    public int hitTest() {
+        return mTester.hitTest(mHeadView);
+    }
+}
@@ -0,0 +1,59 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The gaze math besides hit-testing, see {@link GazeHitTesterBenchmark}, that runs once per
+ * frame in the render loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GazeMathBenchmark {
+
+    private final float[] mHeadView = new float[16];
+    private final float[] mModel = new float[16];
+    private final float[] mHit = new float[] { 0.1f, 0.2f, 0, 1 };
+    private final float[] mQuad = new float[12];
+    private final float[] mInverse = new float[16];
+    private final float[] mProduct = new float[16];
+
+    @Setup
+    public void setUp() {
+        MatrixMath.setRotateM(mHeadView, 0, 12, 0.2f, 1, 0.1f);
+        MatrixMath.setIdentityM(mModel, 0);
+        MatrixMath.translateM(mModel, 0, 0, 0, -1.5f);
+    }
+
+    @Benchmark
+    public float[] pointerCoordinate() {
+        GazeMath.getPointerCoordinate(mQuad, mHit);
+        return mQuad;
+    }
+
+    @Benchmark
+    public float[] invert() {
+        MatrixMath.invertM(mInverse, 0, mHeadView, 0);
+        return mInverse;
+    }
+
+    @Benchmark
+    public float[] multiply() {
+        MatrixMath.multiplyMM(mProduct, 0, mHeadView, 0, mModel, 0);
+        return mProduct;
+    }
+}
@@ -0,0 +1,67 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+/**
+ * Tells when the gaze has come to rest on something.
+ *
+ * The gaze settles where a sample lands more than the radius away from the previous anchor,
+ * and dwells once later samples have stayed within the radius of it for the dwell time. The
+ * head never holds perfectly still, so the radius is what tells resting from looking around.
+ * Each dwell is reported once; the gaze has to move away and settle again to dwell again.
+ */
+public final class DwellTracker {
+
+    private final float mRadiusSquared;
+    private final long mDwellNs;
+    private boolean mHasAnchor;
+    private float mAnchorX;
+    private float mAnchorY;
+    private long mAnchorNs;
+    private boolean mReported;
+
+    /**
+     * @param radius How far the gaze may wander while it rests, in the units of the samples.
+     */
+    public DwellTracker(float radius, long dwellNs) {
+        mRadiusSquared = radius * radius;
+        mDwellNs = dwellNs;
+    }
+
+    /**
+     * Adds a gaze sample, in time order.
+     *
+     * @return true if the gaze dwells as of this sample, once per dwell.
+     */
+    public boolean addSample(float x, float y, long timeNs) {
+        float dx = x - mAnchorX;
+        float dy = y - mAnchorY;
+        if (!mHasAnchor || dx * dx + dy * dy > mRadiusSquared) {
+            mHasAnchor = true;
+            mAnchorX = x;
+            mAnchorY = y;
+            mAnchorNs = timeNs;
+            mReported = false;
+            return false;
+        }
+        if (!mReported && timeNs - mAnchorNs >= mDwellNs) {
+            mReported = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return When the gaze will dwell if it stays within the radius, or Long.MAX_VALUE if
+     *         it has no anchor or its dwell was already reported.
+     */
+    public long getDwellTimeNs() {
+        return mHasAnchor && !mReported ? mAnchorNs + mDwellNs : Long.MAX_VALUE;
+    }
+
+    /**
+     * Forgets the anchor, for when the gaze leaves what it was resting on.
+     */
+    public void reset() {
+        mHasAnchor = false;
+        mReported = false;
+    }
+}
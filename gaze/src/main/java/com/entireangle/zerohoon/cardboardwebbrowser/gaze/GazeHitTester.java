@@ -0,0 +1,208 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+/**
+ * Hit-tests the head's forward ray against a set of flat panels.
+ *
+ * Each panel lies in the z = 0 plane of its model space and spans a rectangle there. The
+ * world-to-panel transform is inverted once when the panel's model matrix is set, not per
+ * frame. Per frame the head ray is brought into world space in closed form, which only needs
+ * the head view to be rigid, and then into each panel's space with the cached inverse, so
+ * hit-testing costs a couple of dozen multiply-adds per panel and no matrix inversion.
+ *
+ * Not thread safe and does not allocate after construction; use it from the GL thread.
+ */
+public final class GazeHitTester {
+
+    /** Returned by {@link #hitTest} when the ray misses every panel. */
+    public static final int NO_PANEL = -1;
+
+    private final int mCapacity;
+    private int mPanelCount;
+    // 16 floats per panel: the inverse of its model matrix.
+    private final float[] mWorldToPanel;
+    // 4 floats per panel: left, bottom, right and top in model space.
+    private final float[] mBounds;
+    // 4 floats per panel: the last hit in model space, x, y, 0, 1.
+    private final float[] mHits;
+    // 2 floats per panel: the last hit in UV, origin at the top left.
+    private final float[] mUvs;
+    private final float[] mDistances;
+    private final boolean[] mHitValid;
+
+    private final float[] mRayOrigin = new float[4];
+    private final float[] mRayDirection = new float[4];
+
+    public GazeHitTester(int capacity) {
+        mCapacity = capacity;
+        mWorldToPanel = new float[capacity * 16];
+        mBounds = new float[capacity * 4];
+        mHits = new float[capacity * 4];
+        mUvs = new float[capacity * 2];
+        mDistances = new float[capacity];
+        mHitValid = new boolean[capacity];
+    }
+
+    /**
+     * Adds a panel spanning -1..1 on both axes of its model space.
+     *
+     * @return The index of the new panel.
+     */
+    public int addPanel(float[] model) {
+        return addPanel(model, -1, -1, 1, 1);
+    }
+
+    /**
+     * Adds a panel spanning the given rectangle of its model space.
+     *
+     * @return The index of the new panel.
+     */
+    public int addPanel(float[] model, float left, float bottom, float right, float top) {
+        if (mPanelCount == mCapacity) {
+            throw new IllegalStateException("No room for more than " + mCapacity + " panels");
+        }
+        int panel = mPanelCount++;
+        mBounds[panel * 4] = left;
+        mBounds[panel * 4 + 1] = bottom;
+        mBounds[panel * 4 + 2] = right;
+        mBounds[panel * 4 + 3] = top;
+        setPanelModel(panel, model);
+        return panel;
+    }
+
+    public int getPanelCount() {
+        return mPanelCount;
+    }
+
+    /**
+     * Updates the model matrix of a panel. This is the only place its inverse is computed.
+     */
+    public void setPanelModel(int panel, float[] model) {
+        if (!MatrixMath.invertM(mWorldToPanel, panel * 16, model, 0)) {
+            throw new IllegalArgumentException("Panel model matrix is singular");
+        }
+    }
+
+    /**
+     * Intersects the head ray with every panel.
+     *
+     * @param headView The head view matrix of this frame, a rigid world-to-head transform.
+     * @return The index of the nearest panel hit in front of the head, or {@link #NO_PANEL}.
+     */
+    public int hitTest(float[] headView) {
+        setHeadRay(headView);
+        int nearest = NO_PANEL;
+        for (int panel = 0; panel < mPanelCount; panel++) {
+            if (intersect(panel) && (nearest == NO_PANEL || mDistances[panel] < mDistances[nearest])) {
+                nearest = panel;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Intersects the head ray with the plane of one panel only.
+     *
+     * @return true if the ray hits the panel's rectangle in front of the head. The plane hit
+     * is available through {@link #getHit} either way, unless the ray is parallel to it.
+     */
+    public boolean hitTest(float[] headView, int panel) {
+        setHeadRay(headView);
+        return intersect(panel);
+    }
+
+    /**
+     * Copies the last hit on the panel's plane, in its model space.
+     *
+     * @param out Receives x, y, z and w.
+     */
+    public void getHit(int panel, float[] out) {
+        System.arraycopy(mHits, panel * 4, out, 0, 4);
+    }
+
+    /**
+     * Copies the last hit on the panel in UV, 0..1 across its rectangle with the origin at
+     * the top left, as pages are laid out.
+     */
+    public void getUv(int panel, float[] out) {
+        out[0] = mUvs[panel * 2];
+        out[1] = mUvs[panel * 2 + 1];
+    }
+
+    /**
+     * @return Whether the last hit test of the panel landed inside its rectangle.
+     */
+    public boolean isHit(int panel) {
+        return mHitValid[panel];
+    }
+
+    /**
+     * @return How far along the head ray the last hit test met the panel's plane, negative if
+     * the plane is behind the head and NaN if the ray is parallel to it. Lets callers use
+     * hits on the plane outside the panel's rectangle.
+     */
+    public float getDistance(int panel) {
+        return mDistances[panel];
+    }
+
+    /**
+     * The head looks down its -z axis from its origin. For headView = [R | t] the inverse is
+     * [R^T | -R^T t], so the ray in world space can be read off the matrix directly.
+     */
+    private void setHeadRay(float[] h) {
+        float tx = h[12];
+        float ty = h[13];
+        float tz = h[14];
+        mRayOrigin[0] = -(h[0] * tx + h[1] * ty + h[2] * tz);
+        mRayOrigin[1] = -(h[4] * tx + h[5] * ty + h[6] * tz);
+        mRayOrigin[2] = -(h[8] * tx + h[9] * ty + h[10] * tz);
+        mRayOrigin[3] = 1.0f;
+        mRayDirection[0] = -h[2];
+        mRayDirection[1] = -h[6];
+        mRayDirection[2] = -h[10];
+        mRayDirection[3] = 0.0f;
+    }
+
+    private boolean intersect(int panel) {
+        float[] m = mWorldToPanel;
+        int o = panel * 16;
+        float ox = mRayOrigin[0];
+        float oy = mRayOrigin[1];
+        float oz = mRayOrigin[2];
+        float dx = mRayDirection[0];
+        float dy = mRayDirection[1];
+        float dz = mRayDirection[2];
+
+        // Only the z of the direction is needed to tell a parallel ray.
+        float localDz = m[o + 2] * dx + m[o + 6] * dy + m[o + 10] * dz;
+        mHitValid[panel] = false;
+        if (localDz == 0.0f) {
+            mDistances[panel] = Float.NaN;
+            return false;
+        }
+        float localOz = m[o + 2] * ox + m[o + 6] * oy + m[o + 10] * oz + m[o + 14];
+        float t = -localOz / localDz;
+
+        float localOx = m[o] * ox + m[o + 4] * oy + m[o + 8] * oz + m[o + 12];
+        float localOy = m[o + 1] * ox + m[o + 5] * oy + m[o + 9] * oz + m[o + 13];
+        float localDx = m[o] * dx + m[o + 4] * dy + m[o + 8] * dz;
+        float localDy = m[o + 1] * dx + m[o + 5] * dy + m[o + 9] * dz;
+        float x = localOx + t * localDx;
+        float y = localOy + t * localDy;
+        mHits[panel * 4] = x;
+        mHits[panel * 4 + 1] = y;
+        mHits[panel * 4 + 2] = 0.0f;
+        mHits[panel * 4 + 3] = 1.0f;
+
+        float left = mBounds[panel * 4];
+        float bottom = mBounds[panel * 4 + 1];
+        float right = mBounds[panel * 4 + 2];
+        float top = mBounds[panel * 4 + 3];
+        mUvs[panel * 2] = (x - left) / (right - left);
+        mUvs[panel * 2 + 1] = (top - y) / (top - bottom);
+        // The direction is unit length in world space, so t is the distance along it.
+        mDistances[panel] = t;
+
+        mHitValid[panel] = t > 0 && x >= left && x <= right && y >= bottom && y <= top;
+        return mHitValid[panel];
+    }
+}
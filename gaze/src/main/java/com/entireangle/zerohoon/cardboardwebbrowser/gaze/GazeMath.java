@@ -0,0 +1,61 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+/**
+ * Gaze math of the browser besides hit-testing, which is {@link GazeHitTester}'s: the
+ * pointer quad drawn at the hit and where the panel is moved to.
+ *
+ * Instances hold scratch space so that none of the methods allocate; use one instance per
+ * thread.
+ */
+public final class GazeMath {
+
+    // Half the edge length of the pointer quad, in panel units.
+    public static final float POINTER_HALF_SIZE = 0.005f;
+    // How far the pointer floats in front of the panel, in panel units.
+    public static final float POINTER_Z_OFFSET = 0.05f;
+
+    private final float[] mRotation = new float[16];
+    private final float[] mPosition = new float[4];
+
+    /**
+     * Writes the triangle strip of the pointer quad around the given vertex.
+     *
+     * @param out Destination for the 4 vertices, at least 12 floats.
+     * @param v The vertex the pointer is centered on.
+     */
+    public static void getPointerCoordinate(float[] out, float[] v) {
+        float lx = v[0] - POINTER_HALF_SIZE;
+        float rx = v[0] + POINTER_HALF_SIZE;
+        float by = v[1] - POINTER_HALF_SIZE;
+        float ty = v[1] + POINTER_HALF_SIZE;
+        float z = v[2] + POINTER_Z_OFFSET;
+
+        out[0] = lx; out[1] = by;  out[2] = z;
+        out[3] = rx; out[4] = by;  out[5] = z;
+        out[6] = lx; out[7] = ty;  out[8] = z;
+        out[9] = rx; out[10] = ty; out[11] = z;
+    }
+
+    /**
+     * Moves the panel by rotating it around the user and changing its distance.
+     *
+     * @param model The panel's model matrix, updated in place.
+     * @param oldDistance The panel's current distance.
+     * @param newDistance The distance to move it to.
+     * @param angleXZ Rotation in the XZ plane, in degrees.
+     * @param angleY Elevation, in degrees.
+     */
+    public void movePanel(float[] model, float oldDistance, float newDistance,
+            float angleXZ, float angleY) {
+        MatrixMath.setRotateM(mRotation, 0, angleXZ, 0f, 1f, 0f);
+        float objectScalingFactor = newDistance / oldDistance;
+        MatrixMath.scaleM(mRotation, 0, objectScalingFactor, objectScalingFactor,
+                objectScalingFactor);
+        MatrixMath.multiplyMV(mPosition, 0, mRotation, 0, model, 12);
+
+        float newY = (float) Math.tan((float) Math.toRadians(angleY)) * newDistance;
+
+        MatrixMath.setIdentityM(model, 0);
+        MatrixMath.translateM(model, 0, mPosition[0], newY, mPosition[2]);
+    }
+}
@@ -0,0 +1,247 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+/**
+ * Extrapolates the head orientation to the time a frame reaches the display, so that the
+ * gaze pointer is drawn, and clicks land, where the head will be rather than where it was
+ * when the frame started.
+ *
+ * The angular velocity is the rotation between the oldest and newest head views of a short
+ * history divided by the time between them, which smooths sensor jitter over a few frames.
+ * The newest orientation is then rotated on by that velocity for the requested horizon. The
+ * translation of the head view, which only comes from the neck model, is kept as it is.
+ *
+ * Below a few degrees per second the head is taken to be still and the prediction fades
+ * out, so that sensor noise of a still head does not make the pointer jitter more.
+ *
+ * Not thread safe and does not allocate after construction; use it from the GL thread.
+ */
+public final class HeadPosePredictor {
+
+    public static final int DEFAULT_HISTORY = 4;
+    // Horizons are clamped to this; beyond it an extrapolation overshoots more than it helps.
+    public static final long MAX_HORIZON_NS = 100000000L;
+    // Samples further apart than this start a new history, e.g. after a pause.
+    private static final long MAX_SAMPLE_GAP_NS = 100000000L;
+    // Angular speeds in radians per nanosecond over which the prediction fades in.
+    private static final double STILL_SPEED = Math.toRadians(2) / 1e9;
+    private static final double MOVING_SPEED = Math.toRadians(5) / 1e9;
+
+    private final int mCapacity;
+    private int mCount;
+    private int mNewest;
+    private final long[] mTimes;
+    // 4 floats per sample: the rotation of the head view as a quaternion x, y, z, w.
+    private final float[] mRotations;
+    private final float[] mTranslation = new float[3];
+
+    // Rotation per nanosecond, as an axis and an angle.
+    private final float[] mAxis = new float[3];
+    private double mAngularSpeed;
+
+    private final float[] mDelta = new float[4];
+    private final float[] mPredicted = new float[4];
+
+    public HeadPosePredictor() {
+        this(DEFAULT_HISTORY);
+    }
+
+    /**
+     * @param history How many samples the velocity is estimated over, at least 2.
+     */
+    public HeadPosePredictor(int history) {
+        if (history < 2) {
+            throw new IllegalArgumentException("Need at least 2 samples, got " + history);
+        }
+        mCapacity = history;
+        mTimes = new long[history];
+        mRotations = new float[history * 4];
+    }
+
+    /**
+     * Forgets the history, so the next prediction is the next sample as it is.
+     */
+    public void reset() {
+        mCount = 0;
+        mAngularSpeed = 0;
+    }
+
+    /**
+     * Adds the head view of a frame.
+     *
+     * @param timeNs When the head view was sampled, on a monotonic clock.
+     * @param headView A rigid world-to-head transform.
+     */
+    public void addSample(long timeNs, float[] headView) {
+        if (mCount > 0 && (timeNs <= mTimes[mNewest]
+                || timeNs - mTimes[mNewest] > MAX_SAMPLE_GAP_NS)) {
+            reset();
+        }
+        mNewest = mCount == 0 ? 0 : (mNewest + 1) % mCapacity;
+        if (mCount < mCapacity) {
+            mCount++;
+        }
+        mTimes[mNewest] = timeNs;
+        toQuaternion(mRotations, mNewest * 4, headView);
+        mTranslation[0] = headView[12];
+        mTranslation[1] = headView[13];
+        mTranslation[2] = headView[14];
+        updateVelocity();
+    }
+
+    /**
+     * Writes the head view predicted for the given time after the newest sample.
+     *
+     * @param out Receives the predicted head view, 16 floats.
+     * @param horizonNs How far ahead to predict, clamped to 0..{@link #MAX_HORIZON_NS}.
+     */
+    public void predict(float[] out, long horizonNs) {
+        if (mCount == 0) {
+            MatrixMath.setIdentityM(out, 0);
+            return;
+        }
+        long horizon = Math.max(0, Math.min(horizonNs, MAX_HORIZON_NS));
+        double gain = Math.max(0, Math.min(1,
+                (mAngularSpeed - STILL_SPEED) / (MOVING_SPEED - STILL_SPEED)));
+        double halfAngle = mAngularSpeed * gain * horizon * 0.5;
+        float s = (float) Math.sin(halfAngle);
+        mDelta[0] = mAxis[0] * s;
+        mDelta[1] = mAxis[1] * s;
+        mDelta[2] = mAxis[2] * s;
+        mDelta[3] = (float) Math.cos(halfAngle);
+        multiply(mPredicted, mDelta, 0, mRotations, mNewest * 4);
+        toMatrix(out, mPredicted);
+        out[12] = mTranslation[0];
+        out[13] = mTranslation[1];
+        out[14] = mTranslation[2];
+    }
+
+    /**
+     * @return The estimated angular speed of the head, in radians per second.
+     */
+    public float getAngularSpeed() {
+        return (float) (mAngularSpeed * 1e9);
+    }
+
+    /**
+     * The newest rotation is the oldest one rotated by delta = newest * conjugate(oldest),
+     * which turns by its angle about its axis over the time between them.
+     */
+    private void updateVelocity() {
+        mAngularSpeed = 0;
+        if (mCount < 2) {
+            return;
+        }
+        int oldest = (mNewest - mCount + 1 + mCapacity) % mCapacity;
+        float[] r = mRotations;
+        int n = mNewest * 4;
+        int o = oldest * 4;
+        // newest * conjugate(oldest)
+        float ox = -r[o];
+        float oy = -r[o + 1];
+        float oz = -r[o + 2];
+        float ow = r[o + 3];
+        float x = r[n + 3] * ox + r[n] * ow + r[n + 1] * oz - r[n + 2] * oy;
+        float y = r[n + 3] * oy - r[n] * oz + r[n + 1] * ow + r[n + 2] * ox;
+        float z = r[n + 3] * oz + r[n] * oy - r[n + 1] * ox + r[n + 2] * ow;
+        float w = r[n + 3] * ow - r[n] * ox - r[n + 1] * oy - r[n + 2] * oz;
+        // q and -q are the same rotation; take the short way round.
+        if (w < 0) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+        }
+        double sinHalf = Math.sqrt(x * x + y * y + z * z);
+        if (sinHalf < 1e-9) {
+            return;
+        }
+        double angle = 2 * Math.atan2(sinHalf, w);
+        mAxis[0] = (float) (x / sinHalf);
+        mAxis[1] = (float) (y / sinHalf);
+        mAxis[2] = (float) (z / sinHalf);
+        mAngularSpeed = angle / (mTimes[mNewest] - mTimes[oldest]);
+    }
+
+    private static void multiply(float[] out, float[] a, int ao, float[] b, int bo) {
+        float ax = a[ao];
+        float ay = a[ao + 1];
+        float az = a[ao + 2];
+        float aw = a[ao + 3];
+        float bx = b[bo];
+        float by = b[bo + 1];
+        float bz = b[bo + 2];
+        float bw = b[bo + 3];
+        out[0] = aw * bx + ax * bw + ay * bz - az * by;
+        out[1] = aw * by - ax * bz + ay * bw + az * bx;
+        out[2] = aw * bz + ax * by - ay * bx + az * bw;
+        out[3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * Reads the rotation of a column-major matrix as a unit quaternion.
+     */
+    private static void toQuaternion(float[] out, int offset, float[] m) {
+        float trace = m[0] + m[5] + m[10];
+        float x;
+        float y;
+        float z;
+        float w;
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1.0) * 2;
+            w = 0.25f * s;
+            x = (m[6] - m[9]) / s;
+            y = (m[8] - m[2]) / s;
+            z = (m[1] - m[4]) / s;
+        } else if (m[0] > m[5] && m[0] > m[10]) {
+            float s = (float) Math.sqrt(1.0 + m[0] - m[5] - m[10]) * 2;
+            w = (m[6] - m[9]) / s;
+            x = 0.25f * s;
+            y = (m[4] + m[1]) / s;
+            z = (m[8] + m[2]) / s;
+        } else if (m[5] > m[10]) {
+            float s = (float) Math.sqrt(1.0 + m[5] - m[0] - m[10]) * 2;
+            w = (m[8] - m[2]) / s;
+            x = (m[4] + m[1]) / s;
+            y = 0.25f * s;
+            z = (m[9] + m[6]) / s;
+        } else {
+            float s = (float) Math.sqrt(1.0 + m[10] - m[0] - m[5]) * 2;
+            w = (m[1] - m[4]) / s;
+            x = (m[8] + m[2]) / s;
+            y = (m[9] + m[6]) / s;
+            z = 0.25f * s;
+        }
+        float norm = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        out[offset] = x / norm;
+        out[offset + 1] = y / norm;
+        out[offset + 2] = z / norm;
+        out[offset + 3] = w / norm;
+    }
+
+    /**
+     * Writes the rotation of a unit quaternion into a column-major matrix, with no
+     * translation.
+     */
+    private static void toMatrix(float[] m, float[] q) {
+        float x = q[0];
+        float y = q[1];
+        float z = q[2];
+        float w = q[3];
+        m[0] = 1 - 2 * (y * y + z * z);
+        m[1] = 2 * (x * y + z * w);
+        m[2] = 2 * (x * z - y * w);
+        m[3] = 0;
+        m[4] = 2 * (x * y - z * w);
+        m[5] = 1 - 2 * (x * x + z * z);
+        m[6] = 2 * (y * z + x * w);
+        m[7] = 0;
+        m[8] = 2 * (x * z + y * w);
+        m[9] = 2 * (y * z - x * w);
+        m[10] = 1 - 2 * (x * x + y * y);
+        m[11] = 0;
+        m[12] = 0;
+        m[13] = 0;
+        m[14] = 0;
+        m[15] = 1;
+    }
+}
@@ -0,0 +1,111 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recording of timestamped head views, to replay head motion off-device.
+ *
+ * One thread may add samples while another reads or writes the samples added so far; the
+ * size is published after each sample. The text form has one sample per line: the time in
+ * nanoseconds followed by the 16 floats of the head view, column-major.
+ */
+public final class HeadTrace {
+
+    private final long[] mTimes;
+    private final float[] mHeadViews;
+    private volatile int mSize;
+
+    public HeadTrace(int capacity) {
+        mTimes = new long[capacity];
+        mHeadViews = new float[capacity * 16];
+    }
+
+    /**
+     * Records a sample, unless the trace is full.
+     *
+     * @return false if the trace is full.
+     */
+    public boolean add(long timeNs, float[] headView) {
+        int size = mSize;
+        if (size == mTimes.length) {
+            return false;
+        }
+        mTimes[size] = timeNs;
+        System.arraycopy(headView, 0, mHeadViews, size * 16, 16);
+        mSize = size + 1;
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isFull() {
+        return mSize == mTimes.length;
+    }
+
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * @param out Receives the head view of the sample, 16 floats.
+     */
+    public void getHeadView(int index, float[] out) {
+        System.arraycopy(mHeadViews, index * 16, out, 0, 16);
+    }
+
+    /**
+     * Writes the samples recorded so far in the text form.
+     */
+    public void write(Writer out) throws IOException {
+        int size = mSize;
+        StringBuilder line = new StringBuilder(256);
+        for (int i = 0; i < size; i++) {
+            line.setLength(0);
+            line.append(mTimes[i]);
+            for (int j = 0; j < 16; j++) {
+                line.append(' ').append(mHeadViews[i * 16 + j]);
+            }
+            line.append('\n');
+            out.write(line.toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a trace in the text form. Blank lines and lines starting with # are skipped.
+     */
+    public static HeadTrace read(BufferedReader in) throws IOException {
+        List<String[]> lines = new ArrayList<String[]>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 17) {
+                throw new IOException("Expected 17 fields, got " + fields.length + ": " + line);
+            }
+            lines.add(fields);
+        }
+        HeadTrace trace = new HeadTrace(lines.size());
+        float[] headView = new float[16];
+        try {
+            for (String[] fields : lines) {
+                for (int j = 0; j < 16; j++) {
+                    headView[j] = Float.parseFloat(fields[j + 1]);
+                }
+                trace.add(Long.parseLong(fields[0]), headView);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed head trace", e);
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,232 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+/**
+ * The subset of android.opengl.Matrix used by the gaze math, for running off-device.
+ *
+ * Matrices are 4x4, column-major, stored in float arrays at an offset, with the same
+ * semantics as the Android routines of the same name.
+ */
+public final class MatrixMath {
+
+    private MatrixMath() {
+    }
+
+    /**
+     * result = lhs x rhs. result must not overlap lhs or rhs.
+     */
+    public static void multiplyMM(float[] result, int resultOffset,
+            float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int col = 0; col < 4; col++) {
+            float r0 = rhs[rhsOffset + col * 4];
+            float r1 = rhs[rhsOffset + col * 4 + 1];
+            float r2 = rhs[rhsOffset + col * 4 + 2];
+            float r3 = rhs[rhsOffset + col * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOffset + col * 4 + row] =
+                        lhs[lhsOffset + row] * r0
+                        + lhs[lhsOffset + 4 + row] * r1
+                        + lhs[lhsOffset + 8 + row] * r2
+                        + lhs[lhsOffset + 12 + row] * r3;
+            }
+        }
+    }
+
+    /**
+     * resultVec = lhsMat x rhsVec. resultVec must not overlap rhsVec.
+     */
+    public static void multiplyMV(float[] resultVec, int resultVecOffset,
+            float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            resultVec[resultVecOffset + row] =
+                    lhsMat[lhsMatOffset + row] * x
+                    + lhsMat[lhsMatOffset + 4 + row] * y
+                    + lhsMat[lhsMatOffset + 8 + row] * z
+                    + lhsMat[lhsMatOffset + 12 + row] * w;
+        }
+    }
+
+    /**
+     * Inverts a 4x4 matrix with Cramer's rule.
+     *
+     * @return false if the matrix is singular, in which case mInv is left untouched.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        // Transpose while loading.
+        final float src0  = m[mOffset];
+        final float src4  = m[mOffset + 1];
+        final float src8  = m[mOffset + 2];
+        final float src12 = m[mOffset + 3];
+        final float src1  = m[mOffset + 4];
+        final float src5  = m[mOffset + 5];
+        final float src9  = m[mOffset + 6];
+        final float src13 = m[mOffset + 7];
+        final float src2  = m[mOffset + 8];
+        final float src6  = m[mOffset + 9];
+        final float src10 = m[mOffset + 10];
+        final float src14 = m[mOffset + 11];
+        final float src3  = m[mOffset + 12];
+        final float src7  = m[mOffset + 13];
+        final float src11 = m[mOffset + 14];
+        final float src15 = m[mOffset + 15];
+
+        // Pairs for the first 8 cofactors.
+        final float atmp0  = src10 * src15;
+        final float atmp1  = src11 * src14;
+        final float atmp2  = src9  * src15;
+        final float atmp3  = src11 * src13;
+        final float atmp4  = src9  * src14;
+        final float atmp5  = src10 * src13;
+        final float atmp6  = src8  * src15;
+        final float atmp7  = src11 * src12;
+        final float atmp8  = src8  * src14;
+        final float atmp9  = src10 * src12;
+        final float atmp10 = src8  * src13;
+        final float atmp11 = src9  * src12;
+
+        final float dst0  = (atmp0 * src5 + atmp3 * src6 + atmp4  * src7)
+                - (atmp1 * src5 + atmp2 * src6 + atmp5  * src7);
+        final float dst1  = (atmp1 * src4 + atmp6 * src6 + atmp9  * src7)
+                - (atmp0 * src4 + atmp7 * src6 + atmp8  * src7);
+        final float dst2  = (atmp2 * src4 + atmp7 * src5 + atmp10 * src7)
+                - (atmp3 * src4 + atmp6 * src5 + atmp11 * src7);
+        final float dst3  = (atmp5 * src4 + atmp8 * src5 + atmp11 * src6)
+                - (atmp4 * src4 + atmp9 * src5 + atmp10 * src6);
+        final float dst4  = (atmp1 * src1 + atmp2 * src2 + atmp5  * src3)
+                - (atmp0 * src1 + atmp3 * src2 + atmp4  * src3);
+        final float dst5  = (atmp0 * src0 + atmp7 * src2 + atmp8  * src3)
+                - (atmp1 * src0 + atmp6 * src2 + atmp9  * src3);
+        final float dst6  = (atmp3 * src0 + atmp6 * src1 + atmp11 * src3)
+                - (atmp2 * src0 + atmp7 * src1 + atmp10 * src3);
+        final float dst7  = (atmp4 * src0 + atmp9 * src1 + atmp10 * src2)
+                - (atmp5 * src0 + atmp8 * src1 + atmp11 * src2);
+
+        // Pairs for the second 8 cofactors.
+        final float btmp0  = src2 * src7;
+        final float btmp1  = src3 * src6;
+        final float btmp2  = src1 * src7;
+        final float btmp3  = src3 * src5;
+        final float btmp4  = src1 * src6;
+        final float btmp5  = src2 * src5;
+        final float btmp6  = src0 * src7;
+        final float btmp7  = src3 * src4;
+        final float btmp8  = src0 * src6;
+        final float btmp9  = src2 * src4;
+        final float btmp10 = src0 * src5;
+        final float btmp11 = src1 * src4;
+
+        final float dst8  = (btmp0  * src13 + btmp3  * src14 + btmp4  * src15)
+                - (btmp1  * src13 + btmp2  * src14 + btmp5  * src15);
+        final float dst9  = (btmp1  * src12 + btmp6  * src14 + btmp9  * src15)
+                - (btmp0  * src12 + btmp7  * src14 + btmp8  * src15);
+        final float dst10 = (btmp2  * src12 + btmp7  * src13 + btmp10 * src15)
+                - (btmp3  * src12 + btmp6  * src13 + btmp11 * src15);
+        final float dst11 = (btmp5  * src12 + btmp8  * src13 + btmp11 * src14)
+                - (btmp4  * src12 + btmp9  * src13 + btmp10 * src14);
+        final float dst12 = (btmp2  * src10 + btmp5  * src11 + btmp1  * src9)
+                - (btmp4  * src11 + btmp0  * src9  + btmp3  * src10);
+        final float dst13 = (btmp8  * src11 + btmp0  * src8  + btmp7  * src10)
+                - (btmp6  * src10 + btmp9  * src11 + btmp1  * src8);
+        final float dst14 = (btmp6  * src9  + btmp11 * src11 + btmp3  * src8)
+                - (btmp10 * src11 + btmp2  * src8  + btmp7  * src9);
+        final float dst15 = (btmp10 * src10 + btmp4  * src8  + btmp9  * src9)
+                - (btmp8  * src9  + btmp11 * src10 + btmp5  * src8);
+
+        final float det = src0 * dst0 + src1 * dst1 + src2 * dst2 + src3 * dst3;
+        if (det == 0.0f) {
+            return false;
+        }
+
+        final float invdet = 1.0f / det;
+        mInv[mInvOffset]      = dst0  * invdet;
+        mInv[mInvOffset + 1]  = dst1  * invdet;
+        mInv[mInvOffset + 2]  = dst2  * invdet;
+        mInv[mInvOffset + 3]  = dst3  * invdet;
+        mInv[mInvOffset + 4]  = dst4  * invdet;
+        mInv[mInvOffset + 5]  = dst5  * invdet;
+        mInv[mInvOffset + 6]  = dst6  * invdet;
+        mInv[mInvOffset + 7]  = dst7  * invdet;
+        mInv[mInvOffset + 8]  = dst8  * invdet;
+        mInv[mInvOffset + 9]  = dst9  * invdet;
+        mInv[mInvOffset + 10] = dst10 * invdet;
+        mInv[mInvOffset + 11] = dst11 * invdet;
+        mInv[mInvOffset + 12] = dst12 * invdet;
+        mInv[mInvOffset + 13] = dst13 * invdet;
+        mInv[mInvOffset + 14] = dst14 * invdet;
+        mInv[mInvOffset + 15] = dst15 * invdet;
+        return true;
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            sm[smOffset + i] = 1.0f;
+        }
+    }
+
+    /**
+     * Translates matrix m by x, y and z in place.
+     */
+    public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    /**
+     * Scales matrix m by x, y and z in place.
+     */
+    public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = mOffset + i;
+            m[mi] *= x;
+            m[4 + mi] *= y;
+            m[8 + mi] *= z;
+        }
+    }
+
+    /**
+     * Sets rm to a rotation of a degrees around the axis (x, y, z).
+     */
+    public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        rm[rmOffset + 3] = 0;
+        rm[rmOffset + 7] = 0;
+        rm[rmOffset + 11] = 0;
+        rm[rmOffset + 12] = 0;
+        rm[rmOffset + 13] = 0;
+        rm[rmOffset + 14] = 0;
+        rm[rmOffset + 15] = 1;
+        a *= (float) (Math.PI / 180.0f);
+        float s = (float) Math.sin(a);
+        float c = (float) Math.cos(a);
+        float len = (float) Math.sqrt(x * x + y * y + z * z);
+        if (len != 1.0f) {
+            float recipLen = 1.0f / len;
+            x *= recipLen;
+            y *= recipLen;
+            z *= recipLen;
+        }
+        float nc = 1.0f - c;
+        float xy = x * y;
+        float yz = y * z;
+        float zx = z * x;
+        float xs = x * s;
+        float ys = y * s;
+        float zs = z * s;
+        rm[rmOffset]      = x * x * nc + c;
+        rm[rmOffset + 4]  = xy * nc - zs;
+        rm[rmOffset + 8]  = zx * nc + ys;
+        rm[rmOffset + 1]  = xy * nc + zs;
+        rm[rmOffset + 5]  = y * y * nc + c;
+        rm[rmOffset + 9]  = yz * nc - xs;
+        rm[rmOffset + 2]  = zx * nc - ys;
+        rm[rmOffset + 6]  = yz * nc + xs;
+        rm[rmOffset + 10] = z * z * nc + c;
+    }
+}
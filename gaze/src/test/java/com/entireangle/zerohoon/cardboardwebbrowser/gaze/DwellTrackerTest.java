@@ -0,0 +1,68 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DwellTrackerTest {
+
+    private static final float RADIUS = 10;
+    private static final long DWELL_NS = 300 * 1000000L;
+    private static final long MS = 1000000L;
+
+    @Test
+    public void dwellsOnceTheGazeRestedForTheDwellTime() {
+        DwellTracker tracker = new DwellTracker(RADIUS, DWELL_NS);
+
+        assertFalse(tracker.addSample(100, 100, 0));
+        assertEquals(DWELL_NS, tracker.getDwellTimeNs());
+        assertFalse(tracker.addSample(100, 100, 299 * MS));
+        assertTrue(tracker.addSample(100, 100, 300 * MS));
+    }
+
+    @Test
+    public void tremorWithinTheRadiusStillDwells() {
+        DwellTracker tracker = new DwellTracker(RADIUS, DWELL_NS);
+
+        tracker.addSample(100, 100, 0);
+        assertFalse(tracker.addSample(106, 96, 100 * MS));
+        assertFalse(tracker.addSample(93, 104, 200 * MS));
+        assertTrue(tracker.addSample(104, 107, 320 * MS));
+    }
+
+    @Test
+    public void movingAwayStartsOver() {
+        DwellTracker tracker = new DwellTracker(RADIUS, DWELL_NS);
+
+        tracker.addSample(100, 100, 0);
+        assertFalse(tracker.addSample(120, 100, 200 * MS));
+        assertFalse(tracker.addSample(120, 100, 400 * MS));
+        assertEquals(500 * MS, tracker.getDwellTimeNs());
+        assertTrue(tracker.addSample(121, 101, 500 * MS));
+    }
+
+    @Test
+    public void eachDwellIsReportedOnce() {
+        DwellTracker tracker = new DwellTracker(RADIUS, DWELL_NS);
+
+        tracker.addSample(100, 100, 0);
+        assertTrue(tracker.addSample(100, 100, 300 * MS));
+        assertFalse(tracker.addSample(100, 100, 900 * MS));
+        assertEquals(Long.MAX_VALUE, tracker.getDwellTimeNs());
+        tracker.addSample(200, 200, 1000 * MS);
+        assertTrue(tracker.addSample(200, 200, 1300 * MS));
+    }
+
+    @Test
+    public void resetForgetsTheAnchor() {
+        DwellTracker tracker = new DwellTracker(RADIUS, DWELL_NS);
+
+        tracker.addSample(100, 100, 0);
+        tracker.reset();
+        assertEquals(Long.MAX_VALUE, tracker.getDwellTimeNs());
+        assertFalse(tracker.addSample(100, 100, 300 * MS));
+        assertTrue(tracker.addSample(100, 100, 600 * MS));
+    }
+}
@@ -0,0 +1,139 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GazeHitTesterTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private static float[] panelAt(float x, float y, float distance) {
+        float[] model = new float[16];
+        MatrixMath.setIdentityM(model, 0);
+        MatrixMath.translateM(model, 0, x, y, -distance);
+        return model;
+    }
+
+    private static float[] headTurned(float yaw, float pitch) {
+        float[] yawMatrix = new float[16];
+        float[] pitchMatrix = new float[16];
+        float[] headView = new float[16];
+        MatrixMath.setRotateM(yawMatrix, 0, yaw, 0, 1, 0);
+        MatrixMath.setRotateM(pitchMatrix, 0, pitch, 1, 0, 0);
+        MatrixMath.multiplyMM(headView, 0, pitchMatrix, 0, yawMatrix, 0);
+        return headView;
+    }
+
+    @Test
+    public void lookingStraightAtPanelHitsItsCenter() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(0, 0, 1.5f));
+        float[] hit = new float[4];
+
+        assertTrue(tester.hitTest(headTurned(0, 0), panel));
+        tester.getHit(panel, hit);
+
+        assertArrayEquals(new float[] { 0, 0, 0, 1 }, hit, EPSILON);
+    }
+
+    @Test
+    public void turningTheHeadMovesTheHitAlongThePanel() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(0, 0, 1.5f));
+        float[] hit = new float[4];
+
+        assertTrue(tester.hitTest(headTurned(30, 0), panel));
+        tester.getHit(panel, hit);
+
+        // tan(30 degrees) * 1.5
+        assertArrayEquals(new float[] { 0.8660254f, 0, 0, 1 }, hit, EPSILON);
+    }
+
+    @Test
+    public void translatedHeadAndPanelHitWhereTheRayCrossesThePanel() {
+        // Head 0.1 right of a panel centered 0.3 to the left, looking straight ahead.
+        float[] headView = headTurned(0, 0);
+        MatrixMath.translateM(headView, 0, -0.1f, 0, 0);
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(-0.3f, 0.2f, 2));
+        float[] hit = new float[4];
+
+        assertTrue(tester.hitTest(headView, panel));
+        tester.getHit(panel, hit);
+
+        assertArrayEquals(new float[] { 0.4f, -0.2f, 0, 1 }, hit, EPSILON);
+        assertEquals(2, tester.getDistance(panel), EPSILON);
+    }
+
+    @Test
+    public void lookingStraightAtPanelHitsTheCenterOfItsUvs() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(0, 0, 1.5f));
+        float[] uv = new float[2];
+
+        assertEquals(panel, tester.hitTest(headTurned(0, 0)));
+        tester.getUv(panel, uv);
+
+        assertArrayEquals(new float[] { 0.5f, 0.5f }, uv, EPSILON);
+    }
+
+    @Test
+    public void uvOriginIsTheTopLeftCorner() {
+        GazeHitTester tester = new GazeHitTester(1);
+        // Put the top left corner of the panel straight ahead.
+        int panel = tester.addPanel(panelAt(1, -1, 2));
+        float[] uv = new float[2];
+
+        assertTrue(tester.hitTest(headTurned(0, 0), panel));
+        tester.getUv(panel, uv);
+
+        assertArrayEquals(new float[] { 0, 0 }, uv, EPSILON);
+    }
+
+    @Test
+    public void panelBehindTheHeadIsMissed() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(0, 0, 1.5f));
+
+        assertEquals(GazeHitTester.NO_PANEL, tester.hitTest(headTurned(180, 0)));
+        assertFalse(tester.isHit(panel));
+    }
+
+    @Test
+    public void nearestOfOverlappingPanelsWins() {
+        GazeHitTester tester = new GazeHitTester(3);
+        tester.addPanel(panelAt(0, 0, 4));
+        int near = tester.addPanel(panelAt(0, 0, 2));
+        tester.addPanel(panelAt(5, 0, 1));
+
+        assertEquals(near, tester.hitTest(headTurned(0, 0)));
+    }
+
+    @Test
+    public void planeHitsOutsideThePanelKeepTheirDistance() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(-3, 0, 2));
+        float[] hit = new float[4];
+
+        assertFalse(tester.hitTest(headTurned(0, 0), panel));
+        tester.getHit(panel, hit);
+
+        assertEquals(2, tester.getDistance(panel), EPSILON);
+        assertEquals(3, hit[0], EPSILON);
+        assertTrue(tester.hitTest(headTurned(180, 0), panel) || tester.getDistance(panel) < 0);
+    }
+
+    @Test
+    public void movedPanelIsHitAtItsNewPlace() {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(panelAt(0, 0, 1.5f));
+
+        tester.setPanelModel(panel, panelAt(10, 0, 1.5f));
+
+        assertEquals(GazeHitTester.NO_PANEL, tester.hitTest(headTurned(0, 0)));
+    }
+}
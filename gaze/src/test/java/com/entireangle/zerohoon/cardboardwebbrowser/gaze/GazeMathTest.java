@@ -0,0 +1,64 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Expected values for the gaze math, worked out by hand from the geometry.
+ */
+public class GazeMathTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final GazeMath mGazeMath = new GazeMath();
+
+    private static float[] panelAt(float distance) {
+        float[] model = new float[16];
+        MatrixMath.setIdentityM(model, 0);
+        MatrixMath.translateM(model, 0, 0, 0, -distance);
+        return model;
+    }
+
+    @Test
+    public void pointerQuadSurroundsTheHit() {
+        float[] quad = new float[12];
+
+        GazeMath.getPointerCoordinate(quad, new float[] { 0.1f, 0.2f, 0.0f, 1.0f });
+
+        assertArrayEquals(new float[] {
+                0.095f, 0.195f, 0.05f,
+                0.105f, 0.195f, 0.05f,
+                0.095f, 0.205f, 0.05f,
+                0.105f, 0.205f, 0.05f
+        }, quad, EPSILON);
+    }
+
+    @Test
+    public void movePanelRotatesAndRescalesItsPosition() {
+        float[] model = panelAt(1.5f);
+
+        mGazeMath.movePanel(model, 1.5f, 3.0f, 180, 45);
+
+        assertArrayEquals(new float[] { 0, 3, 3, 1 }, new float[] {
+                model[12], model[13], model[14], model[15] }, 1e-4f);
+    }
+
+    @Test
+    public void invertedMatrixTimesMatrixIsIdentity() {
+        float[] m = new float[16];
+        MatrixMath.setRotateM(m, 0, 37, 0.3f, 1, 0.2f);
+        MatrixMath.translateM(m, 0, 1, -2, 3);
+        MatrixMath.scaleM(m, 0, 2, 0.5f, 1.5f);
+        float[] inverse = new float[16];
+        float[] product = new float[16];
+        float[] identity = new float[16];
+        MatrixMath.setIdentityM(identity, 0);
+
+        assertTrue(MatrixMath.invertM(inverse, 0, m, 0));
+        MatrixMath.multiplyMM(product, 0, m, 0, inverse, 0);
+
+        assertArrayEquals(identity, product, EPSILON);
+    }
+}
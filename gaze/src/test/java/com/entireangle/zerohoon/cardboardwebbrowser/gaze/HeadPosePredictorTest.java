@@ -0,0 +1,193 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+public class HeadPosePredictorTest {
+
+    private static final float EPSILON = 1e-4f;
+    private static final long FRAME_NS = 1000000000L / 60;
+    // Three frames from head sample to display.
+    private static final long LATENCY_NS = 3 * FRAME_NS;
+    private static final int PAGE_SIZE = 3000;
+    // Replays a recorded trace, e.g. -Dgaze.headTrace=head_trace.txt pulled from the device.
+    private static final String TRACE_PROPERTY = "gaze.headTrace";
+
+    private static float[] headTurned(float yaw, float pitch) {
+        float[] yawMatrix = new float[16];
+        float[] pitchMatrix = new float[16];
+        float[] headView = new float[16];
+        MatrixMath.setRotateM(yawMatrix, 0, yaw, 0, 1, 0);
+        MatrixMath.setRotateM(pitchMatrix, 0, pitch, 1, 0, 0);
+        MatrixMath.multiplyMM(headView, 0, pitchMatrix, 0, yawMatrix, 0);
+        return headView;
+    }
+
+    private static HeadTraceReplay pageReplay() {
+        float[] model = new float[16];
+        MatrixMath.setIdentityM(model, 0);
+        MatrixMath.translateM(model, 0, 0, 0, -1.5f);
+        return new HeadTraceReplay(model, PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private interface Motion {
+        float yaw(double seconds);
+        float pitch(double seconds);
+    }
+
+    private static HeadTrace record(Motion motion, double seconds) {
+        int frames = (int) (seconds * 60);
+        HeadTrace trace = new HeadTrace(frames);
+        for (int i = 0; i < frames; i++) {
+            double t = (double) i / 60;
+            trace.add(i * FRAME_NS, headTurned(motion.yaw(t), motion.pitch(t)));
+        }
+        return trace;
+    }
+
+    @Test
+    public void firstSampleIsPredictedAsItIs() {
+        HeadPosePredictor predictor = new HeadPosePredictor();
+        float[] headView = headTurned(30, -10);
+        headView[12] = 0.01f;
+        headView[14] = -0.08f;
+        float[] predicted = new float[16];
+
+        predictor.addSample(0, headView);
+        predictor.predict(predicted, LATENCY_NS);
+
+        assertArrayEquals(headView, predicted, EPSILON);
+    }
+
+    @Test
+    public void constantTurnIsExtrapolated() {
+        HeadPosePredictor predictor = new HeadPosePredictor();
+        float[] predicted = new float[16];
+        for (int i = 0; i < 4; i++) {
+            predictor.addSample(i * FRAME_NS, headTurned(i * 2, 0));
+        }
+
+        // 2 degrees per frame, three frames past the last sample at 6 degrees.
+        predictor.predict(predicted, LATENCY_NS);
+
+        assertArrayEquals(headTurned(12, 0), predicted, EPSILON);
+        assertEquals(Math.toRadians(120), predictor.getAngularSpeed(), 1e-3);
+    }
+
+    @Test
+    public void gapStartsANewHistory() {
+        HeadPosePredictor predictor = new HeadPosePredictor();
+        float[] predicted = new float[16];
+        predictor.addSample(0, headTurned(0, 0));
+        predictor.addSample(FRAME_NS, headTurned(2, 0));
+
+        predictor.addSample(FRAME_NS + HeadPosePredictor.MAX_HORIZON_NS * 2, headTurned(40, 0));
+        predictor.predict(predicted, LATENCY_NS);
+
+        assertArrayEquals(headTurned(40, 0), predicted, EPSILON);
+    }
+
+    @Test
+    public void steadySweepLandsOnTarget() {
+        HeadTraceReplay.Result result = pageReplay().replay(record(new Motion() {
+            @Override
+            public float yaw(double t) {
+                return (float) (-25 + 50 * t);
+            }
+
+            @Override
+            public float pitch(double t) {
+                return 0;
+            }
+        }, 1), LATENCY_NS);
+
+        assertTrue(result.toString(), result.predictedP95Px < 5);
+        assertTrue(result.toString(), result.staleMeanPx > 100);
+    }
+
+    @Test
+    public void headShakeErrorIsMuchLowerThanUnpredicted() {
+        HeadTraceReplay.Result result = pageReplay().replay(record(new Motion() {
+            @Override
+            public float yaw(double t) {
+                return (float) (20 * Math.sin(2 * Math.PI * t));
+            }
+
+            @Override
+            public float pitch(double t) {
+                return (float) (8 * Math.sin(2 * Math.PI * 0.7 * t));
+            }
+        }, 3), LATENCY_NS);
+
+        assertTrue(result.toString(), result.predictedMeanPx < result.staleMeanPx / 3);
+        assertTrue(result.toString(), result.predictedP95Px < result.staleP95Px / 2);
+    }
+
+    @Test
+    public void jitterOfAStillHeadIsNotAmplified() {
+        final Random random = new Random(42);
+        HeadTraceReplay.Result result = pageReplay().replay(record(new Motion() {
+            @Override
+            public float yaw(double t) {
+                return (float) (random.nextGaussian() * 0.02);
+            }
+
+            @Override
+            public float pitch(double t) {
+                return (float) (random.nextGaussian() * 0.02);
+            }
+        }, 2), LATENCY_NS);
+
+        assertTrue(result.toString(), result.predictedP95Px < result.staleP95Px * 1.1);
+    }
+
+    @Test
+    public void traceSurvivesTheTextForm() throws IOException {
+        HeadTrace trace = new HeadTrace(2);
+        trace.add(5, headTurned(10, 3));
+        trace.add(FRAME_NS, headTurned(-7, 1));
+        StringWriter text = new StringWriter();
+
+        trace.write(text);
+        HeadTrace read = HeadTrace.read(new BufferedReader(new StringReader(text.toString())));
+
+        assertEquals(2, read.size());
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int i = 0; i < 2; i++) {
+            assertEquals(trace.getTime(i), read.getTime(i));
+            trace.getHeadView(i, expected);
+            read.getHeadView(i, actual);
+            assertArrayEquals(expected, actual, 0);
+        }
+    }
+
+    @Test
+    public void replaysRecordedTrace() throws IOException {
+        String path = System.getProperty(TRACE_PROPERTY);
+        assumeTrue(path != null);
+        BufferedReader in = new BufferedReader(new FileReader(path));
+        HeadTrace trace;
+        try {
+            trace = HeadTrace.read(in);
+        } finally {
+            in.close();
+        }
+
+        HeadTraceReplay.Result result = pageReplay().replay(trace, LATENCY_NS);
+        System.out.println(path + ": " + result);
+
+        assertTrue(result.toString(), result.predictedMeanPx <= result.staleMeanPx);
+    }
+}
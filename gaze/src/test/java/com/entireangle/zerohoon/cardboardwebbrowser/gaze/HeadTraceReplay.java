@@ -0,0 +1,133 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import java.util.Arrays;
+
+/**
+ * Replays a head trace through the pose predictor and the page hit test, and measures how
+ * far the pointer lands from where the head actually looks once the frame is displayed.
+ */
+final class HeadTraceReplay {
+
+    static final class Result {
+        int samples;
+        double predictedMeanPx;
+        double predictedP95Px;
+        double staleMeanPx;
+        double staleP95Px;
+
+        @Override
+        public String toString() {
+            return String.format("%d samples, predicted mean=%.2fpx p95=%.2fpx,"
+                    + " unpredicted mean=%.2fpx p95=%.2fpx", samples, predictedMeanPx,
+                    predictedP95Px, staleMeanPx, staleP95Px);
+        }
+    }
+
+    private final float[] mPanelModel;
+    private final int mPageWidth;
+    private final int mPageHeight;
+
+    HeadTraceReplay(float[] panelModel, int pageWidth, int pageHeight) {
+        mPanelModel = panelModel;
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+    }
+
+    /**
+     * @param latencyNs The time from a head sample to the display of its frame.
+     */
+    Result replay(HeadTrace trace, long latencyNs) {
+        GazeHitTester tester = new GazeHitTester(1);
+        int panel = tester.addPanel(mPanelModel);
+        HeadPosePredictor predictor = new HeadPosePredictor();
+        float[] headView = new float[16];
+        float[] predicted = new float[16];
+        float[] staleUv = new float[2];
+        float[] predictedUv = new float[2];
+        float[] actualUv = new float[2];
+        double[] predictedErrors = new double[trace.size()];
+        double[] staleErrors = new double[trace.size()];
+
+        int samples = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            long time = trace.getTime(i);
+            trace.getHeadView(i, headView);
+            predictor.addSample(time, headView);
+            if (!getUvAt(trace, time + latencyNs, tester, panel, headView, actualUv)) {
+                break;
+            }
+            trace.getHeadView(i, headView);
+            tester.hitTest(headView, panel);
+            tester.getUv(panel, staleUv);
+            predictor.predict(predicted, latencyNs);
+            tester.hitTest(predicted, panel);
+            tester.getUv(panel, predictedUv);
+            predictedErrors[samples] = distancePx(predictedUv, actualUv);
+            staleErrors[samples] = distancePx(staleUv, actualUv);
+            samples++;
+        }
+
+        Result result = new Result();
+        result.samples = samples;
+        result.predictedMeanPx = mean(predictedErrors, samples);
+        result.predictedP95Px = percentile(predictedErrors, samples, 0.95);
+        result.staleMeanPx = mean(staleErrors, samples);
+        result.staleP95Px = percentile(staleErrors, samples, 0.95);
+        return result;
+    }
+
+    /**
+     * Where the head looks at the given time, interpolated between the samples around it.
+     *
+     * @return false if the time is past the end of the trace.
+     */
+    private boolean getUvAt(HeadTrace trace, long timeNs, GazeHitTester tester, int panel,
+            float[] scratch, float[] out) {
+        int next = 0;
+        while (next < trace.size() && trace.getTime(next) < timeNs) {
+            next++;
+        }
+        if (next == trace.size()) {
+            return false;
+        }
+        trace.getHeadView(next, scratch);
+        tester.hitTest(scratch, panel);
+        tester.getUv(panel, out);
+        if (next == 0 || trace.getTime(next) == timeNs) {
+            return true;
+        }
+        float u = out[0];
+        float v = out[1];
+        trace.getHeadView(next - 1, scratch);
+        tester.hitTest(scratch, panel);
+        tester.getUv(panel, out);
+        float f = (float) (timeNs - trace.getTime(next - 1))
+                / (trace.getTime(next) - trace.getTime(next - 1));
+        out[0] += (u - out[0]) * f;
+        out[1] += (v - out[1]) * f;
+        return true;
+    }
+
+    private double distancePx(float[] a, float[] b) {
+        double dx = (a[0] - b[0]) * mPageWidth;
+        double dy = (a[1] - b[1]) * mPageHeight;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static double mean(double[] values, int count) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    private static double percentile(double[] values, int count, double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, (int) (fraction * count))];
+    }
+}
@@ -0,0 +1,77 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.gaze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The gaze work of MainActivity.onNewFrame must not allocate, or the collector pauses the
+ * render loop. Drives it for thousands of frames and counts the bytes the thread allocated.
+ */
+public class PerFrameAllocationTest {
+
+    private static final int FRAMES = 10000;
+    // Until the loop is fully compiled, the JIT's tier switches allocate on this thread.
+    private static final int WARMUP_FRAMES = 50000;
+    private static final long FRAME_NS = 1000000000L / 60;
+
+    private final GazeHitTester mHits = new GazeHitTester(2);
+    private final HeadPosePredictor mPredictor = new HeadPosePredictor();
+    private final float[] mHeadView = new float[16];
+    private final float[] mPredicted = new float[16];
+    private final float[] mHit = new float[4];
+    private final float[] mUv = new float[2];
+    private final float[] mQuad = new float[12];
+
+    @Test
+    public void gazePathDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue("Allocation counting is not supported by this JVM",
+                threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        float[] model = new float[16];
+        MatrixMath.setIdentityM(model, 0);
+        MatrixMath.translateM(model, 0, 0, 0, -1.5f);
+        mHits.addPanel(model);
+        MatrixMath.translateM(model, 0, 0, -1.2f, 0.3f);
+        mHits.addPanel(model, -1, -0.1f, 1, 0.1f);
+
+        // The first frames also load classes, and the counter allocates on first use.
+        runFrames(0, WARMUP_FRAMES);
+        threads.getThreadAllocatedBytes(thread);
+        long before = threads.getThreadAllocatedBytes(thread);
+        int hits = runFrames(WARMUP_FRAMES, FRAMES);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("The sweep never hit a panel", hits > 0);
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * Sweeps the head across the panels, one head view per frame.
+     *
+     * @return How many frames hit a panel.
+     */
+    private int runFrames(int first, int count) {
+        int hits = 0;
+        for (int frame = first; frame < first + count; frame++) {
+            MatrixMath.setRotateM(mHeadView, 0, (frame % 120) - 60, 0.2f, 1, 0.1f);
+            mPredictor.addSample(frame * FRAME_NS, mHeadView);
+            mPredictor.predict(mPredicted, 2 * FRAME_NS);
+            int panel = mHits.hitTest(mPredicted);
+            if (panel != GazeHitTester.NO_PANEL) {
+                hits++;
+                mHits.getHit(panel, mHit);
+                mHits.getUv(panel, mUv);
+                GazeMath.getPointerCoordinate(mQuad, mHit);
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,130 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches each URL of a corpus of page and subresource URLs from news, social and reference
+ * sites against a memory-mapped compiled list. The bundled list is padded with generated
+ * domain and path rules, in the proportions of the public lists, to the size of those lists.
+ * A second case matches a URL of MAX_URL_CHARS that repeats the literal of a path rule which
+ * never matches in full.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentBlockerBenchmark {
+
+    private static final String[] TLDS = new String[] { "com", "net", "org", "io", "co.uk", "de" };
+    private static final String[] WORDS = new String[] {
+            "ad", "ads", "track", "pixel", "banner", "stat", "metric", "tag", "click", "sync",
+            "bid", "serve", "media", "cdn", "beacon", "promo", "partner", "affiliate", "pop",
+            "analytics" };
+
+    @Param({ "100", "10000", "50000" })
+    public int ruleCount;
+
+    private static final String REPEATED_RULE = "/slowpath/*.js|";
+    private static final String REPEATED_PATH = "/slowpath/x";
+
+    private File mFile;
+    private ContentBlocker mBlocker;
+    private String[] mUrls;
+    private String mRepeatedUrl;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        FilterListCompiler compiler = new FilterListCompiler();
+        compiler.addRules(new InputStreamReader(
+                ContentBlockerBenchmark.class.getResourceAsStream("/filters.txt"), "UTF-8"));
+        compiler.addRule(REPEATED_RULE);
+        Random random = new Random(ruleCount);
+        while (compiler.getRuleCount() < ruleCount) {
+            compiler.addRule(generateRule(random));
+        }
+        mFile = File.createTempFile("filters", ".bin");
+        OutputStream out = new FileOutputStream(mFile);
+        try {
+            compiler.write(out);
+        } finally {
+            out.close();
+        }
+        mBlocker = ContentBlocker.map(mFile);
+
+        List<String> urls = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                ContentBlockerBenchmark.class.getResourceAsStream("/urls.txt"), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    urls.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        mUrls = urls.toArray(new String[urls.size()]);
+
+        StringBuilder url = new StringBuilder("https://www.example.com");
+        while (url.length() < ContentBlocker.MAX_URL_CHARS) {
+            url.append(REPEATED_PATH);
+        }
+        mRepeatedUrl = url.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public boolean shouldBlock() {
+        String url = mUrls[mNext];
+        mNext = mNext + 1 == mUrls.length ? 0 : mNext + 1;
+        return mBlocker.shouldBlock(url);
+    }
+
+    @Benchmark
+    public boolean shouldBlockRepeatedLiteral() {
+        return mBlocker.shouldBlock(mRepeatedUrl);
+    }
+
+    /**
+     * @return A domain rule nine times in ten, as in the public lists, else a path rule.
+     */
+    private static String generateRule(Random random) {
+        String a = WORDS[random.nextInt(WORDS.length)];
+        String b = WORDS[random.nextInt(WORDS.length)];
+        int n = random.nextInt(100000);
+        if (random.nextInt(10) != 0) {
+            return "||" + a + n + "." + b + "." + TLDS[random.nextInt(TLDS.length)] + "^";
+        }
+        return "/" + a + "_" + b + n + (random.nextBoolean() ? "/*.js" : ".gif?");
+    }
+}
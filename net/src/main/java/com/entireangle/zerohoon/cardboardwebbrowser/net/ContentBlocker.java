@@ -0,0 +1,417 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Decides which requests to block, with a filter list compiled by {@link FilterListCompiler}.
+ *
+ * The compiled list is read in place, so it can be memory-mapped at startup without parsing
+ * or copying anything. It holds two matchers, one for blocking rules and one for exceptions,
+ * and each has two parts:
+ * <ul>
+ * <li>Domain rules, such as ||ads.example.com^, as a sorted array of 64-bit hashes of the
+ * domains, behind a Bloom filter. Each suffix of the request's host that starts at a label
+ * is looked up, and most are rejected by the Bloom filter without a search.</li>
+ * <li>Pattern rules as an Aho-Corasick automaton over one literal run of each pattern. A rule
+ * whose literal is found in the URL is then matched in full, with its wildcards, separators
+ * and anchors.</li>
+ * </ul>
+ * A URL is scanned once per matcher, and only its first MAX_URL_CHARS characters, and each rule
+ * is matched in full at most once per URL however often its literal repeats, so the cost of a
+ * match is bounded by the URL length and not by the number of rules. Matching is case
+ * insensitive. Thread safe.
+ */
+public final class ContentBlocker {
+
+    static final int MAGIC = 0x43424c4b;
+    static final int VERSION = 1;
+    static final int FLAG_DOMAIN_ANCHOR = 1;
+    static final int FLAG_START_ANCHOR = 2;
+    static final int FLAG_END_ANCHOR = 4;
+    static final int BLOOM_HASHES = 4;
+    // Longer URLs, such as data URLs, are only matched up to here.
+    static final int MAX_URL_CHARS = 4096;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Matcher mBlocks;
+    private final Matcher mExceptions;
+
+    private ContentBlocker(Matcher blocks, Matcher exceptions) {
+        mBlocks = blocks;
+        mExceptions = exceptions;
+    }
+
+    /**
+     * Reads a compiled filter list in place; the buffer must not change afterwards.
+     *
+     * @throws IOException If the buffer does not hold a compiled list of this version.
+     */
+    public static ContentBlocker load(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("Not a compiled filter list of version " + VERSION);
+            }
+            return new ContentBlocker(new Matcher(in), new Matcher(in));
+        } catch (RuntimeException e) {
+            // Buffer underflows and bad sizes of a truncated or corrupt file.
+            throw new IOException("Malformed compiled filter list", e);
+        }
+    }
+
+    /**
+     * Memory-maps a compiled filter list. The mapping outlives the file being closed.
+     */
+    public static ContentBlocker map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return Whether a blocking rule matches the URL and no exception does.
+     */
+    public boolean shouldBlock(String url) {
+        int length = Math.min(url.length(), MAX_URL_CHARS);
+        int hostStart = url.indexOf("://");
+        int hostEnd;
+        if (hostStart < 0) {
+            hostStart = 0;
+            hostEnd = 0;
+        } else {
+            hostStart += 3;
+            hostEnd = hostStart;
+            while (hostEnd < length) {
+                char c = url.charAt(hostEnd);
+                if (c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+                if (c == '@') {
+                    hostStart = hostEnd + 1;
+                }
+                hostEnd++;
+            }
+            int port = url.lastIndexOf(':', hostEnd - 1);
+            if (port >= hostStart && url.indexOf(']', hostStart) < 0) {
+                hostEnd = port;
+            }
+        }
+        return mBlocks.matches(url, length, hostStart, hostEnd)
+                && !mExceptions.matches(url, length, hostStart, hostEnd);
+    }
+
+    /**
+     * @return How many domain and pattern rules block, for logging.
+     */
+    public int getRuleCount() {
+        return mBlocks.mDomains.limit() + mBlocks.mRuleFlags.limit();
+    }
+
+    /**
+     * @return How many domain and pattern rules are exceptions, for logging.
+     */
+    public int getExceptionCount() {
+        return mExceptions.mDomains.limit() + mExceptions.mRuleFlags.limit();
+    }
+
+    /**
+     * FNV-1a of the lower-cased characters, as the compiler hashes domains.
+     */
+    static long hash(CharSequence s, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash ^= toLower(s.charAt(i));
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    static int bloomBit(long hash, int index, int bitMask) {
+        return ((int) hash + index * (int) (hash >>> 32)) & bitMask;
+    }
+
+    static char toLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * ^ in a pattern matches any of these, and the end of the URL.
+     */
+    static boolean isSeparator(char c) {
+        return !(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '_' || c == '-' || c == '.' || c == '%');
+    }
+
+    private static ByteBuffer slice(ByteBuffer in, int bytes) {
+        if (bytes < 0 || bytes > in.remaining()) {
+            throw new IllegalArgumentException("Section of " + bytes + " bytes");
+        }
+        ByteBuffer slice = in.slice();
+        slice.limit(bytes);
+        in.position(in.position() + bytes);
+        return slice;
+    }
+
+    /**
+     * The domain set and pattern automaton of one kind of rule, read in place.
+     */
+    private static final class Matcher {
+        final LongBuffer mBloom;
+        final int mBloomMask;
+        final LongBuffer mDomains;
+        // The automaton; state 0 is the root. The edges of a state are sorted by character.
+        final IntBuffer mEdgeStart;
+        final CharBuffer mEdgeChars;
+        final IntBuffer mEdgeTargets;
+        final IntBuffer mFail;
+        // The rules whose literal ends at a state, including those of its fail chain.
+        final IntBuffer mOutputStart;
+        final IntBuffer mOutputs;
+        // The patterns, without their anchors, as lower-case ASCII.
+        final IntBuffer mRuleStart;
+        final ByteBuffer mRuleFlags;
+        final ByteBuffer mRuleChars;
+        // The rules already matched in full against the URL of each thread's current scan.
+        private final ThreadLocal<Visited> mVisited = new ThreadLocal<Visited>() {
+            @Override
+            protected Visited initialValue() {
+                return new Visited(mRuleFlags.limit());
+            }
+        };
+
+        Matcher(ByteBuffer in) {
+            int bloomWords = in.getInt();
+            if (Integer.bitCount(bloomWords) != 1) {
+                throw new IllegalArgumentException("Bloom filter of " + bloomWords + " words");
+            }
+            mBloom = slice(in, bloomWords * 8).asLongBuffer();
+            mBloomMask = bloomWords * 64 - 1;
+            mDomains = slice(in, in.getInt() * 8).asLongBuffer();
+            int states = in.getInt();
+            int edges = in.getInt();
+            mEdgeStart = slice(in, (states + 1) * 4).asIntBuffer();
+            mEdgeChars = slice(in, edges * 2).asCharBuffer();
+            mEdgeTargets = slice(in, edges * 4).asIntBuffer();
+            mFail = slice(in, states * 4).asIntBuffer();
+            mOutputStart = slice(in, (states + 1) * 4).asIntBuffer();
+            mOutputs = slice(in, in.getInt() * 4).asIntBuffer();
+            int rules = in.getInt();
+            mRuleStart = slice(in, (rules + 1) * 4).asIntBuffer();
+            mRuleFlags = slice(in, rules);
+            mRuleChars = slice(in, in.getInt());
+        }
+
+        boolean matches(String url, int length, int hostStart, int hostEnd) {
+            return matchesDomain(url, hostStart, hostEnd)
+                    || matchesPattern(url, length, hostStart, hostEnd);
+        }
+
+        private boolean matchesDomain(String url, int hostStart, int hostEnd) {
+            if (mDomains.limit() == 0) {
+                return false;
+            }
+            for (int start = hostStart; start < hostEnd; start++) {
+                if (start != hostStart && url.charAt(start - 1) != '.') {
+                    continue;
+                }
+                long hash = hash(url, start, hostEnd);
+                if (mightContain(hash) && binarySearch(hash)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean mightContain(long hash) {
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                int bit = bloomBit(hash, i, mBloomMask);
+                if ((mBloom.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean binarySearch(long hash) {
+            int low = 0;
+            int high = mDomains.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long value = mDomains.get(mid);
+                if (value < hash) {
+                    low = mid + 1;
+                } else if (value > hash) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesPattern(String url, int length, int hostStart, int hostEnd) {
+            if (mRuleFlags.limit() == 0) {
+                return false;
+            }
+            Visited visited = mVisited.get();
+            visited.clear();
+            int state = 0;
+            for (int i = 0; i < length; i++) {
+                char c = toLower(url.charAt(i));
+                while (true) {
+                    int next = findEdge(state, c);
+                    if (next >= 0) {
+                        state = next;
+                        break;
+                    }
+                    if (state == 0) {
+                        break;
+                    }
+                    state = mFail.get(state);
+                }
+                int end = mOutputStart.get(state + 1);
+                for (int o = mOutputStart.get(state); o < end; o++) {
+                    int rule = mOutputs.get(o);
+                    // A rule is matched against the whole URL, so a repeat of its literal
+                    // cannot change the result.
+                    if (visited.add(rule)
+                            && matchesRule(rule, url, length, hostStart, hostEnd)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private int findEdge(int state, char c) {
+            int low = mEdgeStart.get(state);
+            int high = mEdgeStart.get(state + 1) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char value = mEdgeChars.get(mid);
+                if (value < c) {
+                    low = mid + 1;
+                } else if (value > c) {
+                    high = mid - 1;
+                } else {
+                    return mEdgeTargets.get(mid);
+                }
+            }
+            return -1;
+        }
+
+        private boolean matchesRule(int rule, String url, int length, int hostStart,
+                int hostEnd) {
+            int flags = mRuleFlags.get(rule);
+            int patternStart = mRuleStart.get(rule);
+            int patternEnd = mRuleStart.get(rule + 1);
+            boolean toEnd = (flags & FLAG_END_ANCHOR) != 0;
+            if ((flags & FLAG_DOMAIN_ANCHOR) != 0) {
+                // At the start of the host or of any of its labels.
+                for (int start = hostStart; start < hostEnd; start++) {
+                    if ((start == hostStart || url.charAt(start - 1) == '.')
+                            && glob(url, length, start, patternStart, patternEnd, false,
+                                    toEnd)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return glob(url, length, 0, patternStart, patternEnd,
+                    (flags & FLAG_START_ANCHOR) == 0, toEnd);
+        }
+
+        /**
+         * Matches a pattern with * and ^ against the URL from start, or from anywhere after
+         * it, with backtracking to the last *.
+         */
+        private boolean glob(String url, int length, int start, int patternStart,
+                int patternEnd, boolean anywhere, boolean toEnd) {
+            int s = start;
+            int p = patternStart;
+            // Where to resume after the last *: the pattern just past it, and the URL.
+            int starP = anywhere ? patternStart : -1;
+            int starS = start;
+            while (true) {
+                if (p == patternEnd && (!toEnd || s == length)) {
+                    return true;
+                }
+                if (s < length) {
+                    if (p < patternEnd) {
+                        char pc = (char) mRuleChars.get(p);
+                        if (pc == '*') {
+                            starP = ++p;
+                            starS = s;
+                            continue;
+                        }
+                        char uc = toLower(url.charAt(s));
+                        if (pc == '^' ? isSeparator(uc) : pc == uc) {
+                            s++;
+                            p++;
+                            continue;
+                        }
+                    }
+                } else {
+                    // ^ and * also match the end of the URL.
+                    while (p < patternEnd && (mRuleChars.get(p) == '^'
+                            || mRuleChars.get(p) == '*')) {
+                        p++;
+                    }
+                    if (p == patternEnd) {
+                        return true;
+                    }
+                }
+                if (starP < 0 || starS >= length) {
+                    return false;
+                }
+                p = starP;
+                s = ++starS;
+            }
+        }
+    }
+
+    /**
+     * A set of rules that is cleared in constant time, by stamping each rule with the scan
+     * that added it.
+     */
+    private static final class Visited {
+        private final int[] mStamps;
+        private int mStamp;
+
+        Visited(int rules) {
+            mStamps = new int[rules];
+        }
+
+        void clear() {
+            if (++mStamp == 0) {
+                // Wrapped around; old stamps could now look current.
+                Arrays.fill(mStamps, 0);
+                mStamp = 1;
+            }
+        }
+
+        /**
+         * @return Whether the rule was not in the set yet.
+         */
+        boolean add(int rule) {
+            if (mStamps[rule] == mStamp) {
+                return false;
+            }
+            mStamps[rule] = mStamp;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles Adblock Plus style filter lists into the binary form read by {@link ContentBlocker}.
+ *
+ * Supported are blocking rules and @@ exceptions made of URL patterns, with * wildcards,
+ * ^ separators, | anchors at either end and || domain anchors. A rule that is only a domain,
+ * such as ||ads.example.com^, blocks that domain and its subdomains. Element hiding rules,
+ * regular expressions, rules with $ options and rules with non-ASCII characters are skipped,
+ * since requests do not carry what options such as $third-party or $script test.
+ */
+public final class FilterListCompiler {
+
+    // Bloom filter bits per domain; with four hashes this gives about 0.3% false positives.
+    private static final int BLOOM_BITS_PER_DOMAIN = 12;
+
+    private final Section mBlocks = new Section();
+    private final Section mExceptions = new Section();
+    private int mSkipped;
+
+    /**
+     * Adds the rules of a list, one per line.
+     */
+    public void addRules(Reader list) throws IOException {
+        BufferedReader in = new BufferedReader(list);
+        String line;
+        while ((line = in.readLine()) != null) {
+            addRule(line);
+        }
+    }
+
+    /**
+     * @return Whether the line held a rule that is compiled. Comments and blank lines do not;
+     * neither do unsupported rules, which are counted by {@link #getSkippedCount()}.
+     */
+    public boolean addRule(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[")) {
+            return false;
+        }
+        if (rule.contains("##") || rule.contains("#@#") || rule.contains("#?#")
+                || rule.contains("#$#") || !isAscii(rule)) {
+            mSkipped++;
+            return false;
+        }
+        Section section = mBlocks;
+        if (rule.startsWith("@@")) {
+            section = mExceptions;
+            rule = rule.substring(2);
+        }
+        if (rule.indexOf('$') >= 0
+                || rule.length() > 1 && rule.startsWith("/") && rule.endsWith("/")) {
+            mSkipped++;
+            return false;
+        }
+        rule = rule.toLowerCase(Locale.US);
+
+        int flags = 0;
+        int start = 0;
+        int end = rule.length();
+        if (rule.startsWith("||")) {
+            flags |= ContentBlocker.FLAG_DOMAIN_ANCHOR;
+            start = 2;
+        } else if (rule.startsWith("|")) {
+            flags |= ContentBlocker.FLAG_START_ANCHOR;
+            start = 1;
+        }
+        if (end > start && rule.charAt(end - 1) == '|') {
+            flags |= ContentBlocker.FLAG_END_ANCHOR;
+            end--;
+        }
+        // Wildcards at the ends of an unanchored pattern match nothing more.
+        while (start < end && rule.charAt(start) == '*'
+                && (flags & ~ContentBlocker.FLAG_END_ANCHOR) == 0) {
+            start++;
+        }
+        while (end > start && rule.charAt(end - 1) == '*'
+                && (flags & ContentBlocker.FLAG_END_ANCHOR) == 0) {
+            end--;
+        }
+        String pattern = rule.substring(start, end);
+
+        if ((flags & ContentBlocker.FLAG_DOMAIN_ANCHOR) != 0
+                && (flags & ContentBlocker.FLAG_END_ANCHOR) == 0 && isDomainRule(pattern)) {
+            section.mDomains.add(pattern.substring(0, pattern.length() - 1));
+            return true;
+        }
+        String literal = longestLiteral(pattern);
+        if (literal.isEmpty()) {
+            // Would match every URL.
+            mSkipped++;
+            return false;
+        }
+        section.mPatterns.add(pattern);
+        section.mFlags.add(flags);
+        section.mLiterals.add(literal);
+        return true;
+    }
+
+    /**
+     * @return How many rules have been skipped as unsupported.
+     */
+    public int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * @return How many rules have been compiled, domain and pattern rules counted once each.
+     */
+    public int getRuleCount() {
+        return mBlocks.size() + mExceptions.size();
+    }
+
+    /**
+     * Writes the compiled rules. Does not close the stream.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(ContentBlocker.MAGIC);
+        data.writeInt(ContentBlocker.VERSION);
+        mBlocks.write(data);
+        mExceptions.write(data);
+        data.flush();
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the pattern is a host followed by ^, and nothing else.
+     */
+    private static boolean isDomainRule(String pattern) {
+        int length = pattern.length() - 1;
+        if (length < 1 || pattern.charAt(length) != '^') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return pattern.charAt(0) != '.' && pattern.charAt(length - 1) != '.';
+    }
+
+    /**
+     * @return The longest run of the pattern without * or ^, which any URL the pattern matches
+     * contains, as the key of the rule in the automaton.
+     */
+    private static String longestLiteral(String pattern) {
+        int bestStart = 0;
+        int bestLength = 0;
+        int runStart = 0;
+        for (int i = 0; i <= pattern.length(); i++) {
+            if (i == pattern.length() || pattern.charAt(i) == '*' || pattern.charAt(i) == '^') {
+                if (i - runStart > bestLength) {
+                    bestStart = runStart;
+                    bestLength = i - runStart;
+                }
+                runStart = i + 1;
+            }
+        }
+        return pattern.substring(bestStart, bestStart + bestLength);
+    }
+
+    /**
+     * The rules of one kind, blocking or exceptions.
+     */
+    private static final class Section {
+        final Set<String> mDomains = new LinkedHashSet<String>();
+        final List<String> mPatterns = new ArrayList<String>();
+        final List<Integer> mFlags = new ArrayList<Integer>();
+        final List<String> mLiterals = new ArrayList<String>();
+
+        int size() {
+            return mDomains.size() + mPatterns.size();
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeDomains(out);
+            writeAutomaton(out);
+            writeRules(out);
+        }
+
+        private void writeDomains(DataOutputStream out) throws IOException {
+            long[] hashes = new long[mDomains.size()];
+            int count = 0;
+            for (String domain : mDomains) {
+                hashes[count++] = ContentBlocker.hash(domain, 0, domain.length());
+            }
+            Arrays.sort(hashes);
+
+            int words = 1;
+            while (words * 64L < (long) count * BLOOM_BITS_PER_DOMAIN) {
+                words <<= 1;
+            }
+            long[] bloom = new long[words];
+            int mask = words * 64 - 1;
+            for (long hash : hashes) {
+                for (int i = 0; i < ContentBlocker.BLOOM_HASHES; i++) {
+                    int bit = ContentBlocker.bloomBit(hash, i, mask);
+                    bloom[bit >>> 6] |= 1L << bit;
+                }
+            }
+            out.writeInt(words);
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            out.writeInt(count);
+            for (long hash : hashes) {
+                out.writeLong(hash);
+            }
+        }
+
+        private void writeAutomaton(DataOutputStream out) throws IOException {
+            // The trie of the literals, with each node's own rules.
+            List<Map<Character, Integer>> children = new ArrayList<Map<Character, Integer>>();
+            List<List<Integer>> own = new ArrayList<List<Integer>>();
+            children.add(new HashMap<Character, Integer>());
+            own.add(new ArrayList<Integer>());
+            for (int rule = 0; rule < mLiterals.size(); rule++) {
+                String literal = mLiterals.get(rule);
+                int node = 0;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer child = children.get(node).get(literal.charAt(i));
+                    if (child == null) {
+                        child = children.size();
+                        children.get(node).put(literal.charAt(i), child);
+                        children.add(new HashMap<Character, Integer>());
+                        own.add(new ArrayList<Integer>());
+                    }
+                    node = child;
+                }
+                own.get(node).add(rule);
+            }
+
+            // Numbers the nodes breadth first, so that a node's fail target, which is
+            // shallower, is complete before the node itself.
+            int nodes = children.size();
+            int[] order = new int[nodes];
+            int[] state = new int[nodes];
+            int[] fail = new int[nodes];
+            List<List<Integer>> outputs = new ArrayList<List<Integer>>(nodes);
+            ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+            queue.add(0);
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                order[next] = node;
+                state[node] = next++;
+                List<Integer> merged = new ArrayList<Integer>(own.get(node));
+                if (node != 0) {
+                    merged.addAll(outputs.get(state[fail[node]]));
+                }
+                outputs.add(merged);
+                Character[] chars = sortedKeys(children.get(node));
+                for (Character c : chars) {
+                    int child = children.get(node).get(c);
+                    int f = fail[node];
+                    Integer target = null;
+                    if (node != 0) {
+                        while (true) {
+                            target = children.get(f).get(c);
+                            if (target != null || f == 0) {
+                                break;
+                            }
+                            f = fail[f];
+                        }
+                    }
+                    fail[child] = target == null ? 0 : target;
+                    queue.add(child);
+                }
+            }
+
+            int edges = 0;
+            for (Map<Character, Integer> map : children) {
+                edges += map.size();
+            }
+            out.writeInt(nodes);
+            out.writeInt(edges);
+            int offset = 0;
+            for (int s = 0; s < nodes; s++) {
+                out.writeInt(offset);
+                offset += children.get(order[s]).size();
+            }
+            out.writeInt(offset);
+            for (int s = 0; s < nodes; s++) {
+                for (Character c : sortedKeys(children.get(order[s]))) {
+                    out.writeChar(c);
+                }
+            }
+            for (int s = 0; s < nodes; s++) {
+                Map<Character, Integer> map = children.get(order[s]);
+                for (Character c : sortedKeys(map)) {
+                    out.writeInt(state[map.get(c)]);
+                }
+            }
+            for (int s = 0; s < nodes; s++) {
+                out.writeInt(state[fail[order[s]]]);
+            }
+            offset = 0;
+            for (int s = 0; s < nodes; s++) {
+                out.writeInt(offset);
+                offset += outputs.get(s).size();
+            }
+            out.writeInt(offset);
+            // The number of outputs, which the reader needs before the list.
+            out.writeInt(offset);
+            for (List<Integer> rules : outputs) {
+                for (int rule : rules) {
+                    out.writeInt(rule);
+                }
+            }
+        }
+
+        private void writeRules(DataOutputStream out) throws IOException {
+            out.writeInt(mPatterns.size());
+            int offset = 0;
+            for (String pattern : mPatterns) {
+                out.writeInt(offset);
+                offset += pattern.length();
+            }
+            out.writeInt(offset);
+            for (int flags : mFlags) {
+                out.writeByte(flags);
+            }
+            out.writeInt(offset);
+            for (String pattern : mPatterns) {
+                out.writeBytes(pattern);
+            }
+        }
+
+        private static Character[] sortedKeys(Map<Character, Integer> map) {
+            Character[] keys = map.keySet().toArray(new Character[map.size()]);
+            Arrays.sort(keys);
+            return keys;
+        }
+    }
+}
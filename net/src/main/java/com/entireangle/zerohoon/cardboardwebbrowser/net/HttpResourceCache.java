@@ -0,0 +1,1073 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An HTTP cache for GET requests, kept in a directory.
+ *
+ * Bodies are stored in files named after the SHA-1 of their contents, so URLs with the same
+ * body share one file. An in-memory index maps each URL to its file, validators and
+ * freshness, and is persisted as an append-only journal that is compacted when it has grown
+ * well past the index. The index is bounded by the total size of the files; the least
+ * recently used URLs are evicted first. Recency is only tracked in memory, so after a restart
+ * the order is that of the last writes.
+ *
+ * A fresh entry is served from disk without a request. A stale one with an ETag or
+ * Last-Modified is revalidated with a conditional request, and a 304 serves it from disk.
+ * Otherwise the response is streamed to the caller as it arrives and copied to a file on the
+ * way; the file is only committed once the caller has read the whole body. Responses with
+ * no-store, Set-Cookie, a Vary other than Accept-Encoding, or neither a validator nor a
+ * freshness lifetime are passed through without being stored.
+ *
+ * Thread safe; requests run in parallel, outside the index lock. The directory is only read
+ * on the first request, so construction does no I/O.
+ */
+public final class HttpResourceCache {
+
+    /**
+     * The cookies of the requests; the cache sends and receives them on the caller's behalf.
+     */
+    public interface CookieJar {
+        /**
+         * @return The Cookie header for the URL, or null for none.
+         */
+        String getCookie(String url);
+
+        /**
+         * @param setCookie The value of a Set-Cookie header the URL responded with.
+         */
+        void setCookie(String url, String setCookie);
+    }
+
+    /**
+     * A response to hand to the page. The caller reads and closes its body.
+     */
+    public static final class Response {
+        private final int mStatusCode;
+        private final String mReasonPhrase;
+        private final String mMimeType;
+        private final String mEncoding;
+        private final Map<String, String> mHeaders;
+        private final InputStream mBody;
+        private final boolean mFromCache;
+
+        Response(int statusCode, String reasonPhrase, String mimeType, String encoding,
+                Map<String, String> headers, InputStream body, boolean fromCache) {
+            mStatusCode = statusCode;
+            mReasonPhrase = reasonPhrase;
+            mMimeType = mimeType;
+            mEncoding = encoding;
+            mHeaders = headers;
+            mBody = body;
+            mFromCache = fromCache;
+        }
+
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * @return The reason phrase, or null if the server sent none.
+         */
+        public String getReasonPhrase() {
+            return mReasonPhrase;
+        }
+
+        public String getMimeType() {
+            return mMimeType;
+        }
+
+        /**
+         * @return The charset of the body, or null if not known.
+         */
+        public String getEncoding() {
+            return mEncoding;
+        }
+
+        /**
+         * @return The response headers, without those the cache handled itself, such as
+         * Set-Cookie and Content-Encoding.
+         */
+        public Map<String, String> getHeaders() {
+            return mHeaders;
+        }
+
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return Whether the body comes from disk, fresh or revalidated.
+         */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "httpcache 1";
+    private static final String TEMP_PREFIX = "tmp-";
+    private static final String PUT = "PUT";
+    private static final String DEL = "DEL";
+    private static final int PUT_FIELDS = 10;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    // The journal is compacted once it has this many more lines than the index needs.
+    private static final int COMPACT_LINES = 1000;
+    // No entry may take more than this fraction of the cache.
+    private static final int MAX_ENTRY_FRACTION = 8;
+    // Caps the freshness guessed from Last-Modified, as suggested by RFC 7234.
+    private static final long MAX_HEURISTIC_MS = 24 * 60 * 60 * 1000L;
+    // Request headers the cache sets itself, or that would make a response unfit to store.
+    private static final String[] OWN_REQUEST_HEADERS = {
+            "accept-encoding", "cookie", "if-none-match", "if-modified-since", "host",
+            "connection",
+    };
+    // Response headers the cache handled itself, and hop-by-hop ones.
+    private static final String[] OWN_RESPONSE_HEADERS = {
+            "set-cookie", "set-cookie2", "content-encoding", "content-length",
+            "transfer-encoding", "connection", "keep-alive",
+    };
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final long mMaxEntryBytes;
+    private final CookieJar mCookieJar;
+
+    // Guarded by this. The index in access order, eldest first.
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // Guarded by this. The body files by digest.
+    private final Map<String, Blob> mBlobs = new HashMap<String, Blob>();
+    private long mSize;
+    private boolean mOpened;
+    // Null if the directory cannot be written; nothing is stored then.
+    private Writer mJournal;
+    private int mJournalLines;
+    private int mTempCount;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mRevalidatedHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mStored = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromNetwork = new AtomicLong();
+
+    /**
+     * @param directory Where bodies and the journal are kept, used by this cache only.
+     * @param maxBytes The most the bodies may take on disk.
+     * @param cookieJar Cookies to send and receive, or null to send none.
+     */
+    public HttpResourceCache(File directory, long maxBytes, CookieJar cookieJar) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mMaxEntryBytes = maxBytes / MAX_ENTRY_FRACTION;
+        mCookieJar = cookieJar;
+    }
+
+    /**
+     * Gets a response for a GET request, from disk if it can.
+     *
+     * @param requestHeaders The page's request headers, sent along with a network request.
+     * @return The response, or null for requests the cache does not serve: range requests
+     *         and redirects, which the caller should load itself.
+     * @throws IOException If the server cannot be reached.
+     */
+    public Response fetch(String url, Map<String, String> requestHeaders) throws IOException {
+        return fetch(url, requestHeaders, true);
+    }
+
+    /**
+     * Gets a response for a GET request, from disk if it can.
+     *
+     * @param withCookies Whether to send the cookie jar's cookies and store those the server
+     *        sets; false for third-party requests whose cookies are blocked.
+     * @see #fetch(String, Map)
+     */
+    public Response fetch(String url, Map<String, String> requestHeaders, boolean withCookies)
+            throws IOException {
+        if (hasHeader(requestHeaders, "range")) {
+            return null;
+        }
+        Entry entry;
+        synchronized (this) {
+            ensureOpen();
+            entry = mEntries.get(url);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.mExpiresAt) {
+            Response response = openCached(entry);
+            if (response != null) {
+                mHits.incrementAndGet();
+                return response;
+            }
+            entry = null;
+        }
+
+        HttpURLConnection connection = open(url, requestHeaders, withCookies);
+        if (entry != null) {
+            if (entry.mEtag != null) {
+                connection.setRequestProperty("If-None-Match", entry.mEtag);
+            }
+            if (entry.mLastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", entry.mLastModified);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (withCookies) {
+            receiveCookies(url, connection);
+        }
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+            closeQuietly(connection.getInputStream());
+            Response response = openCached(revalidate(entry, connection, now));
+            if (response != null) {
+                mRevalidatedHits.incrementAndGet();
+                return response;
+            }
+            // The body went missing meanwhile; ask again without validators.
+            return fetch(url, requestHeaders, withCookies);
+        }
+        if (status / 100 == 3) {
+            // The caller follows redirects itself, so relative URLs resolve against the
+            // final one.
+            closeQuietly(connection.getInputStream());
+            return null;
+        }
+        mMisses.incrementAndGet();
+
+        InputStream body = status >= 400 ? connection.getErrorStream()
+                : connection.getInputStream();
+        if (body == null) {
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            body = new GZIPInputStream(body);
+        }
+        String contentType = connection.getContentType();
+        if (contentType == null) {
+            contentType = URLConnection.guessContentTypeFromName(url);
+        }
+        Entry candidate = status == HttpURLConnection.HTTP_OK
+                ? toEntry(url, connection, contentType, now) : null;
+        return new Response(status, connection.getResponseMessage(), getMimeType(contentType),
+                getCharset(contentType), getResponseHeaders(connection),
+                new NetworkInputStream(body, candidate), false);
+    }
+
+    /**
+     * Tells whether two URLs belong to the same site, for deciding whether a request is a
+     * third-party one. Without a public suffix list a site is taken to be the last two labels
+     * of the host, or three under a country code when the second last is at most three letters,
+     * as in co.uk. That takes two sites under a shared suffix such as github.io for one, and
+     * splits some sites such as abc.de into one per subdomain, which only keeps more out.
+     *
+     * @return Whether the hosts of both URLs share their site; false if either has no host.
+     */
+    public static boolean isSameSite(String url, String firstPartyUrl) {
+        String host = getHost(url);
+        String firstPartyHost = getHost(firstPartyUrl);
+        if (host == null || firstPartyHost == null) {
+            return false;
+        }
+        return getSite(host).equals(getSite(firstPartyHost));
+    }
+
+    /**
+     * @return Requests served from disk without asking the server.
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return Requests served from disk after the server said the copy was still current.
+     */
+    public long getRevalidatedHitCount() {
+        return mRevalidatedHits.get();
+    }
+
+    /**
+     * @return Requests whose body came from the network.
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return Network responses read to the end and stored.
+     */
+    public long getStoredCount() {
+        return mStored.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    public long getBytesFromCache() {
+        return mBytesFromCache.get();
+    }
+
+    public long getBytesFromNetwork() {
+        return mBytesFromNetwork.get();
+    }
+
+    /**
+     * @return How many bytes the stored bodies take.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The counts and sizes so far, one per line.
+     */
+    public String dump() {
+        long hits = getHitCount() + getRevalidatedHitCount();
+        long requests = hits + getMissCount();
+        StringBuilder sb = new StringBuilder();
+        sb.append("hits=").append(getHitCount())
+                .append(" revalidated=").append(getRevalidatedHitCount())
+                .append(" misses=").append(getMissCount())
+                .append(" hit rate=").append(requests > 0 ? hits * 100 / requests : 0)
+                .append("%\n");
+        sb.append("stored=").append(getStoredCount())
+                .append(" evicted=").append(getEvictionCount()).append('\n');
+        sb.append("bytes from cache=").append(getBytesFromCache())
+                .append(" from network=").append(getBytesFromNetwork()).append('\n');
+        synchronized (this) {
+            sb.append("entries=").append(mEntries.size()).append(" files=").append(mBlobs.size())
+                    .append(" size=").append(mSize).append('/').append(mMaxBytes).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Closes the journal. Later requests still work but store nothing.
+     */
+    public synchronized void close() {
+        if (mJournal != null) {
+            closeQuietly(mJournal);
+            mJournal = null;
+        }
+        mOpened = true;
+    }
+
+    private HttpURLConnection open(String url, Map<String, String> requestHeaders,
+            boolean withCookies) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                if (!isOneOf(header.getKey(), OWN_REQUEST_HEADERS)) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+        }
+        // Bodies are decompressed here and stored decompressed.
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (mCookieJar != null && withCookies) {
+            String cookie = mCookieJar.getCookie(url);
+            if (cookie != null) {
+                connection.setRequestProperty("Cookie", cookie);
+            }
+        }
+        return connection;
+    }
+
+    private void receiveCookies(String url, HttpURLConnection connection) {
+        if (mCookieJar == null) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && header.getKey().equalsIgnoreCase("set-cookie")) {
+                for (String value : header.getValue()) {
+                    mCookieJar.setCookie(url, value);
+                }
+            }
+        }
+    }
+
+    private static String getHost(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            String host = new URL(url).getHost();
+            return host == null || host.isEmpty() ? null : lowerCase(host);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static String getSite(String host) {
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        if (host.startsWith("[") || host.indexOf(':') >= 0 || isIpv4(host)) {
+            return host;
+        }
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return host;
+        }
+        int second = host.lastIndexOf('.', last - 1);
+        if (second >= 0 && host.length() - last - 1 == 2 && last - second - 1 <= 3) {
+            // A second-level suffix such as co.uk; keep one more label.
+            second = host.lastIndexOf('.', second - 1);
+        }
+        return host.substring(second + 1);
+    }
+
+    private static boolean isIpv4(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return An entry for a 200 response if it may be stored, without its body yet.
+     */
+    private Entry toEntry(String url, HttpURLConnection connection, String contentType,
+            long now) {
+        if (!isWritable()) {
+            return null;
+        }
+        String cacheControl = lowerCase(connection.getHeaderField("Cache-Control"));
+        if (cacheControl != null && cacheControl.contains("no-store")) {
+            return null;
+        }
+        String vary = connection.getHeaderField("Vary");
+        if (vary != null && !vary.trim().equalsIgnoreCase("accept-encoding")) {
+            return null;
+        }
+        if (connection.getHeaderField("Set-Cookie") != null) {
+            return null;
+        }
+        if (connection.getContentLength() > mMaxEntryBytes) {
+            return null;
+        }
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        long expiresAt = getExpiresAt(connection, cacheControl, now);
+        if (expiresAt <= now && etag == null && lastModified == null) {
+            // Could never be used without downloading it again.
+            return null;
+        }
+        Entry entry = new Entry(url, null, 0, expiresAt, getMimeType(contentType),
+                getCharset(contentType), etag, lastModified,
+                connection.getHeaderField("Access-Control-Allow-Origin"));
+        return entry.isWritable() ? entry : null;
+    }
+
+    /**
+     * @return When a response stops being fresh, from Cache-Control, Expires or, failing
+     *         those, its Last-Modified.
+     */
+    private static long getExpiresAt(HttpURLConnection connection, String cacheControl,
+            long now) {
+        if (cacheControl != null) {
+            if (cacheControl.contains("no-cache")) {
+                return now;
+            }
+            int maxAge = cacheControl.indexOf("max-age=");
+            if (maxAge >= 0) {
+                int start = maxAge + "max-age=".length();
+                int end = start;
+                while (end < cacheControl.length()
+                        && Character.isDigit(cacheControl.charAt(end))) {
+                    end++;
+                }
+                try {
+                    return now + Long.parseLong(cacheControl.substring(start, end)) * 1000;
+                } catch (NumberFormatException e) {
+                    return now;
+                }
+            }
+        }
+        // Measured against the server's own clock, which may be off from ours.
+        long date = connection.getHeaderFieldDate("Date", now);
+        if (connection.getHeaderField("Expires") != null) {
+            long expires = connection.getHeaderFieldDate("Expires", 0);
+            return expires > date ? now + expires - date : now;
+        }
+        long lastModified = connection.getHeaderFieldDate("Last-Modified", 0);
+        if (lastModified > 0 && lastModified < date) {
+            return now + Math.min((date - lastModified) / 10, MAX_HEURISTIC_MS);
+        }
+        return now;
+    }
+
+    /**
+     * Refreshes an entry from a 304 response and stores it.
+     */
+    private Entry revalidate(Entry entry, HttpURLConnection connection, long now) {
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        Entry refreshed = new Entry(entry.mUrl, entry.mDigest, entry.mSize,
+                getExpiresAt(connection, lowerCase(connection.getHeaderField("Cache-Control")),
+                        now),
+                entry.mMimeType, entry.mEncoding, etag != null ? etag : entry.mEtag,
+                lastModified != null ? lastModified : entry.mLastModified, entry.mAllowOrigin);
+        if (!refreshed.isWritable()) {
+            return entry;
+        }
+        synchronized (this) {
+            if (mEntries.get(entry.mUrl) == entry) {
+                mEntries.put(entry.mUrl, refreshed);
+                appendJournal(refreshed);
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * @return The entry's body from disk, or null if its file is gone.
+     */
+    private Response openCached(Entry entry) {
+        InputStream body;
+        try {
+            body = new FileInputStream(new File(mDirectory, entry.mDigest));
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                if (mEntries.get(entry.mUrl) == entry) {
+                    remove(entry);
+                }
+            }
+            return null;
+        }
+        mBytesFromCache.addAndGet(entry.mSize);
+        Map<String, String> headers = new HashMap<String, String>();
+        if (entry.mAllowOrigin != null) {
+            headers.put("Access-Control-Allow-Origin", entry.mAllowOrigin);
+        }
+        return new Response(HttpURLConnection.HTTP_OK, "OK", entry.mMimeType, entry.mEncoding,
+                headers, body, true);
+    }
+
+    /**
+     * Adds a fully read body to the index, under its digest.
+     */
+    private synchronized void commit(Entry pending, File temp, String digest, long size) {
+        if (mJournal == null) {
+            deleteQuietly(temp);
+            return;
+        }
+        Blob blob = mBlobs.get(digest);
+        if (blob == null) {
+            if (!temp.renameTo(new File(mDirectory, digest))) {
+                deleteQuietly(temp);
+                return;
+            }
+            blob = new Blob(size);
+            mBlobs.put(digest, blob);
+            mSize += size;
+        } else {
+            // The same body is stored already, maybe for another URL.
+            deleteQuietly(temp);
+        }
+        Entry entry = new Entry(pending.mUrl, digest, size, pending.mExpiresAt,
+                pending.mMimeType, pending.mEncoding, pending.mEtag, pending.mLastModified,
+                pending.mAllowOrigin);
+        blob.mRefs++;
+        Entry previous = mEntries.put(entry.mUrl, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        appendJournal(entry);
+        mStored.incrementAndGet();
+        trim();
+    }
+
+    /**
+     * Evicts the least recently used entries until the bodies fit.
+     */
+    private void trim() {
+        Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mSize > mMaxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            release(entry);
+            appendJournalRemove(entry.mUrl);
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Entry entry) {
+        mEntries.remove(entry.mUrl);
+        release(entry);
+        appendJournalRemove(entry.mUrl);
+    }
+
+    /**
+     * Drops an entry's reference to its body, deleting the file with the last reference.
+     * A file still being read stays readable until it is closed.
+     */
+    private void release(Entry entry) {
+        Blob blob = mBlobs.get(entry.mDigest);
+        if (blob != null && --blob.mRefs == 0) {
+            mBlobs.remove(entry.mDigest);
+            mSize -= blob.mSize;
+            deleteQuietly(new File(mDirectory, entry.mDigest));
+        }
+    }
+
+    private synchronized boolean isWritable() {
+        return mJournal != null;
+    }
+
+    private synchronized File createTempFile() {
+        return new File(mDirectory, TEMP_PREFIX + (mTempCount++));
+    }
+
+    /**
+     * Loads the index from the journal, deletes files it does not know, and starts a compact
+     * journal. Leaves the cache empty if the journal is unreadable.
+     */
+    private void ensureOpen() {
+        if (mOpened) {
+            return;
+        }
+        mOpened = true;
+        mDirectory.mkdirs();
+        File journal = new File(mDirectory, JOURNAL);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+            } catch (IOException e) {
+                mEntries.clear();
+            }
+        }
+        mBlobs.clear();
+        mSize = 0;
+        for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            File file = new File(mDirectory, entry.mDigest);
+            if (!file.isFile() || file.length() != entry.mSize) {
+                it.remove();
+                continue;
+            }
+            Blob blob = mBlobs.get(entry.mDigest);
+            if (blob == null) {
+                blob = new Blob(entry.mSize);
+                mBlobs.put(entry.mDigest, blob);
+                mSize += entry.mSize;
+            }
+            blob.mRefs++;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL) && !mBlobs.containsKey(name)) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+        rewriteJournal();
+        trim();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), UTF_8));
+        try {
+            if (!JOURNAL_HEADER.equals(in.readLine())) {
+                throw new IOException("Unknown journal format");
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == PUT_FIELDS && fields[0].equals(PUT)) {
+                    Entry entry = new Entry(fields[1], fields[2], Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4]), orNull(fields[5]), orNull(fields[6]),
+                            orNull(fields[7]), orNull(fields[8]), orNull(fields[9]));
+                    // Re-inserted, so the last write is the most recent.
+                    mEntries.remove(entry.mUrl);
+                    mEntries.put(entry.mUrl, entry);
+                } else if (fields.length == 2 && fields[0].equals(DEL)) {
+                    mEntries.remove(fields[1]);
+                }
+                // Anything else is the torn last line of a crash.
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed journal", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the journal by one PUT per entry, oldest first.
+     */
+    private void rewriteJournal() {
+        if (mJournal != null) {
+            closeQuietly(mJournal);
+            mJournal = null;
+        }
+        File temp = new File(mDirectory, JOURNAL_TMP);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), UTF_8));
+            try {
+                out.write(JOURNAL_HEADER);
+                out.write('\n');
+                for (Entry entry : mEntries.values()) {
+                    out.write(entry.toJournalLine());
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(new File(mDirectory, JOURNAL))) {
+                throw new IOException("Cannot replace the journal");
+            }
+            mJournal = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(mDirectory, JOURNAL), true), UTF_8));
+            mJournalLines = mEntries.size();
+        } catch (IOException e) {
+            // Served from memory until the next start, but nothing more is stored.
+            deleteQuietly(temp);
+            mJournal = null;
+        }
+    }
+
+    private void appendJournal(Entry entry) {
+        writeJournal(entry.toJournalLine());
+    }
+
+    private void appendJournalRemove(String url) {
+        writeJournal(DEL + '\t' + url + '\n');
+    }
+
+    private void writeJournal(String line) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            mJournal.write(line);
+            mJournal.flush();
+        } catch (IOException e) {
+            closeQuietly(mJournal);
+            mJournal = null;
+            return;
+        }
+        if (++mJournalLines > mEntries.size() + COMPACT_LINES) {
+            rewriteJournal();
+        }
+    }
+
+    private static Map<String, String> getResponseHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            String name = header.getKey();
+            if (name == null || isOneOf(name, OWN_RESPONSE_HEADERS)) {
+                continue;
+            }
+            StringBuilder value = new StringBuilder();
+            for (String part : header.getValue()) {
+                if (value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(part);
+            }
+            headers.put(name, value.toString());
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    private static String getMimeType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim();
+    }
+
+    private static String getCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, "charset=".length())) {
+                return parameter.substring("charset=".length()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasHeader(Map<String, String> headers, String name) {
+        if (headers != null) {
+            for (String key : headers.keySet()) {
+                if (key.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOneOf(String name, String[] lowerCaseNames) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String candidate : lowerCaseNames) {
+            if (candidate.equals(lower)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String lowerCase(String value) {
+        return value != null ? value.toLowerCase(Locale.US) : null;
+    }
+
+    private static String orNull(String field) {
+        return field.length() > 0 ? field : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to do with it.
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * What the index knows of a URL. Immutable; a change replaces the entry.
+     */
+    private static final class Entry {
+        final String mUrl;
+        // The body's file, or null while the body is still being read.
+        final String mDigest;
+        final long mSize;
+        final long mExpiresAt;
+        final String mMimeType;
+        final String mEncoding;
+        final String mEtag;
+        final String mLastModified;
+        final String mAllowOrigin;
+
+        Entry(String url, String digest, long size, long expiresAt, String mimeType,
+                String encoding, String etag, String lastModified, String allowOrigin) {
+            mUrl = url;
+            mDigest = digest;
+            mSize = size;
+            mExpiresAt = expiresAt;
+            mMimeType = mimeType;
+            mEncoding = encoding;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mAllowOrigin = allowOrigin;
+        }
+
+        /**
+         * @return Whether the fields fit in a journal line.
+         */
+        boolean isWritable() {
+            return isField(mUrl) && isField(mMimeType) && isField(mEncoding)
+                    && isField(mEtag) && isField(mLastModified) && isField(mAllowOrigin);
+        }
+
+        String toJournalLine() {
+            return PUT + '\t' + mUrl + '\t' + mDigest + '\t' + mSize + '\t' + mExpiresAt
+                    + '\t' + orEmpty(mMimeType) + '\t' + orEmpty(mEncoding) + '\t'
+                    + orEmpty(mEtag) + '\t' + orEmpty(mLastModified) + '\t'
+                    + orEmpty(mAllowOrigin) + '\n';
+        }
+
+        private static boolean isField(String value) {
+            return value == null || (value.indexOf('\t') < 0 && value.indexOf('\n') < 0
+                    && value.indexOf('\r') < 0);
+        }
+
+        private static String orEmpty(String value) {
+            return value != null ? value : "";
+        }
+    }
+
+    /**
+     * A body file and how many entries refer to it.
+     */
+    private static final class Blob {
+        final long mSize;
+        int mRefs;
+
+        Blob(long size) {
+            mSize = size;
+        }
+    }
+
+    /**
+     * A network body on its way to the caller, copied to a temporary file when it may be
+     * stored. The copy is committed when the caller reaches the end, and dropped if it closes
+     * the stream earlier or the body outgrows an entry.
+     */
+    private final class NetworkInputStream extends FilterInputStream {
+        private final Entry mPending;
+        private File mTemp;
+        private OutputStream mCopy;
+        private MessageDigest mDigest;
+        private long mRead;
+
+        NetworkInputStream(InputStream in, Entry pending) {
+            super(in);
+            mPending = pending;
+            if (pending == null) {
+                return;
+            }
+            try {
+                mDigest = MessageDigest.getInstance("SHA-1");
+                mTemp = createTempFile();
+                mCopy = new FileOutputStream(mTemp);
+            } catch (NoSuchAlgorithmException e) {
+                mCopy = null;
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                finish();
+            } else {
+                mBytesFromNetwork.incrementAndGet();
+                copy(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = in.read(buffer, offset, length);
+            if (count < 0) {
+                finish();
+            } else {
+                mBytesFromNetwork.addAndGet(count);
+                copy(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Read rather than skipped, so the copy stays whole.
+            byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abort();
+            super.close();
+        }
+
+        private void copy(byte[] buffer, int offset, int count) {
+            if (mCopy == null) {
+                return;
+            }
+            mRead += count;
+            if (mRead > mMaxEntryBytes) {
+                abort();
+                return;
+            }
+            try {
+                mCopy.write(buffer, offset, count);
+                mDigest.update(buffer, offset, count);
+            } catch (IOException e) {
+                abort();
+            }
+        }
+
+        private void finish() {
+            if (mCopy == null) {
+                return;
+            }
+            try {
+                mCopy.close();
+            } catch (IOException e) {
+                abort();
+                return;
+            }
+            mCopy = null;
+            commit(mPending, mTemp, toHex(mDigest.digest()), mRead);
+        }
+
+        private void abort() {
+            if (mCopy != null) {
+                closeQuietly(mCopy);
+                mCopy = null;
+            }
+            if (mTemp != null && mTemp.exists()) {
+                deleteQuietly(mTemp);
+            }
+        }
+    }
+}
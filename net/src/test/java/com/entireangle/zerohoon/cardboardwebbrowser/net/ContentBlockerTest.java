@@ -0,0 +1,145 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ContentBlockerTest {
+
+    private static FilterListCompiler compiler(String... rules) {
+        FilterListCompiler compiler = new FilterListCompiler();
+        for (String rule : rules) {
+            compiler.addRule(rule);
+        }
+        return compiler;
+    }
+
+    private static ContentBlocker compile(String... rules) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compiler(rules).write(out);
+        return ContentBlocker.load(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void domainRuleBlocksDomainAndSubdomainsOnly() throws IOException {
+        ContentBlocker blocker = compile("||ads.example.com^");
+        assertTrue(blocker.shouldBlock("https://ads.example.com/banner.png"));
+        assertTrue(blocker.shouldBlock("http://x.ads.example.com:8080/"));
+        assertTrue(blocker.shouldBlock("https://user@ADS.Example.com"));
+        assertFalse(blocker.shouldBlock("https://badads.example.com/"));
+        assertFalse(blocker.shouldBlock("https://ads.example.com.evil.net/"));
+        assertFalse(blocker.shouldBlock("https://example.com/ads.example.com/"));
+    }
+
+    @Test
+    public void patternsMatchWildcardsAndSeparators() throws IOException {
+        ContentBlocker blocker = compile("/banner/*/img^", "-ad-300x250.");
+        assertTrue(blocker.shouldBlock("https://a.com/banner/foo/img?x=1"));
+        assertTrue(blocker.shouldBlock("https://a.com/banner/foo/bar/img"));
+        assertFalse(blocker.shouldBlock("https://a.com/banner/foo/imgs"));
+        assertTrue(blocker.shouldBlock("https://a.com/x-AD-300x250.gif"));
+        assertFalse(blocker.shouldBlock("https://a.com/x-ad-300x250gif"));
+    }
+
+    @Test
+    public void anchorsAreHonoured() throws IOException {
+        ContentBlocker blocker = compile("|http://tracker.", "swf|", "||cdn.net/pixel");
+        assertTrue(blocker.shouldBlock("http://tracker.a.com/"));
+        assertFalse(blocker.shouldBlock("https://a.com/?r=http://tracker.a.com/"));
+        assertTrue(blocker.shouldBlock("https://a.com/movie.swf"));
+        assertFalse(blocker.shouldBlock("https://a.com/movie.swf?x"));
+        assertTrue(blocker.shouldBlock("https://img.cdn.net/pixel.gif"));
+        assertFalse(blocker.shouldBlock("https://mycdn.net/pixel.gif"));
+        assertFalse(blocker.shouldBlock("https://a.com/cdn.net/pixel.gif"));
+    }
+
+    @Test
+    public void exceptionsOverrideBlocks() throws IOException {
+        ContentBlocker blocker = compile("||example.com^", "/ads/*",
+                "@@||static.example.com^", "@@/ads/allowed.js|");
+        assertTrue(blocker.shouldBlock("https://example.com/"));
+        assertFalse(blocker.shouldBlock("https://static.example.com/app.js"));
+        assertTrue(blocker.shouldBlock("https://a.com/ads/x.js"));
+        assertFalse(blocker.shouldBlock("https://a.com/ads/allowed.js"));
+    }
+
+    @Test
+    public void overlappingLiteralsAreAllFound() throws IOException {
+        // The literals share prefixes and suffixes, so some are only found by fail links.
+        ContentBlocker blocker = compile("abcd^", "bcx", "cdef");
+        assertTrue(blocker.shouldBlock("https://a.com/abcd/"));
+        assertTrue(blocker.shouldBlock("https://a.com/abcx"));
+        assertTrue(blocker.shouldBlock("https://a.com/abcdef"));
+        assertFalse(blocker.shouldBlock("https://a.com/abcde"));
+    }
+
+    @Test
+    public void repeatedLiteralsMatchOnceAndForEachUrl() throws IOException {
+        ContentBlocker blocker = compile("/slow/*.js|", "||cdn.net/slow/*^x");
+        StringBuilder url = new StringBuilder("https://a.com");
+        while (url.length() < ContentBlocker.MAX_URL_CHARS) {
+            url.append("/slow/a");
+        }
+        assertFalse(blocker.shouldBlock(url.toString()));
+        // Only the last of the repeats is followed by the rest of the pattern.
+        assertTrue(blocker.shouldBlock("https://a.com/slow/a/slow/b.js"));
+        assertTrue(blocker.shouldBlock("https://img.cdn.net/slow/slow/x"));
+        // Rules matched for one URL are matched again for the next.
+        assertFalse(blocker.shouldBlock("https://a.com/slow/a.jsx"));
+        assertTrue(blocker.shouldBlock("https://a.com/slow/a.js"));
+    }
+
+    @Test
+    public void unsupportedRulesAreSkipped() throws IOException {
+        FilterListCompiler compiler = compiler("! comment", "[Adblock Plus 2.0]", "",
+                "example.com##.ad", "/ad[0-9]+/", "||ads.com^$third-party", "*", "||ads.net^");
+        assertEquals(4, compiler.getSkippedCount());
+        assertEquals(1, compiler.getRuleCount());
+        ContentBlocker blocker = compile("example.com##.ad", "||ads.com^$third-party");
+        assertFalse(blocker.shouldBlock("https://example.com/ad1/"));
+        assertFalse(blocker.shouldBlock("https://ads.com/"));
+    }
+
+    @Test
+    public void mapsCompiledFile() throws IOException {
+        FilterListCompiler compiler = new FilterListCompiler();
+        compiler.addRules(new StringReader(
+                "||ads.example.com^\n/pixel.gif\n@@||ok.ads.example.com^\n"));
+        File file = File.createTempFile("filters", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                compiler.write(out);
+            } finally {
+                out.close();
+            }
+            ContentBlocker blocker = ContentBlocker.map(file);
+            assertEquals(2, blocker.getRuleCount());
+            assertEquals(1, blocker.getExceptionCount());
+            assertTrue(blocker.shouldBlock("https://ads.example.com/"));
+            assertTrue(blocker.shouldBlock("https://a.com/pixel.gif"));
+            assertFalse(blocker.shouldBlock("https://ok.ads.example.com/"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        try {
+            ContentBlocker.load(ByteBuffer.wrap("journal\n".getBytes()));
+            fail("Loaded a file that is not a compiled list");
+        } catch (IOException expected) {
+        }
+    }
+}
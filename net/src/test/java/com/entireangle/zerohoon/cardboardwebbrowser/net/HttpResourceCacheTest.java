@@ -0,0 +1,463 @@
+package com.entireangle.zerohoon.cardboardwebbrowser.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class HttpResourceCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    /**
+     * A local server with fixed resources, which answers conditional requests itself.
+     */
+    private static final class StandInServer implements HttpHandler {
+        private final HttpServer mServer;
+        private final Map<String, byte[]> mBodies = new HashMap<String, byte[]>();
+        private final Map<String, Map<String, String>> mHeaders =
+                new HashMap<String, Map<String, String>>();
+        final AtomicInteger mRequests = new AtomicInteger();
+        final AtomicInteger mNotModified = new AtomicInteger();
+        volatile String mLastCookie;
+
+        StandInServer() throws IOException {
+            mServer = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            mServer.createContext("/", this);
+            mServer.start();
+        }
+
+        synchronized void serve(String path, String body, String... headers) {
+            mBodies.put(path, body.getBytes(UTF_8));
+            Map<String, String> map = new HashMap<String, String>();
+            for (int i = 0; i < headers.length; i += 2) {
+                map.put(headers[i], headers[i + 1]);
+            }
+            mHeaders.put(path, map);
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+        }
+
+        void stop() {
+            mServer.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            mRequests.incrementAndGet();
+            mLastCookie = exchange.getRequestHeaders().getFirst("Cookie");
+            String path = exchange.getRequestURI().getPath();
+            byte[] body;
+            Map<String, String> headers;
+            synchronized (this) {
+                body = mBodies.get(path);
+                headers = mHeaders.get(path);
+            }
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+            }
+            String etag = headers.get("ETag");
+            if (etag != null && etag.equals(
+                    exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                mNotModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            if ("gzip".equals(headers.get("Content-Encoding"))) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("httpcache", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static String read(HttpResourceCache.Response response) throws IOException {
+        InputStream in = response.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static String fetch(HttpResourceCache cache, String url) throws IOException {
+        return read(cache.fetch(url, Collections.<String, String>emptyMap()));
+    }
+
+    private static int countBodyFiles(File directory) {
+        int count = 0;
+        for (String name : directory.list()) {
+            if (name.length() == 40) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void freshResponseIsServedFromDiskWithoutARequest() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/app.css", "body { color: red }", "Cache-Control", "max-age=600",
+                    "Content-Type", "text/css; charset=utf-8");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            assertEquals("body { color: red }", fetch(cache, server.url("/app.css")));
+            HttpResourceCache.Response second = cache.fetch(server.url("/app.css"), null);
+
+            assertTrue(second.isFromCache());
+            assertEquals("text/css", second.getMimeType());
+            assertEquals("utf-8", second.getEncoding());
+            assertEquals("body { color: red }", read(second));
+            assertEquals(1, server.mRequests.get());
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, cache.getMissCount());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void staleResponseIsRevalidatedWithItsEtag() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/logo.svg", "<svg/>", "Cache-Control", "no-cache", "ETag", "\"v1\"");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            fetch(cache, server.url("/logo.svg"));
+            HttpResourceCache.Response second = cache.fetch(server.url("/logo.svg"), null);
+
+            assertTrue(second.isFromCache());
+            assertEquals("<svg/>", read(second));
+            assertEquals(2, server.mRequests.get());
+            assertEquals(1, server.mNotModified.get());
+            assertEquals(1, cache.getRevalidatedHitCount());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void changedResponseReplacesTheStoredOne() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/app.js", "one()", "Cache-Control", "no-cache", "ETag", "\"1\"");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+            fetch(cache, server.url("/app.js"));
+
+            server.serve("/app.js", "two()", "Cache-Control", "no-cache", "ETag", "\"2\"");
+            assertEquals("two()", fetch(cache, server.url("/app.js")));
+
+            assertEquals(0, server.mNotModified.get());
+            assertEquals(1, cache.getEntryCount());
+            assertEquals(1, countBodyFiles(directory));
+            assertEquals("two()".length(), cache.getSize());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void noStoreAndCookieResponsesAreNotStored() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/private", "secret", "Cache-Control", "no-store, max-age=600");
+            server.serve("/login", "hello", "Cache-Control", "max-age=600",
+                    "Set-Cookie", "session=1");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            fetch(cache, server.url("/private"));
+            fetch(cache, server.url("/login"));
+            fetch(cache, server.url("/private"));
+
+            assertEquals(3, server.mRequests.get());
+            assertEquals(0, cache.getEntryCount());
+            assertEquals(0, countBodyFiles(directory));
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void unfinishedBodyIsNotStored() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/big.js", "0123456789abcdef", "Cache-Control", "max-age=600");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            InputStream body = cache.fetch(server.url("/big.js"), null).getBody();
+            assertEquals('0', body.read());
+            body.close();
+
+            assertEquals(0, cache.getEntryCount());
+            assertEquals(0, directory.list().length - 1);
+            assertEquals("0123456789abcdef", fetch(cache, server.url("/big.js")));
+            assertEquals(1, cache.getEntryCount());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void identicalBodiesShareOneFile() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/a/jquery.js", "jQuery()", "Cache-Control", "max-age=600");
+            server.serve("/b/jquery.js", "jQuery()", "Cache-Control", "max-age=600");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            fetch(cache, server.url("/a/jquery.js"));
+            fetch(cache, server.url("/b/jquery.js"));
+
+            assertEquals(2, cache.getEntryCount());
+            assertEquals(1, countBodyFiles(directory));
+            assertEquals("jQuery()".length(), cache.getSize());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void overfullCacheEvictsTheEldest() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            char[] body = new char[100];
+            for (String name : new String[] {"a", "b", "c"}) {
+                Arrays.fill(body, name.charAt(0));
+                server.serve("/" + name, new String(body), "Cache-Control", "max-age=600");
+            }
+            // Room for two bodies; no entry may take more than an eighth, so 1600 / 8 = 200.
+            HttpResourceCache cache = new HttpResourceCache(directory, 1600, null);
+            for (int i = 0; i < 14; i++) {
+                server.serve("/filler" + i, "f" + i + new String(new char[98]),
+                        "Cache-Control", "max-age=600");
+            }
+
+            fetch(cache, server.url("/a"));
+            fetch(cache, server.url("/b"));
+            fetch(cache, server.url("/a"));
+            for (int i = 0; i < 14; i++) {
+                fetch(cache, server.url("/filler" + i));
+            }
+            fetch(cache, server.url("/a"));
+
+            assertTrue(cache.getSize() <= 1600);
+            assertTrue(cache.getEvictionCount() > 0);
+            // b was used least recently, so it went before a.
+            int requests = server.mRequests.get();
+            fetch(cache, server.url("/b"));
+            assertEquals(requests + 1, server.mRequests.get());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void indexSurvivesReopening() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/font.woff", "woff", "Cache-Control", "max-age=600",
+                    "Access-Control-Allow-Origin", "*");
+            HttpResourceCache first = new HttpResourceCache(directory, MAX_BYTES, null);
+            fetch(first, server.url("/font.woff"));
+            first.close();
+
+            HttpResourceCache second = new HttpResourceCache(directory, MAX_BYTES, null);
+            HttpResourceCache.Response response = second.fetch(server.url("/font.woff"), null);
+
+            assertTrue(response.isFromCache());
+            assertEquals("*", response.getHeaders().get("Access-Control-Allow-Origin"));
+            assertEquals("woff", read(response));
+            assertEquals(1, server.mRequests.get());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void gzipBodiesAreStoredDecompressed() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/page.js", "compressed()", "Cache-Control", "max-age=600",
+                    "Content-Encoding", "gzip");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+
+            HttpResourceCache.Response first = cache.fetch(server.url("/page.js"), null);
+            assertNull(first.getHeaders().get("Content-Encoding"));
+            assertEquals("compressed()", read(first));
+
+            assertEquals("compressed()", fetch(cache, server.url("/page.js")));
+            assertEquals("compressed()".length(), cache.getSize());
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void cookiesGoThroughTheJar() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/api", "{}", "Set-Cookie", "token=2");
+            final Map<String, String> jar = new HashMap<String, String>();
+            jar.put(server.url("/api"), "token=1");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES,
+                    new HttpResourceCache.CookieJar() {
+                        @Override
+                        public String getCookie(String url) {
+                            return jar.get(url);
+                        }
+
+                        @Override
+                        public void setCookie(String url, String setCookie) {
+                            jar.put(url, setCookie);
+                        }
+                    });
+
+            HttpResourceCache.Response response = cache.fetch(server.url("/api"), null);
+            read(response);
+
+            assertEquals("token=1", server.mLastCookie);
+            assertEquals("token=2", jar.get(server.url("/api")));
+            assertFalse(response.getHeaders().containsKey("Set-Cookie"));
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void requestsWithoutCookiesNeitherSendNorStoreThem() throws IOException {
+        StandInServer server = new StandInServer();
+        File directory = createDirectory();
+        try {
+            server.serve("/pixel", "{}", "Set-Cookie", "track=2");
+            final Map<String, String> jar = new HashMap<String, String>();
+            jar.put(server.url("/pixel"), "track=1");
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES,
+                    new HttpResourceCache.CookieJar() {
+                        @Override
+                        public String getCookie(String url) {
+                            return jar.get(url);
+                        }
+
+                        @Override
+                        public void setCookie(String url, String setCookie) {
+                            jar.put(url, setCookie);
+                        }
+                    });
+
+            read(cache.fetch(server.url("/pixel"), null, false));
+
+            assertNull(server.mLastCookie);
+            assertEquals("track=1", jar.get(server.url("/pixel")));
+        } finally {
+            server.stop();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void sameSiteComparesRegistrableDomains() {
+        assertTrue(HttpResourceCache.isSameSite("https://cdn.example.com/a.js",
+                "http://www.example.com/"));
+        assertTrue(HttpResourceCache.isSameSite("https://static.bbc.co.uk/a.js",
+                "https://www.bbc.co.uk/news"));
+        assertTrue(HttpResourceCache.isSameSite("https://abc.com/a.js", "https://www.abc.com/"));
+        assertFalse(HttpResourceCache.isSameSite("https://ads.tracker.net/p.gif",
+                "https://www.example.com/"));
+        assertFalse(HttpResourceCache.isSameSite("https://www.itv.co.uk/",
+                "https://www.bbc.co.uk/"));
+        assertFalse(HttpResourceCache.isSameSite("http://127.0.0.2/", "http://127.0.0.1/"));
+        assertFalse(HttpResourceCache.isSameSite("https://example.com/", null));
+    }
+
+    @Test
+    public void rangeRequestsAreLeftToTheCaller() throws IOException {
+        File directory = createDirectory();
+        try {
+            HttpResourceCache cache = new HttpResourceCache(directory, MAX_BYTES, null);
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("Range", "bytes=0-");
+
+            assertNull(cache.fetch("http://127.0.0.1:1/video.mp4", headers));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+}